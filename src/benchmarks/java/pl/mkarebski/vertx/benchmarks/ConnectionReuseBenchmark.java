@@ -0,0 +1,111 @@
+package pl.mkarebski.vertx.benchmarks;
+
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import pl.mkarebski.vertx.database.WikiDatabaseService;
+import pl.mkarebski.vertx.database.WikiDatabaseVerticle;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * The hot queries (GET_PAGE, ALL_PAGES, SAVE_PAGE) with and without the per-connection statement cache and
+ * pinned read connections.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class ConnectionReuseBenchmark {
+
+  private static final int PAGES = 1000;
+
+  @Param({"0", "64"})
+  public int statementCacheSize;
+
+  @Param({"0", "4"})
+  public int pinnedConnections;
+
+  private Vertx vertx;
+  private WikiDatabaseService dbService;
+  private String content;
+
+  @Setup
+  public void prepare() throws Exception {
+    vertx = Vertx.vertx();
+    JsonObject config = new JsonObject()
+      .put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_URL, "jdbc:hsqldb:mem:reuse" + statementCacheSize + "-" + pinnedConnections)
+      .put(WikiDatabaseVerticle.CONFIG_WIKIDB_MARKDOWN_PRERENDER, false)
+      .put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_STATEMENT_CACHE_SIZE, statementCacheSize)
+      .put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_PINNED_CONNECTIONS, pinnedConnections);
+    CompletableFuture<String> deployment = new CompletableFuture<>();
+    vertx.deployVerticle(new WikiDatabaseVerticle(), new DeploymentOptions().setConfig(config), ar -> complete(deployment, ar.result(), ar.cause()));
+    deployment.get(30, TimeUnit.SECONDS);
+
+    dbService = WikiDatabaseService.createProxy(vertx, WikiDatabaseVerticle.CONFIG_WIKIDB_QUEUE);
+    content = MarkdownCorpus.page(256, 42);
+    JsonArray creates = new JsonArray();
+    for (int i = 0; i < PAGES; i++) {
+      creates.add(new JsonObject().put("action", "create").put("name", pageName(i)).put("markdown", content));
+    }
+    CompletableFuture<JsonArray> seeded = new CompletableFuture<>();
+    dbService.applyBatch(creates, ar -> complete(seeded, ar.result(), ar.cause()));
+    seeded.get(60, TimeUnit.SECONDS);
+  }
+
+  @TearDown
+  public void close() {
+    vertx.close();
+  }
+
+  @Benchmark
+  public JsonObject fetchPage() {
+    CompletableFuture<JsonObject> reply = new CompletableFuture<>();
+    dbService.fetchPage(pageName(ThreadLocalRandom.current().nextInt(PAGES)), ar -> complete(reply, ar.result(), ar.cause()));
+    return reply.join();
+  }
+
+  @Benchmark
+  public JsonArray fetchAllPages() {
+    CompletableFuture<JsonArray> reply = new CompletableFuture<>();
+    dbService.fetchAllPages(ar -> complete(reply, ar.result(), ar.cause()));
+    return reply.join();
+  }
+
+  @Benchmark
+  public Void savePage() {
+    CompletableFuture<Void> reply = new CompletableFuture<>();
+    // HSQLDB hands out identity values from 0, so ids are 0 .. PAGES - 1
+    dbService.savePage(ThreadLocalRandom.current().nextInt(PAGES), content, ar -> complete(reply, ar.result(), ar.cause()));
+    return reply.join();
+  }
+
+  private static String pageName(int i) {
+    return String.format("Page-%04d", i);
+  }
+
+  private static <T> void complete(CompletableFuture<T> reply, T result, Throwable cause) {
+    if (cause != null) {
+      reply.completeExceptionally(cause);
+    } else {
+      reply.complete(result);
+    }
+  }
+}
@@ -0,0 +1,130 @@
+package pl.mkarebski.vertx.benchmarks;
+
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import pl.mkarebski.vertx.database.WikiDatabaseService;
+import pl.mkarebski.vertx.database.WikiDatabaseVerticle;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * fetchPage / fetchAllPages through the event-bus proxy against an in-memory HSQLDB seeded with many pages.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class DatabaseBenchmark {
+
+  private static final int SEED_BATCH_SIZE = 10_000;
+
+  @Param({"10000", "100000", "1000000"})
+  public int pages;
+
+  private Vertx vertx;
+  private WikiDatabaseService dbService;
+
+  @Setup
+  public void prepare() throws Exception {
+    String url = "jdbc:hsqldb:mem:benchmark" + pages;
+    vertx = Vertx.vertx();
+
+    JsonObject config = new JsonObject()
+      .put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_URL, url)
+      .put(WikiDatabaseVerticle.CONFIG_WIKIDB_MARKDOWN_PRERENDER, false);
+    CompletableFuture<String> deployment = new CompletableFuture<>();
+    vertx.deployVerticle(new WikiDatabaseVerticle(), new DeploymentOptions().setConfig(config), ar -> {
+      if (ar.succeeded()) {
+        deployment.complete(ar.result());
+      } else {
+        deployment.completeExceptionally(ar.cause());
+      }
+    });
+    deployment.get(30, TimeUnit.SECONDS);
+
+    seed(url);
+    dbService = WikiDatabaseService.createProxy(vertx, WikiDatabaseVerticle.CONFIG_WIKIDB_QUEUE);
+  }
+
+  @TearDown
+  public void close() {
+    vertx.close();
+  }
+
+  @Benchmark
+  public JsonObject fetchPage() {
+    CompletableFuture<JsonObject> reply = new CompletableFuture<>();
+    dbService.fetchPage(pageName(ThreadLocalRandom.current().nextInt(pages)), ar -> complete(reply, ar.result(), ar.cause()));
+    return reply.join();
+  }
+
+  @Benchmark
+  public JsonArray fetchPagesPage() {
+    CompletableFuture<JsonArray> reply = new CompletableFuture<>();
+    String after = pageName(ThreadLocalRandom.current().nextInt(pages));
+    dbService.fetchPagesPage(after, 100, ar -> complete(reply, ar.result(), ar.cause()));
+    return reply.join();
+  }
+
+  @Benchmark
+  public JsonArray fetchAllPages() {
+    CompletableFuture<JsonArray> reply = new CompletableFuture<>();
+    dbService.fetchAllPages(ar -> complete(reply, ar.result(), ar.cause()));
+    return reply.join();
+  }
+
+  private void seed(String url) throws SQLException {
+    String content = MarkdownCorpus.page(256, 42);
+    try (Connection connection = DriverManager.getConnection(url);
+         PreparedStatement insert = connection.prepareStatement("insert into Pages (Name, Content) values (?, ?)")) {
+      connection.setAutoCommit(false);
+      for (int i = 0; i < pages; i++) {
+        insert.setString(1, pageName(i));
+        insert.setString(2, content);
+        insert.addBatch();
+        if ((i + 1) % SEED_BATCH_SIZE == 0) {
+          insert.executeBatch();
+          connection.commit();
+        }
+      }
+      if (pages % SEED_BATCH_SIZE != 0) {
+        insert.executeBatch();
+        connection.commit();
+      }
+    }
+  }
+
+  private static String pageName(int i) {
+    return String.format("Page-%07d", i);
+  }
+
+  private static <T> void complete(CompletableFuture<T> reply, T result, Throwable cause) {
+    if (cause != null) {
+      reply.completeExceptionally(cause);
+    } else {
+      reply.complete(result);
+    }
+  }
+}
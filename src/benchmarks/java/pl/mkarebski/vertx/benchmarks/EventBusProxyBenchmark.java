@@ -0,0 +1,79 @@
+package pl.mkarebski.vertx.benchmarks;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.serviceproxy.ProxyHelper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import pl.mkarebski.vertx.database.WikiDatabaseService;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Round trip through WikiDatabaseServiceVertxEBProxy to a service that answers from memory,
+ * i.e. the event-bus and JSON overhead of a fetchPage call without any JDBC work.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventBusProxyBenchmark {
+
+  private static final String ADDRESS = "benchmark.wikidb.queue";
+
+  @Param({"1024", "65536"})
+  public int pageSize;
+
+  private Vertx vertx;
+  private WikiDatabaseService proxy;
+
+  @Setup
+  @SuppressWarnings("unchecked")
+  public void prepare() {
+    vertx = Vertx.vertx();
+    String markdown = MarkdownCorpus.page(pageSize, 42);
+    JsonObject page = new JsonObject()
+      .put("found", true)
+      .put("id", 1)
+      .put("rawContent", markdown)
+      .put("revision", 1)
+      .put("lastModified", "2018-01-01T00:00:00Z");
+
+    WikiDatabaseService inMemory = (WikiDatabaseService) Proxy.newProxyInstance(
+      getClass().getClassLoader(), new Class[]{WikiDatabaseService.class}, (service, method, args) -> {
+        ((Handler<AsyncResult<JsonObject>>) args[args.length - 1]).handle(Future.succeededFuture(page));
+        return service;
+      });
+    ProxyHelper.registerService(WikiDatabaseService.class, vertx, inMemory, ADDRESS);
+    proxy = WikiDatabaseService.createProxy(vertx, ADDRESS);
+  }
+
+  @TearDown
+  public void close() {
+    vertx.close();
+  }
+
+  @Benchmark
+  public JsonObject fetchPageRoundTrip() {
+    CompletableFuture<JsonObject> reply = new CompletableFuture<>();
+    proxy.fetchPage("Benchmark", ar -> reply.complete(ar.result()));
+    return reply.join();
+  }
+}
@@ -0,0 +1,215 @@
+package pl.mkarebski.vertx.benchmarks;
+
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpClientRequest;
+import io.vertx.core.http.HttpVersion;
+import io.vertx.core.json.JsonObject;
+import org.HdrHistogram.Histogram;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Open-model load driver: request i is due at start + i / rate whatever happened to the previous ones, and its latency
+ * is taken from that intended time rather than from the moment it was actually written. A stalled server therefore
+ * shows up as queueing delay in the percentiles instead of silently lowering the offered load (coordinated omission).
+ *
+ * Everything runs on this verticle's context, so the histograms need no synchronization.
+ */
+class LoadDriver extends AbstractVerticle {
+
+  static final List<String> ENDPOINTS = Arrays.asList("index", "page", "save", "delete");
+
+  private static final long TICK_MILLIS = 1;
+  private static final long REQUEST_TIMEOUT_MILLIS = 30_000;
+  private static final long DRAIN_TIMEOUT_MILLIS = 60_000;
+
+  private final LoadTest.Settings settings;
+  private final List<String> pageNames;
+  private final List<Integer> pageIds;
+  private final List<Integer> disposableIds;
+  private final CompletableFuture<Map<String, EndpointStats>> result;
+
+  private final Map<String, EndpointStats> stats = new LinkedHashMap<>();
+  private final Random random;
+  private final String[] schedule;
+
+  private HttpClient client;
+  private long startNanos;
+  private long intervalNanos;
+  private long warmupRequests;
+  private long totalRequests;
+  private long sent;
+  private long outstanding;
+  private int nextDisposable;
+  private long ticker;
+
+  LoadDriver(LoadTest.Settings settings, LoadTest.Corpus corpus, CompletableFuture<Map<String, EndpointStats>> result) {
+    this.settings = settings;
+    this.pageNames = new ArrayList<>(corpus.pages.keySet());
+    this.pageIds = new ArrayList<>(corpus.pages.values());
+    this.disposableIds = corpus.disposableIds;
+    this.result = result;
+    this.random = new Random(settings.seed);
+
+    List<String> slots = new ArrayList<>();
+    for (Map.Entry<String, Integer> weight : settings.weights.entrySet()) {
+      for (int i = 0; i < weight.getValue(); i++) {
+        slots.add(weight.getKey());
+      }
+    }
+    this.schedule = slots.toArray(new String[0]);
+    for (String endpoint : settings.weights.keySet()) {
+      stats.put(endpoint, new EndpointStats());
+    }
+  }
+
+  @Override
+  public void start() {
+    HttpClientOptions options = new HttpClientOptions()
+      .setDefaultHost("localhost")
+      .setDefaultPort(settings.port)
+      .setKeepAlive(settings.keepAlive)
+      .setMaxPoolSize(settings.connections);
+    if (settings.http2) {
+      // h2c: every connection is upgraded once, then multiplexes requests
+      options.setProtocolVersion(HttpVersion.HTTP_2).setHttp2MaxPoolSize(settings.connections);
+    }
+    client = vertx.createHttpClient(options);
+
+    intervalNanos = TimeUnit.SECONDS.toNanos(1) / settings.rate;
+    warmupRequests = (long) settings.rate * settings.warmupSeconds;
+    totalRequests = warmupRequests + (long) settings.rate * settings.durationSeconds;
+    startNanos = System.nanoTime();
+    ticker = vertx.setPeriodic(TICK_MILLIS, tick -> sendDueRequests());
+  }
+
+  /*
+   * Timers are coarse, so each tick catches up with every request that became due since the previous one.
+   */
+  private void sendDueRequests() {
+    long now = System.nanoTime();
+    while (sent < totalRequests && startNanos + sent * intervalNanos <= now) {
+      send(schedule[random.nextInt(schedule.length)], startNanos + sent * intervalNanos, sent >= warmupRequests);
+      sent++;
+    }
+    if (sent == totalRequests) {
+      vertx.cancelTimer(ticker);
+      vertx.setTimer(DRAIN_TIMEOUT_MILLIS, timeout -> finish());
+      if (outstanding == 0) {
+        finish();
+      }
+    }
+  }
+
+  private void send(String endpoint, long intendedNanos, boolean measured) {
+    String form = null;
+    HttpClientRequest request;
+    switch (endpoint) {
+      case "index":
+        request = client.get("/");
+        break;
+      case "page":
+        request = client.get("/wiki/" + encode(pageNames.get(random.nextInt(pageNames.size()))));
+        break;
+      case "save":
+        int page = random.nextInt(pageNames.size());
+        request = client.post("/save");
+        form = "id=" + pageIds.get(page)
+          + "&title=" + encode(pageNames.get(page))
+          + "&newPage=no"
+          + "&markdown=" + encode(MarkdownCorpus.page(settings.pageSize, random.nextLong()));
+        break;
+      case "delete":
+        // Once the disposable pages run out, deletes of an unknown id still exercise the full path.
+        int id = nextDisposable < disposableIds.size() ? disposableIds.get(nextDisposable++) : -1;
+        request = client.post("/delete");
+        form = "id=" + id;
+        break;
+      default:
+        throw new IllegalArgumentException(endpoint);
+    }
+
+    EndpointStats endpointStats = stats.get(endpoint);
+    long sentNanos = System.nanoTime();
+    outstanding++;
+    request
+      .setTimeout(REQUEST_TIMEOUT_MILLIS)
+      .handler(response -> {
+        response.exceptionHandler(failure -> completed(endpointStats, intendedNanos, sentNanos, measured, false));
+        response.endHandler(end -> completed(endpointStats, intendedNanos, sentNanos, measured, response.statusCode() < 400));
+      })
+      .exceptionHandler(failure -> completed(endpointStats, intendedNanos, sentNanos, measured, false));
+    if (form == null) {
+      request.end();
+    } else {
+      request.putHeader("Content-Type", "application/x-www-form-urlencoded").end(form);
+    }
+  }
+
+  private void completed(EndpointStats endpointStats, long intendedNanos, long sentNanos, boolean measured, boolean success) {
+    long now = System.nanoTime();
+    outstanding--;
+    if (measured) {
+      endpointStats.latency.recordValue(TimeUnit.NANOSECONDS.toMicros(now - intendedNanos));
+      endpointStats.serviceTime.recordValue(TimeUnit.NANOSECONDS.toMicros(now - sentNanos));
+      if (!success) {
+        endpointStats.errors++;
+      }
+    }
+    if (sent == totalRequests && outstanding == 0) {
+      finish();
+    }
+  }
+
+  private void finish() {
+    if (!result.isDone()) {
+      client.close();
+      result.complete(stats);
+    }
+  }
+
+  private static String encode(String value) {
+    try {
+      return URLEncoder.encode(value, "UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  static final class EndpointStats {
+
+    final Histogram latency = new Histogram(3);
+    final Histogram serviceTime = new Histogram(3);
+    long errors;
+
+    JsonObject toJson(int durationSeconds) {
+      return new JsonObject()
+        .put("requests", latency.getTotalCount())
+        .put("errors", errors)
+        .put("throughput", latency.getTotalCount() / (double) durationSeconds)
+        .put("latencyMicros", percentiles(latency))
+        .put("serviceTimeMicros", percentiles(serviceTime));
+    }
+
+    private static JsonObject percentiles(Histogram histogram) {
+      return new JsonObject()
+        .put("p50", histogram.getValueAtPercentile(50))
+        .put("p90", histogram.getValueAtPercentile(90))
+        .put("p99", histogram.getValueAtPercentile(99))
+        .put("p99.9", histogram.getValueAtPercentile(99.9))
+        .put("max", histogram.getMaxValue())
+        .put("mean", histogram.getMean());
+    }
+  }
+}
@@ -0,0 +1,262 @@
+package pl.mkarebski.vertx.benchmarks;
+
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import pl.mkarebski.vertx.MainVerticle;
+import pl.mkarebski.vertx.database.WikiDatabaseService;
+import pl.mkarebski.vertx.database.WikiDatabaseVerticle;
+import pl.mkarebski.vertx.http.WikiHttpServerVerticle;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * End-to-end load test: boots MainVerticle against an in-memory HSQLDB, seeds a corpus through the database service
+ * and drives a mixed workload over HTTP at a fixed arrival rate (see LoadDriver).
+ *
+ * Settings are passed as key=value arguments, e.g. "rate=2000 duration=60 httpInstances=4". Keys starting with
+ * "http.server." are passed on to the HTTP verticles as is, e.g. "http.server.idle_timeout_s=5".
+ */
+public class LoadTest {
+
+  private static final int SEED_BATCH_SIZE = 500;
+
+  public static void main(String[] args) throws Exception {
+    Settings settings = Settings.parse(args);
+    System.out.println("Load test settings: " + settings);
+
+    Vertx server = Vertx.vertx();
+    Vertx client = Vertx.vertx();
+    try {
+      String url = "jdbc:hsqldb:mem:loadtest";
+      JsonObject config = new JsonObject()
+        .put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_URL, url)
+        .put(WikiHttpServerVerticle.CONFIG_HTTP_SERVER_PORT, settings.port)
+        .put(MainVerticle.CONFIG_MAIN_HTTP_INSTANCES, settings.httpInstances)
+        .put(MainVerticle.CONFIG_MAIN_DB_INSTANCES, settings.dbInstances)
+        .put(MainVerticle.CONFIG_MAIN_DB_WORKER, settings.dbWorker)
+        .mergeIn(settings.serverConfig);
+      CompletableFuture<String> deployment = new CompletableFuture<>();
+      server.deployVerticle(new MainVerticle(), new DeploymentOptions().setConfig(config), ar -> complete(deployment, ar.result(), ar.cause()));
+      deployment.get(60, TimeUnit.SECONDS);
+
+      Corpus corpus = seed(server, url, settings);
+      System.out.println("Seeded " + corpus.pages.size() + " pages and " + corpus.disposableIds.size() + " pages to delete");
+
+      CompletableFuture<Map<String, LoadDriver.EndpointStats>> run = new CompletableFuture<>();
+      client.deployVerticle(new LoadDriver(settings, corpus, run));
+      Map<String, LoadDriver.EndpointStats> stats = run.get(settings.warmupSeconds + settings.durationSeconds + 120, TimeUnit.SECONDS);
+
+      report(settings, stats);
+    } finally {
+      client.close();
+      server.close();
+    }
+  }
+
+  /*
+   * Pages are created through applyBatch so that they are pre-rendered like any page saved over HTTP;
+   * their ids are then read back over plain JDBC from the same in-memory database.
+   */
+  private static Corpus seed(Vertx vertx, String url, Settings settings) throws Exception {
+    WikiDatabaseService dbService = WikiDatabaseService.createProxy(vertx, WikiDatabaseVerticle.CONFIG_WIKIDB_QUEUE);
+    long deletes = (long) Math.ceil(settings.rate * (settings.warmupSeconds + settings.durationSeconds) * settings.share("delete"));
+    int total = settings.pages + (int) deletes;
+
+    JsonArray operations = new JsonArray();
+    for (int i = 0; i < total; i++) {
+      String name = i < settings.pages ? String.format("Page-%07d", i) : String.format("Disposable-%07d", i);
+      operations.add(new JsonObject()
+        .put("action", "create")
+        .put("name", name)
+        .put("markdown", MarkdownCorpus.page(settings.pageSize, i)));
+      if (operations.size() == SEED_BATCH_SIZE || i == total - 1) {
+        CompletableFuture<JsonArray> applied = new CompletableFuture<>();
+        dbService.applyBatch(operations, ar -> complete(applied, ar.result(), ar.cause()));
+        applied.get(60, TimeUnit.SECONDS);
+        operations = new JsonArray();
+      }
+    }
+
+    Corpus corpus = new Corpus();
+    try (Connection connection = DriverManager.getConnection(url);
+         Statement statement = connection.createStatement();
+         ResultSet rows = statement.executeQuery("select Id, Name from Pages order by Id")) {
+      while (rows.next()) {
+        if (rows.getString(2).startsWith("Disposable-")) {
+          corpus.disposableIds.add(rows.getInt(1));
+        } else {
+          corpus.pages.put(rows.getString(2), rows.getInt(1));
+        }
+      }
+    } catch (SQLException e) {
+      throw new IllegalStateException("Could not read back the seeded pages", e);
+    }
+    return corpus;
+  }
+
+  private static void report(Settings settings, Map<String, LoadDriver.EndpointStats> stats) throws IOException {
+    System.out.println();
+    System.out.println("Latency in ms, measured from the intended send time (coordinated omission corrected);");
+    System.out.println("service time is measured from the actual send time and shown for comparison.");
+    System.out.println();
+    System.out.println(String.format("%-10s %8s %7s %9s | %8s %8s %8s %8s %8s | %8s %8s",
+      "endpoint", "requests", "errors", "req/s", "p50", "p90", "p99", "p99.9", "max", "svc p50", "svc p99"));
+
+    JsonObject endpoints = new JsonObject();
+    for (Map.Entry<String, LoadDriver.EndpointStats> entry : stats.entrySet()) {
+      LoadDriver.EndpointStats endpoint = entry.getValue();
+      System.out.println(String.format("%-10s %8d %7d %9.1f | %8.2f %8.2f %8.2f %8.2f %8.2f | %8.2f %8.2f",
+        entry.getKey(), endpoint.latency.getTotalCount(), endpoint.errors, endpoint.latency.getTotalCount() / (double) settings.durationSeconds,
+        millis(endpoint.latency.getValueAtPercentile(50)), millis(endpoint.latency.getValueAtPercentile(90)),
+        millis(endpoint.latency.getValueAtPercentile(99)), millis(endpoint.latency.getValueAtPercentile(99.9)),
+        millis(endpoint.latency.getMaxValue()),
+        millis(endpoint.serviceTime.getValueAtPercentile(50)), millis(endpoint.serviceTime.getValueAtPercentile(99))));
+      endpoints.put(entry.getKey(), endpoint.toJson(settings.durationSeconds));
+    }
+
+    Path result = Paths.get(settings.result);
+    if (result.getParent() != null) {
+      Files.createDirectories(result.getParent());
+    }
+    JsonObject json = new JsonObject().put("settings", settings.toJson()).put("endpoints", endpoints);
+    Files.write(result, json.encodePrettily().getBytes(StandardCharsets.UTF_8));
+    System.out.println();
+    System.out.println("Results written to " + result.toAbsolutePath());
+  }
+
+  private static double millis(long micros) {
+    return micros / 1000.0;
+  }
+
+  private static <T> void complete(CompletableFuture<T> future, T result, Throwable cause) {
+    if (cause != null) {
+      future.completeExceptionally(cause);
+    } else {
+      future.complete(result);
+    }
+  }
+
+  static final class Corpus {
+    final LinkedHashMap<String, Integer> pages = new LinkedHashMap<>();
+    final List<Integer> disposableIds = new ArrayList<>();
+  }
+
+  static final class Settings {
+
+    int rate = 500;
+    int warmupSeconds = 10;
+    int durationSeconds = 30;
+    int pages = 1000;
+    int pageSize = 4096;
+    int httpInstances = Runtime.getRuntime().availableProcessors();
+    int dbInstances = 1;
+    boolean dbWorker;
+    int connections = 64;
+    boolean http2;
+    boolean keepAlive = true;
+    int port = 18080;
+    long seed = 42;
+    String mix = "index:10,page:80,save:8,delete:2";
+    String result = "target/load-result.json";
+
+    final LinkedHashMap<String, Integer> weights = new LinkedHashMap<>();
+    final JsonObject serverConfig = new JsonObject();
+
+    static Settings parse(String[] args) {
+      Map<String, String> values = new HashMap<>();
+      for (String arg : args) {
+        int separator = arg.indexOf('=');
+        if (separator < 1) {
+          throw new IllegalArgumentException("Expected key=value, got: " + arg);
+        }
+        values.put(arg.substring(0, separator), arg.substring(separator + 1));
+      }
+
+      Settings settings = new Settings();
+      settings.rate = Integer.parseInt(values.getOrDefault("rate", String.valueOf(settings.rate)));
+      settings.warmupSeconds = Integer.parseInt(values.getOrDefault("warmup", String.valueOf(settings.warmupSeconds)));
+      settings.durationSeconds = Integer.parseInt(values.getOrDefault("duration", String.valueOf(settings.durationSeconds)));
+      settings.pages = Integer.parseInt(values.getOrDefault("pages", String.valueOf(settings.pages)));
+      settings.pageSize = Integer.parseInt(values.getOrDefault("pageSize", String.valueOf(settings.pageSize)));
+      settings.httpInstances = Integer.parseInt(values.getOrDefault("httpInstances", String.valueOf(settings.httpInstances)));
+      settings.dbInstances = Integer.parseInt(values.getOrDefault("dbInstances", String.valueOf(settings.dbInstances)));
+      settings.dbWorker = Boolean.parseBoolean(values.getOrDefault("dbWorker", String.valueOf(settings.dbWorker)));
+      settings.connections = Integer.parseInt(values.getOrDefault("connections", String.valueOf(settings.connections)));
+      settings.http2 = Boolean.parseBoolean(values.getOrDefault("http2", String.valueOf(settings.http2)));
+      settings.keepAlive = Boolean.parseBoolean(values.getOrDefault("keepAlive", String.valueOf(settings.keepAlive)));
+      settings.port = Integer.parseInt(values.getOrDefault("port", String.valueOf(settings.port)));
+      settings.seed = Long.parseLong(values.getOrDefault("seed", String.valueOf(settings.seed)));
+      settings.mix = values.getOrDefault("mix", settings.mix);
+      settings.result = values.getOrDefault("result", settings.result);
+
+      for (Map.Entry<String, String> value : values.entrySet()) {
+        if (value.getKey().startsWith("http.server.")) {
+          String raw = value.getValue();
+          if ("true".equals(raw) || "false".equals(raw)) {
+            settings.serverConfig.put(value.getKey(), Boolean.valueOf(raw));
+          } else {
+            settings.serverConfig.put(value.getKey(), Long.valueOf(raw));
+          }
+        }
+      }
+
+      for (String part : settings.mix.split(",")) {
+        String[] weight = part.split(":");
+        if (!LoadDriver.ENDPOINTS.contains(weight[0])) {
+          throw new IllegalArgumentException("Unknown endpoint in mix: " + weight[0] + ", expected one of " + LoadDriver.ENDPOINTS);
+        }
+        settings.weights.put(weight[0], Integer.parseInt(weight[1]));
+      }
+      if (settings.pages < 1 || settings.rate < 1 || settings.durationSeconds < 1) {
+        throw new IllegalArgumentException("pages, rate and duration must be positive");
+      }
+      return settings;
+    }
+
+    double share(String endpoint) {
+      int total = weights.values().stream().mapToInt(Integer::intValue).sum();
+      return weights.getOrDefault(endpoint, 0) / (double) total;
+    }
+
+    JsonObject toJson() {
+      return new JsonObject()
+        .put("rate", rate)
+        .put("warmup", warmupSeconds)
+        .put("duration", durationSeconds)
+        .put("pages", pages)
+        .put("pageSize", pageSize)
+        .put("httpInstances", httpInstances)
+        .put("dbInstances", dbInstances)
+        .put("dbWorker", dbWorker)
+        .put("connections", connections)
+        .put("http2", http2)
+        .put("keepAlive", keepAlive)
+        .put("server", serverConfig)
+        .put("seed", seed)
+        .put("mix", mix);
+    }
+
+    @Override
+    public String toString() {
+      return toJson().encode();
+    }
+  }
+}
@@ -0,0 +1,51 @@
+package pl.mkarebski.vertx.benchmarks;
+
+import java.util.Random;
+
+/*
+ * Generates wiki-like Markdown (headings, paragraphs, lists, links, code blocks) of a given size.
+ */
+final class MarkdownCorpus {
+
+  private static final String[] WORDS = {
+    "vert.x", "event", "loop", "verticle", "wiki", "page", "markdown", "render", "database", "query",
+    "handler", "future", "proxy", "service", "cluster", "latency", "throughput", "cache", "template", "request"
+  };
+
+  private MarkdownCorpus() {
+  }
+
+  static String page(int sizeInBytes, long seed) {
+    Random random = new Random(seed);
+    StringBuilder markdown = new StringBuilder(sizeInBytes + 256);
+    int section = 0;
+    while (markdown.length() < sizeInBytes) {
+      markdown.append("## Section ").append(++section).append("\n\n");
+      for (int paragraph = 0; paragraph < 3; paragraph++) {
+        sentence(markdown, random, 40);
+        markdown.append(" See [").append(word(random)).append("](/wiki/").append(word(random)).append(").\n\n");
+      }
+      for (int item = 0; item < 4; item++) {
+        markdown.append("* **").append(word(random)).append("**: ");
+        sentence(markdown, random, 10);
+        markdown.append('\n');
+      }
+      markdown.append("\n    vertx.deployVerticle(\"").append(word(random)).append("\");\n\n");
+    }
+    return markdown.toString();
+  }
+
+  private static void sentence(StringBuilder markdown, Random random, int words) {
+    for (int i = 0; i < words; i++) {
+      if (i > 0) {
+        markdown.append(' ');
+      }
+      markdown.append(word(random));
+    }
+    markdown.append('.');
+  }
+
+  private static String word(Random random) {
+    return WORDS[random.nextInt(WORDS.length)];
+  }
+}
@@ -0,0 +1,40 @@
+package pl.mkarebski.vertx.benchmarks;
+
+import com.github.rjeschke.txtmark.Processor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MarkdownRenderingBenchmark {
+
+  @Param({"1024", "16384", "262144"})
+  public int pageSize;
+
+  private String markdown;
+
+  @Setup
+  public void prepare() {
+    markdown = MarkdownCorpus.page(pageSize, 42);
+  }
+
+  @Benchmark
+  public String process() {
+    return Processor.process(markdown);
+  }
+}
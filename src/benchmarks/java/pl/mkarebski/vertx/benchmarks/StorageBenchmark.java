@@ -0,0 +1,125 @@
+package pl.mkarebski.vertx.benchmarks;
+
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import pl.mkarebski.vertx.database.WikiDatabaseService;
+import pl.mkarebski.vertx.database.WikiDatabaseVerticle;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/*
+ * Page read latency and save throughput of the JDBC backend (an HSQLDB file database) and of the append-only log
+ * store, with and without an fsync per write. Both keep their files in a temporary directory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class StorageBenchmark {
+
+  private static final int PAGES = 10_000;
+
+  @Param({"jdbc", "log", "log-fsync"})
+  public String storage;
+
+  private Path directory;
+  private Vertx vertx;
+  private WikiDatabaseService dbService;
+  private String content;
+  private int[] ids;
+
+  @Setup
+  public void prepare() throws Exception {
+    directory = Files.createTempDirectory("wiki-storage-benchmark");
+    vertx = Vertx.vertx();
+    JsonObject config = new JsonObject()
+      .put(WikiDatabaseVerticle.CONFIG_WIKIDB_STORAGE, storage.startsWith("log") ? "log" : "jdbc")
+      .put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_URL, "jdbc:hsqldb:file:" + directory.resolve("wiki") + ";shutdown=true")
+      .put(WikiDatabaseVerticle.CONFIG_WIKIDB_LOG_PATH, directory.resolve("log").toString())
+      .put(WikiDatabaseVerticle.CONFIG_WIKIDB_LOG_FSYNC, storage.equals("log-fsync"))
+      .put(WikiDatabaseVerticle.CONFIG_WIKIDB_MARKDOWN_PRERENDER, false);
+    CompletableFuture<String> deployment = new CompletableFuture<>();
+    vertx.deployVerticle(new WikiDatabaseVerticle(), new DeploymentOptions().setConfig(config), ar -> complete(deployment, ar.result(), ar.cause()));
+    deployment.get(30, TimeUnit.SECONDS);
+
+    dbService = WikiDatabaseService.createProxy(vertx, WikiDatabaseVerticle.CONFIG_WIKIDB_QUEUE);
+    content = MarkdownCorpus.page(256, 42);
+    JsonArray creates = new JsonArray();
+    for (int i = 0; i < PAGES; i++) {
+      creates.add(new JsonObject().put("action", "create").put("name", pageName(i)).put("markdown", content));
+    }
+    CompletableFuture<JsonArray> seeded = new CompletableFuture<>();
+    dbService.applyBatch(creates, ar -> complete(seeded, ar.result(), ar.cause()));
+    seeded.get(120, TimeUnit.SECONDS);
+
+    // The backends number pages differently, so saves use the ids they handed out
+    ids = new int[PAGES];
+    for (int i = 0; i < PAGES; i++) {
+      ids[i] = fetch(pageName(i)).getInteger("id");
+    }
+  }
+
+  @TearDown
+  public void close() throws Exception {
+    CompletableFuture<Void> closed = new CompletableFuture<>();
+    vertx.close(ar -> complete(closed, ar.result(), ar.cause()));
+    closed.get(30, TimeUnit.SECONDS);
+    try (Stream<Path> files = Files.walk(directory)) {
+      files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+    }
+  }
+
+  @Benchmark
+  public JsonObject fetchPage() {
+    return fetch(pageName(ThreadLocalRandom.current().nextInt(PAGES)));
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.SECONDS)
+  public Void savePage() {
+    CompletableFuture<Void> reply = new CompletableFuture<>();
+    dbService.savePage(ids[ThreadLocalRandom.current().nextInt(PAGES)], content, ar -> complete(reply, ar.result(), ar.cause()));
+    return reply.join();
+  }
+
+  private JsonObject fetch(String name) {
+    CompletableFuture<JsonObject> reply = new CompletableFuture<>();
+    dbService.fetchPage(name, ar -> complete(reply, ar.result(), ar.cause()));
+    return reply.join();
+  }
+
+  private static String pageName(int i) {
+    return String.format("Page-%05d", i);
+  }
+
+  private static <T> void complete(CompletableFuture<T> reply, T result, Throwable cause) {
+    if (cause != null) {
+      reply.completeExceptionally(cause);
+    } else {
+      reply.complete(result);
+    }
+  }
+}
@@ -0,0 +1,92 @@
+package pl.mkarebski.vertx.benchmarks;
+
+import com.github.rjeschke.txtmark.Processor;
+import freemarker.cache.ClassTemplateLoader;
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+import freemarker.template.TemplateException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Renders the wiki templates with FreeMarker directly, with the same data the HTTP verticle puts in the routing context.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TemplateRenderingBenchmark {
+
+  @Param({"1024", "65536"})
+  public int pageSize;
+
+  @Param({"100", "1000"})
+  public int indexSize;
+
+  private Template pageTemplate;
+  private Template indexTemplate;
+  private Map<String, Object> pageModel;
+  private Map<String, Object> indexModel;
+
+  @Setup
+  public void prepare() throws IOException {
+    Configuration configuration = new Configuration(Configuration.VERSION_2_3_23);
+    configuration.setTemplateLoader(new ClassTemplateLoader(getClass(), "/"));
+    pageTemplate = configuration.getTemplate("templates/page.ftl");
+    indexTemplate = configuration.getTemplate("templates/index.ftl");
+
+    String markdown = MarkdownCorpus.page(pageSize, 42);
+    Map<String, Object> page = new HashMap<>();
+    page.put("title", "Benchmark");
+    page.put("id", 1);
+    page.put("newPage", "no");
+    page.put("rawContent", markdown);
+    page.put("content", Processor.process(markdown));
+    page.put("timestamp", "Mon, 1 Jan 2018 00:00:00 GMT");
+    pageModel = Collections.singletonMap("context", page);
+
+    List<String> names = new ArrayList<>();
+    for (int i = 0; i < indexSize; i++) {
+      names.add(String.format("Page-%06d", i));
+    }
+    Map<String, Object> index = new HashMap<>();
+    index.put("title", "Wiki home");
+    index.put("pages", names);
+    index.put("nextAfter", names.get(names.size() - 1));
+    indexModel = Collections.singletonMap("context", index);
+  }
+
+  @Benchmark
+  public String renderPage() throws IOException, TemplateException {
+    StringWriter out = new StringWriter();
+    pageTemplate.process(pageModel, out);
+    return out.toString();
+  }
+
+  @Benchmark
+  public String renderIndex() throws IOException, TemplateException {
+    StringWriter out = new StringWriter();
+    indexTemplate.process(indexModel, out);
+    return out.toString();
+  }
+}
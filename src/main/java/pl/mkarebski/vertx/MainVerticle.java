@@ -1,19 +1,28 @@
 package pl.mkarebski.vertx;
 
 import io.vertx.core.AbstractVerticle;
+import io.vertx.core.CompositeFuture;
 import io.vertx.core.DeploymentOptions;
 import io.vertx.core.Future;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
 import pl.mkarebski.vertx.database.WikiDatabaseVerticle;
 import pl.mkarebski.vertx.http.WikiHttpServerVerticle;
+import pl.mkarebski.vertx.metrics.StartupPhases;
 
 public class MainVerticle extends AbstractVerticle {
 
+  public static final String CONFIG_MAIN_HTTP_INSTANCES = "main.http.instances";
+  public static final String CONFIG_MAIN_DB_INSTANCES = "main.db.instances";
+  public static final String CONFIG_MAIN_DB_WORKER = "main.db.worker";
+  public static final String CONFIG_MAIN_DB_MULTI_THREADED = "main.db.multi_threaded";
+  public static final String CONFIG_MAIN_STARTUP_PARALLEL = "main.startup.parallel";
+
   private static final Logger log = LoggerFactory.getLogger(MainVerticle.class);
 
   @Override
   public void start(Future<Void> startFuture) throws Exception {
+    long started = System.nanoTime();
 
     /*Future<String> dbVerticleDeployment = Future.future();
     vertx.deploy(
@@ -30,9 +39,44 @@ public class MainVerticle extends AbstractVerticle {
     String dbVerticle = WikiDatabaseVerticle.class.getCanonicalName();
     String httpVerticle = WikiHttpServerVerticle.class.getCanonicalName();
 
-    deploy(dbVerticle, 1)
-      .compose(event -> deploy(httpVerticle, 2))
-      .setHandler(verticleId -> startFuture.completer());
+    int cores = Runtime.getRuntime().availableProcessors();
+    boolean dbMultiThreaded = config().getBoolean(CONFIG_MAIN_DB_MULTI_THREADED, false);
+    DeploymentOptions dbOptions = new DeploymentOptions()
+      .setConfig(config())
+      .setInstances(config().getInteger(CONFIG_MAIN_DB_INSTANCES, 1))
+      .setWorker(dbMultiThreaded || config().getBoolean(CONFIG_MAIN_DB_WORKER, false))
+      .setMultiThreaded(dbMultiThreaded);
+    DeploymentOptions httpOptions = new DeploymentOptions()
+      .setConfig(config())
+      .setInstances(config().getInteger(CONFIG_MAIN_HTTP_INSTANCES, cores));
+
+    log.info("Deploying " + dbOptions.getInstances() + " " + dbVerticle + " instance(s) on "
+      + (dbOptions.isMultiThreaded() ? "a multi-threaded worker" : dbOptions.isWorker() ? "worker threads" : "event loops")
+      + " and " + httpOptions.getInstances() + " " + httpVerticle + " instance(s) on event loops (" + cores + " cores)");
+
+    StartupPhases phases = StartupPhases.shared(vertx);
+    Future<?> deployed;
+    if (config().getBoolean(CONFIG_MAIN_STARTUP_PARALLEL, false)) {
+      if (dbOptions.getInstances() > 0) {
+        httpOptions.setConfig(config().copy().put(WikiHttpServerVerticle.CONFIG_HTTP_STARTUP_WAIT_FOR_DATABASE, true));
+      }
+      deployed = CompositeFuture.all(
+        timed(phases, "deploy.db", deploy(dbVerticle, dbOptions)),
+        timed(phases, "deploy.http", deploy(httpVerticle, httpOptions)));
+    } else {
+      deployed = timed(phases, "deploy.db", deploy(dbVerticle, dbOptions))
+        .compose(event -> timed(phases, "deploy.http", deploy(httpVerticle, httpOptions)));
+    }
+
+    deployed.setHandler(verticleId -> {
+      if (verticleId.succeeded()) {
+        phases.record("total", started);
+        log.info("Started: " + phases.summary());
+        startFuture.complete();
+      } else {
+        startFuture.fail(verticleId.cause());
+      }
+    });
 
   }
 
@@ -41,11 +85,25 @@ public class MainVerticle extends AbstractVerticle {
     super.stop(stopFuture);
   }
 
-  private Future<String> deploy(String className, int instanceNumber) {
+  private static <T> Future<T> timed(StartupPhases phases, String phase, Future<T> deployment) {
+    long started = System.nanoTime();
+    return deployment.map(result -> {
+      phases.record(phase, started);
+      return result;
+    });
+  }
+
+  /*
+   * Zero instances deploy nothing, so that clustered nodes can run only the HTTP or only the database verticles.
+   */
+  private Future<String> deploy(String className, DeploymentOptions options) {
+    if (options.getInstances() == 0) {
+      return Future.succeededFuture();
+    }
     Future<String> verticleDeployment = Future.future();
     vertx.deployVerticle(
       className,
-      new DeploymentOptions().setInstances(instanceNumber),
+      options,
       verticleDeployment.completer()
     );
     return verticleDeployment;
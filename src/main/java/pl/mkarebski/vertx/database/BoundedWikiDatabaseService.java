@@ -0,0 +1,136 @@
+package pl.mkarebski.vertx.database;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.serviceproxy.ServiceException;
+import pl.mkarebski.vertx.metrics.Counter;
+import pl.mkarebski.vertx.metrics.Gauge;
+import pl.mkarebski.vertx.metrics.Metrics;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/*
+ * Admission control in front of a service instance: once maxInFlight calls are running, further calls fail at once
+ * with OVERLOADED instead of queueing for a JDBC connection. Page reads from the page address count too.
+ * The count is atomic since the verticle may run on a multi-threaded worker.
+ */
+class BoundedWikiDatabaseService implements WikiDatabaseService {
+
+  private final WikiDatabaseService delegate;
+  private final int maxInFlight;
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private final Gauge inFlightGauge;
+  private final Counter rejected;
+
+  BoundedWikiDatabaseService(Metrics metrics, WikiDatabaseService delegate, int maxInFlight) {
+    this.delegate = delegate;
+    this.maxInFlight = maxInFlight;
+    this.inFlightGauge = metrics.gauge("wiki_db_calls_in_flight", "Database service calls being served");
+    this.rejected = metrics.counter("wiki_db_calls_rejected_total", "Database service calls refused with OVERLOADED");
+  }
+
+  /*
+   * Runs call unless the service is at its limit, and counts it until it completes.
+   */
+  <T> void call(Consumer<Handler<AsyncResult<T>>> call, Handler<AsyncResult<T>> resultHandler) {
+    if (inFlight.incrementAndGet() > maxInFlight) {
+      inFlight.decrementAndGet();
+      rejected.increment();
+      resultHandler.handle(ServiceException.fail(ErrorCodes.OVERLOADED.ordinal(), "Too many database calls in flight"));
+      return;
+    }
+    inFlightGauge.increment();
+    call.accept(ar -> {
+      inFlight.decrementAndGet();
+      inFlightGauge.decrement();
+      resultHandler.handle(ar);
+    });
+  }
+
+  @Override
+  public WikiDatabaseService fetchAllPages(Handler<AsyncResult<JsonArray>> resultHandler) {
+    call(delegate::fetchAllPages, resultHandler);
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService fetchPagesPage(String afterName, int limit, Handler<AsyncResult<JsonArray>> resultHandler) {
+    call(handler -> delegate.fetchPagesPage(afterName, limit, handler), resultHandler);
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService fetchPage(String name, Handler<AsyncResult<JsonObject>> resultHandler) {
+    call(handler -> delegate.fetchPage(name, handler), resultHandler);
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService fetchPageChunk(int id, int revision, boolean html, int offset, int length, Handler<AsyncResult<String>> resultHandler) {
+    call(handler -> delegate.fetchPageChunk(id, revision, html, offset, length, handler), resultHandler);
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService createPage(String title, String markdown, Handler<AsyncResult<Void>> resultHandler) {
+    call(handler -> delegate.createPage(title, markdown, handler), resultHandler);
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService savePage(int id, String markdown, Handler<AsyncResult<Void>> resultHandler) {
+    call(handler -> delegate.savePage(id, markdown, handler), resultHandler);
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService deletePage(int id, Handler<AsyncResult<Void>> resultHandler) {
+    call(handler -> delegate.deletePage(id, handler), resultHandler);
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService applyBatch(JsonArray operations, Handler<AsyncResult<JsonArray>> resultHandler) {
+    call(handler -> delegate.applyBatch(operations, handler), resultHandler);
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService exportPages(String afterName, int limit, int inlineMaxChars, Handler<AsyncResult<JsonArray>> resultHandler) {
+    call(handler -> delegate.exportPages(afterName, limit, inlineMaxChars, handler), resultHandler);
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService importPages(JsonArray pages, Handler<AsyncResult<Integer>> resultHandler) {
+    call(handler -> delegate.importPages(pages, handler), resultHandler);
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService fetchPageRevisions(String name, Handler<AsyncResult<JsonArray>> resultHandler) {
+    call(handler -> delegate.fetchPageRevisions(name, handler), resultHandler);
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService fetchPageRevision(String name, int revision, Handler<AsyncResult<JsonObject>> resultHandler) {
+    call(handler -> delegate.fetchPageRevision(name, revision, handler), resultHandler);
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService diffPageRevisions(String name, int from, int to, Handler<AsyncResult<JsonObject>> resultHandler) {
+    call(handler -> delegate.diffPageRevisions(name, from, to, handler), resultHandler);
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService searchPages(String query, int limit, Handler<AsyncResult<JsonArray>> resultHandler) {
+    call(handler -> delegate.searchPages(query, limit, handler), resultHandler);
+    return this;
+  }
+}
@@ -3,5 +3,8 @@ package pl.mkarebski.vertx.database;
 public enum ErrorCodes {
   NO_ACTION_SPECIFIED,
   BAD_ACTION,
-  DB_ERROR
+  DB_ERROR,
+  STALE_REVISION,
+  OVERLOADED,
+  NOT_SUPPORTED
 }
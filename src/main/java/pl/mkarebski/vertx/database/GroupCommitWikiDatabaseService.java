@@ -0,0 +1,185 @@
+package pl.mkarebski.vertx.database;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Write-behind stage for page saves: saves are held for a short window (or until enough pages are pending),
+ * saves of the same page are collapsed into the latest one, and the lot is committed with a single applyBatch.
+ * Every caller is still completed individually once the group transaction is over.
+ *
+ * All calls and callbacks happen on the database verticle context, so no locking is needed.
+ */
+class GroupCommitWikiDatabaseService implements WikiDatabaseService {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(GroupCommitWikiDatabaseService.class);
+
+  private final Vertx vertx;
+  private final WikiDatabaseService delegate;
+  private final long windowMillis;
+  private final int maxOperations;
+
+  private LinkedHashMap<Integer, PendingSave> pending = new LinkedHashMap<>();
+  private long flushTimer = -1;
+
+  GroupCommitWikiDatabaseService(Vertx vertx, WikiDatabaseService delegate, long windowMillis, int maxOperations) {
+    this.vertx = vertx;
+    this.delegate = delegate;
+    this.windowMillis = windowMillis;
+    this.maxOperations = maxOperations;
+  }
+
+  @Override
+  public WikiDatabaseService fetchAllPages(Handler<AsyncResult<JsonArray>> resultHandler) {
+    delegate.fetchAllPages(resultHandler);
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService fetchPagesPage(String afterName, int limit, Handler<AsyncResult<JsonArray>> resultHandler) {
+    delegate.fetchPagesPage(afterName, limit, resultHandler);
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService fetchPage(String name, Handler<AsyncResult<JsonObject>> resultHandler) {
+    delegate.fetchPage(name, resultHandler);
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService fetchPageChunk(int id, int revision, boolean html, int offset, int length, Handler<AsyncResult<String>> resultHandler) {
+    delegate.fetchPageChunk(id, revision, html, offset, length, resultHandler);
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService createPage(String title, String markdown, Handler<AsyncResult<Void>> resultHandler) {
+    delegate.createPage(title, markdown, resultHandler);
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService savePage(int id, String markdown, Handler<AsyncResult<Void>> resultHandler) {
+    PendingSave save = pending.computeIfAbsent(id, key -> new PendingSave());
+    save.markdown = markdown;
+    save.handlers.add(resultHandler);
+
+    if (pending.size() >= maxOperations) {
+      flush();
+    } else if (flushTimer == -1) {
+      flushTimer = vertx.setTimer(windowMillis, timer -> {
+        flushTimer = -1;
+        flush();
+      });
+    }
+    return this;
+  }
+
+  /*
+   * A delete must not overtake a pending save of the same page.
+   */
+  @Override
+  public WikiDatabaseService deletePage(int id, Handler<AsyncResult<Void>> resultHandler) {
+    if (pending.containsKey(id)) {
+      flush().setHandler(flushed -> delegate.deletePage(id, resultHandler));
+    } else {
+      delegate.deletePage(id, resultHandler);
+    }
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService applyBatch(JsonArray operations, Handler<AsyncResult<JsonArray>> resultHandler) {
+    delegate.applyBatch(operations, resultHandler);
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService exportPages(String afterName, int limit, int inlineMaxChars, Handler<AsyncResult<JsonArray>> resultHandler) {
+    delegate.exportPages(afterName, limit, inlineMaxChars, resultHandler);
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService importPages(JsonArray pages, Handler<AsyncResult<Integer>> resultHandler) {
+    delegate.importPages(pages, resultHandler);
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService fetchPageRevisions(String name, Handler<AsyncResult<JsonArray>> resultHandler) {
+    delegate.fetchPageRevisions(name, resultHandler);
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService fetchPageRevision(String name, int revision, Handler<AsyncResult<JsonObject>> resultHandler) {
+    delegate.fetchPageRevision(name, revision, resultHandler);
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService diffPageRevisions(String name, int from, int to, Handler<AsyncResult<JsonObject>> resultHandler) {
+    delegate.diffPageRevisions(name, from, to, resultHandler);
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService searchPages(String query, int limit, Handler<AsyncResult<JsonArray>> resultHandler) {
+    delegate.searchPages(query, limit, resultHandler);
+    return this;
+  }
+
+  private Future<Void> flush() {
+    if (flushTimer != -1) {
+      vertx.cancelTimer(flushTimer);
+      flushTimer = -1;
+    }
+    Future<Void> flushed = Future.future();
+    if (pending.isEmpty()) {
+      flushed.complete();
+      return flushed;
+    }
+
+    LinkedHashMap<Integer, PendingSave> group = pending;
+    pending = new LinkedHashMap<>();
+    JsonArray operations = new JsonArray();
+    for (Map.Entry<Integer, PendingSave> save : group.entrySet()) {
+      operations.add(new JsonObject()
+        .put("action", "save")
+        .put("id", save.getKey())
+        .put("markdown", save.getValue().markdown));
+    }
+
+    delegate.applyBatch(operations, ar -> {
+      if (ar.failed()) {
+        LOGGER.error("Group commit of " + group.size() + " pages failed", ar.cause());
+      }
+      AsyncResult<Void> outcome = ar.succeeded() ? Future.succeededFuture() : Future.failedFuture(ar.cause());
+      for (PendingSave save : group.values()) {
+        for (Handler<AsyncResult<Void>> handler : save.handlers) {
+          handler.handle(outcome);
+        }
+      }
+      flushed.complete();
+    });
+    return flushed;
+  }
+
+  private static final class PendingSave {
+    String markdown;
+    final List<Handler<AsyncResult<Void>>> handlers = new ArrayList<>();
+  }
+}
@@ -0,0 +1,246 @@
+package pl.mkarebski.vertx.database;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/*
+ * Line diffs with Myers' algorithm, used both to store a revision as a delta against the one before and to show what
+ * changed between two revisions. Texts are split on '\n' keeping the last, possibly empty, line, so that joining the
+ * lines back gives the text exactly.
+ *
+ * The search gives up past maxDistance changed lines, and the lines left in between are then replaced as a whole:
+ * the result is still correct, only larger than it could be.
+ */
+final class LineDiff {
+
+  static final class Edit {
+
+    final char op;
+    final int fromLine;
+    final int toLine;
+    final int count;
+
+    Edit(char op, int fromLine, int toLine, int count) {
+      this.op = op;
+      this.fromLine = fromLine;
+      this.toLine = toLine;
+      this.count = count;
+    }
+  }
+
+  private LineDiff() {
+  }
+
+  static String[] lines(String text) {
+    return text.split("\n", -1);
+  }
+
+  /*
+   * Runs of lines kept ('='), removed from the first text ('-') and added from the second ('+'), in order.
+   */
+  static List<Edit> diff(String[] from, String[] to, int maxDistance) {
+    int prefix = 0;
+    while (prefix < from.length && prefix < to.length && from[prefix].equals(to[prefix])) {
+      prefix++;
+    }
+    int suffix = 0;
+    while (suffix < from.length - prefix && suffix < to.length - prefix
+      && from[from.length - 1 - suffix].equals(to[to.length - 1 - suffix])) {
+      suffix++;
+    }
+
+    List<Edit> edits = new ArrayList<>();
+    add(edits, '=', 0, 0, prefix);
+    char[] ops = middle(from, to, prefix, from.length - prefix - suffix, to.length - prefix - suffix, maxDistance);
+    int fromLine = prefix;
+    int toLine = prefix;
+    for (char op : ops) {
+      add(edits, op, fromLine, toLine, 1);
+      if (op != '+') {
+        fromLine++;
+      }
+      if (op != '-') {
+        toLine++;
+      }
+    }
+    add(edits, '=', fromLine, toLine, suffix);
+    return edits;
+  }
+
+  /*
+   * The ops, one per line, of a shortest edit script between from[offset, offset + n) and to[offset, offset + m).
+   * Each round d of the search only keeps the furthest reaching paths of diagonals -d to d, which are kept to walk
+   * the script back from the end.
+   */
+  private static char[] middle(String[] from, String[] to, int offset, int n, int m, int maxDistance) {
+    int max = n + m;
+    int[] v = new int[2 * max + 2];
+    List<int[]> trace = new ArrayList<>();
+    for (int d = 0; d <= Math.min(max, maxDistance); d++) {
+      for (int k = -d; k <= d; k += 2) {
+        int x = k == -d || k != d && v[max + k - 1] < v[max + k + 1] ? v[max + k + 1] : v[max + k - 1] + 1;
+        int y = x - k;
+        while (x < n && y < m && from[offset + x].equals(to[offset + y])) {
+          x++;
+          y++;
+        }
+        v[max + k] = x;
+        if (x >= n && y >= m) {
+          return script(trace, d, n, m);
+        }
+      }
+      trace.add(Arrays.copyOfRange(v, max - d, max + d + 1));
+    }
+
+    char[] replaced = new char[n + m];
+    Arrays.fill(replaced, 0, n, '-');
+    Arrays.fill(replaced, n, n + m, '+');
+    return replaced;
+  }
+
+  private static char[] script(List<int[]> trace, int distance, int n, int m) {
+    List<Character> ops = new ArrayList<>();
+    int x = n;
+    int y = m;
+    for (int d = distance; d > 0; d--) {
+      int[] previous = trace.get(d - 1);
+      int k = x - y;
+      boolean down = k == -d || k != d && previous[k - 1 + d - 1] < previous[k + 1 + d - 1];
+      int previousK = down ? k + 1 : k - 1;
+      int previousX = previous[previousK + d - 1];
+      int previousY = previousX - previousK;
+      while (x > previousX && y > previousY) {
+        ops.add('=');
+        x--;
+        y--;
+      }
+      ops.add(down ? '+' : '-');
+      x = previousX;
+      y = previousY;
+    }
+    while (x > 0) {
+      ops.add('=');
+      x--;
+    }
+    Collections.reverse(ops);
+    char[] script = new char[ops.size()];
+    for (int i = 0; i < script.length; i++) {
+      script[i] = ops.get(i);
+    }
+    return script;
+  }
+
+  private static void add(List<Edit> edits, char op, int fromLine, int toLine, int count) {
+    if (count == 0) {
+      return;
+    }
+    Edit last = edits.isEmpty() ? null : edits.get(edits.size() - 1);
+    if (last != null && last.op == op) {
+      edits.set(edits.size() - 1, new Edit(op, last.fromLine, last.toLine, last.count + count));
+    } else {
+      edits.add(new Edit(op, fromLine, toLine, count));
+    }
+  }
+
+  /*
+   * A delta turning one text into another, one instruction per line: "=n" keeps n lines, "-n" drops n lines and
+   * "+text" adds a line.
+   */
+  static String delta(String from, String to, int maxDistance) {
+    String[] toLines = lines(to);
+    StringBuilder delta = new StringBuilder();
+    for (Edit edit : diff(lines(from), toLines, maxDistance)) {
+      if (edit.op == '+') {
+        for (int i = 0; i < edit.count; i++) {
+          delta.append('+').append(toLines[edit.toLine + i]).append('\n');
+        }
+      } else {
+        delta.append(edit.op).append(edit.count).append('\n');
+      }
+    }
+    return delta.substring(0, delta.length() - 1);
+  }
+
+  static String apply(String from, String delta) {
+    String[] fromLines = lines(from);
+    List<String> lines = new ArrayList<>();
+    int fromLine = 0;
+    for (String instruction : lines(delta)) {
+      switch (instruction.charAt(0)) {
+        case '+':
+          lines.add(instruction.substring(1));
+          break;
+        case '=':
+          int kept = Integer.parseInt(instruction.substring(1));
+          lines.addAll(Arrays.asList(fromLines).subList(fromLine, fromLine + kept));
+          fromLine += kept;
+          break;
+        case '-':
+          fromLine += Integer.parseInt(instruction.substring(1));
+          break;
+        default:
+          throw new IllegalArgumentException("Bad delta instruction: " + instruction);
+      }
+    }
+    return String.join("\n", lines);
+  }
+
+  /*
+   * The changes in the unified diff format, with the given number of unchanged lines around each of them.
+   */
+  static String unified(String from, String to, String fromLabel, String toLabel, int context, int maxDistance) {
+    String[] fromLines = lines(from);
+    String[] toLines = lines(to);
+    List<Edit> edits = diff(fromLines, toLines, maxDistance);
+    StringBuilder out = new StringBuilder();
+    out.append("--- ").append(fromLabel).append('\n');
+    out.append("+++ ").append(toLabel).append('\n');
+
+    int i = 0;
+    while (i < edits.size()) {
+      if (edits.get(i).op == '=') {
+        i++;
+        continue;
+      }
+      // a hunk runs from this change to the last one that is within twice the context of the one before
+      int last = i;
+      while (last + 2 < edits.size() && edits.get(last + 1).op == '=' && edits.get(last + 1).count <= 2 * context
+        || last + 1 < edits.size() && edits.get(last + 1).op != '=') {
+        last += edits.get(last + 1).op == '=' ? 2 : 1;
+      }
+      Edit first = edits.get(i);
+      int before = i > 0 ? Math.min(context, edits.get(i - 1).count) : 0;
+      int after = last + 1 < edits.size() ? Math.min(context, edits.get(last + 1).count) : 0;
+      int fromStart = first.fromLine - before;
+      int toStart = first.toLine - before;
+      Edit end = edits.get(last);
+      int fromEnd = (end.op == '+' ? end.fromLine : end.fromLine + end.count) + after;
+      int toEnd = (end.op == '-' ? end.toLine : end.toLine + end.count) + after;
+
+      out.append("@@ -").append(range(fromStart, fromEnd - fromStart))
+        .append(" +").append(range(toStart, toEnd - toStart)).append(" @@\n");
+      for (int line = fromStart; line < first.fromLine; line++) {
+        out.append(' ').append(fromLines[line]).append('\n');
+      }
+      for (int j = i; j <= last; j++) {
+        Edit edit = edits.get(j);
+        for (int line = 0; line < edit.count; line++) {
+          String text = edit.op == '+' ? toLines[edit.toLine + line] : fromLines[edit.fromLine + line];
+          out.append(edit.op == '=' ? ' ' : edit.op).append(text).append('\n');
+        }
+      }
+      int afterStart = end.op == '+' ? end.fromLine : end.fromLine + end.count;
+      for (int line = afterStart; line < afterStart + after; line++) {
+        out.append(' ').append(fromLines[line]).append('\n');
+      }
+      i = last + 1;
+    }
+    return out.toString();
+  }
+
+  private static String range(int start, int count) {
+    return (count == 0 ? start : start + 1) + "," + count;
+  }
+}
@@ -0,0 +1,666 @@
+package pl.mkarebski.vertx.database;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/*
+ * Pages as an append-only log of records in memory-mapped segment files, with the latest record of every page indexed
+ * in memory by name and by id. A save appends a whole new record and a delete a tombstone: nothing is written in place.
+ *
+ * A record is its length and the CRC32 of the rest, then type, id, revision, modification time, the lengths of name,
+ * Markdown and HTML in chars (-1 for no HTML), and these three strings as UTF-16 chars, so that a chunk of a large
+ * page is read at a fixed offset without decoding what comes before it. The records of a batch but the last are
+ * flagged, and a batch only counts once its last record is there.
+ *
+ * On open the segments are replayed in order. A segment ends at the first record that is cut short or fails its
+ * checksum, and the records of an unfinished batch are marked aborted. Sealed segments that hold mostly dead records
+ * are compacted: their live records are appended again, then the segment file is deleted, so a crash in between
+ * only leaves duplicates behind. Writes are serialized on the store; reads only touch the concurrent index and the
+ * mapped buffers. One instance per directory is shared by every user in the JVM, and a lock file keeps other
+ * processes out.
+ */
+final class LogPageStore implements PageStore {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(LogPageStore.class);
+
+  private static final HashMap<Path, LogPageStore> OPEN = new HashMap<>();
+
+  private static final int HEADER = 37;
+  private static final byte PUT = 1;
+  private static final byte DELETE = 2;
+  private static final byte ABORTED = 3;
+  private static final byte BATCH_CONTINUES = (byte) 0x80;
+  private static final String SEGMENT_PREFIX = "segment-";
+  private static final String SEGMENT_SUFFIX = ".log";
+
+  private final Path directory;
+  private final int segmentSize;
+  private final boolean fsync;
+  private final double compactionThreshold;
+
+  private final ConcurrentSkipListMap<String, Record> byName = new ConcurrentSkipListMap<>();
+  private final ConcurrentHashMap<Integer, Record> byId = new ConcurrentHashMap<>();
+  private final CopyOnWriteArrayList<Segment> segments = new CopyOnWriteArrayList<>();
+  private final AtomicBoolean compacting = new AtomicBoolean();
+
+  private FileChannel lockChannel;
+  private FileLock lock;
+  private Segment active;
+  private int nextId = 1;
+  private int users;
+
+  private LogPageStore(Path directory, int segmentSize, boolean fsync, double compactionThreshold) {
+    this.directory = directory;
+    this.segmentSize = segmentSize;
+    this.fsync = fsync;
+    this.compactionThreshold = compactionThreshold;
+  }
+
+  /*
+   * The store kept in directory, opened and recovered by the first caller; each caller closes it once.
+   * With fsync off, writes survive a crash of the process but not of the machine.
+   */
+  static LogPageStore open(Path directory, int segmentSize, boolean fsync, double compactionThreshold) {
+    Path key = directory.toAbsolutePath().normalize();
+    synchronized (OPEN) {
+      LogPageStore store = OPEN.get(key);
+      if (store == null) {
+        store = new LogPageStore(key, segmentSize, fsync, compactionThreshold);
+        try {
+          store.recover();
+        } catch (IOException e) {
+          store.unlock();
+          throw new UncheckedIOException(e);
+        }
+        OPEN.put(key, store);
+      }
+      store.users++;
+      return store;
+    }
+  }
+
+  @Override
+  public List<String> names(String afterName, int limit) {
+    Collection<String> names = (afterName == null ? byName : byName.tailMap(afterName, false)).keySet();
+    List<String> page = new ArrayList<>();
+    for (String name : names) {
+      if (page.size() >= limit) {
+        break;
+      }
+      page.add(name);
+    }
+    return page;
+  }
+
+  @Override
+  public Page read(String name, int inlineMaxChars) {
+    Record record = byName.get(name);
+    if (record == null) {
+      return Page.notFound(name);
+    }
+    String modified = Instant.ofEpochMilli(record.modified).toString();
+    if (record.markdownChars > inlineMaxChars) {
+      return Page.streamed(record.id, name, record.markdownChars, record.htmlChars, record.revision, modified);
+    }
+    return new Page(record.id, name, record.markdown(), record.html(), record.revision, modified);
+  }
+
+  @Override
+  public String chunk(int id, int revision, boolean html, int offset, int length) {
+    Record record = byId.get(id);
+    if (record == null || record.revision != revision) {
+      return null;
+    }
+    int total = html ? record.htmlChars : record.markdownChars;
+    int from = Math.max(0, Math.min(offset, total));
+    int to = (int) Math.min(total, (long) offset + length);
+    if (to <= from) {
+      return "";
+    }
+    return string(record.segment.buffer, (html ? record.htmlAt() : record.markdownAt()) + 2 * from, to - from);
+  }
+
+  @Override
+  public void scan(Consumer<Page> consumer) {
+    for (Record record : byId.values()) {
+      consumer.accept(new Page(record.id, record.name, record.markdown(), null, record.revision, null));
+    }
+  }
+
+  @Override
+  public synchronized int create(String name, String markdown, String html) {
+    if (byName.containsKey(name)) {
+      throw new IllegalArgumentException("There is already a page named " + name);
+    }
+    Record record = append(new Draft(PUT, nextId, name, 1, markdown, html), false);
+    sync();
+    index(record);
+    return record.id;
+  }
+
+  @Override
+  public synchronized boolean save(int id, String markdown, String html) {
+    Record current = byId.get(id);
+    if (current == null) {
+      return false;
+    }
+    Record record = append(new Draft(PUT, id, current.name, current.revision + 1, markdown, html), false);
+    sync();
+    index(record);
+    return true;
+  }
+
+  @Override
+  public synchronized boolean delete(int id) {
+    Record current = byId.get(id);
+    if (current == null) {
+      return false;
+    }
+    Record record = append(new Draft(DELETE, id, current.name, current.revision + 1, null, null), false);
+    sync();
+    index(record);
+    return true;
+  }
+
+  /*
+   * The operations are played against the index first, so that nothing is written when one of them fails, and
+   * later operations see the effect of earlier ones. A put is a create when there is no page of its name, and a save
+   * of that page otherwise.
+   */
+  @Override
+  public synchronized int[] apply(JsonArray operations, List<String> htmls) {
+    int[] ids = new int[operations.size()];
+    List<Draft> drafts = new ArrayList<>();
+    HashMap<Integer, Draft> latest = new HashMap<>();
+    HashMap<String, Integer> named = new HashMap<>();
+    int next = nextId;
+    for (int i = 0; i < operations.size(); i++) {
+      JsonObject operation = operations.getJsonObject(i);
+      String action = operation.getString("action");
+      int id;
+      if ("create".equals(action) || "put".equals(action)) {
+        String name = operation.getString("name");
+        Record existing = byName.get(name);
+        id = named.getOrDefault(name, existing != null ? existing.id : -1);
+        if (id >= 0 && "create".equals(action)) {
+          throw new IllegalArgumentException("There is already a page named " + name);
+        }
+        if (id < 0) {
+          Draft draft = new Draft(PUT, next++, name, 1, operation.getString("markdown"), htmls.get(i));
+          named.put(name, draft.id);
+          latest.put(draft.id, draft);
+          drafts.add(draft);
+          ids[i] = draft.id;
+          continue;
+        }
+        action = "save";
+      } else {
+        id = operation.getInteger("id");
+      }
+      Draft previous = latest.get(id);
+      Record current = byId.get(id);
+      if (previous != null ? previous.type == DELETE : current == null) {
+        ids[i] = -1;
+        continue;
+      }
+      String name = previous != null ? previous.name : current.name;
+      int revision = (previous != null ? previous.revision : current.revision) + 1;
+      Draft draft;
+      if ("save".equals(action)) {
+        draft = new Draft(PUT, id, name, revision, operation.getString("markdown"), htmls.get(i));
+      } else {
+        draft = new Draft(DELETE, id, name, revision, null, null);
+        named.put(name, -1);
+      }
+      latest.put(draft.id, draft);
+      drafts.add(draft);
+      ids[i] = draft.id;
+    }
+
+    List<Record> records = new ArrayList<>();
+    try {
+      for (int i = 0; i < drafts.size(); i++) {
+        records.add(append(drafts.get(i), i < drafts.size() - 1));
+      }
+    } catch (RuntimeException e) {
+      records.forEach(this::abort);
+      throw e;
+    }
+    sync();
+    records.forEach(this::index);
+    return ids;
+  }
+
+  /*
+   * Compacts, oldest first, the sealed segments whose live records take up no more than the compaction threshold.
+   * Live records are moved one at a time, so writers wait for one record at most. Tombstones only need to be kept
+   * while an older segment may still hold the page they delete.
+   */
+  @Override
+  public void maintain() {
+    if (!compacting.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      for (Segment segment : segments) {
+        boolean candidate;
+        synchronized (this) {
+          candidate = segment != active && segment.live <= compactionThreshold * segment.used;
+        }
+        if (candidate) {
+          compact(segment);
+        }
+      }
+    } finally {
+      compacting.set(false);
+    }
+  }
+
+  @Override
+  public void close() {
+    synchronized (OPEN) {
+      if (--users > 0) {
+        return;
+      }
+      OPEN.remove(directory);
+    }
+    synchronized (this) {
+      forceAll();
+      unlock();
+    }
+  }
+
+  private void compact(Segment segment) {
+    boolean oldest = segments.get(0) == segment;
+    int moved = 0;
+    int position = 0;
+    while (position < segment.used) {
+      int length = segment.buffer.getInt(position);
+      byte type = (byte) (segment.buffer.get(position + 8) & ~BATCH_CONTINUES);
+      int id = segment.buffer.getInt(position + 9);
+      synchronized (this) {
+        Record current = byId.get(id);
+        if (current != null && current.segment == segment && current.position == position) {
+          index(copy(segment, position, length));
+          moved++;
+        } else if (type == DELETE && current == null && !oldest) {
+          copy(segment, position, length);
+        }
+      }
+      position += length;
+    }
+    synchronized (this) {
+      forceAll();
+      segments.remove(segment);
+    }
+    try {
+      Files.delete(segment.file);
+    } catch (IOException e) {
+      LOGGER.warn("Could not delete compacted segment " + segment.file, e);
+    }
+    LOGGER.info("Compacted " + segment.file.getFileName() + ", " + moved + " live pages moved");
+  }
+
+  private void recover() throws IOException {
+    Files.createDirectories(directory);
+    lockChannel = FileChannel.open(directory.resolve("LOCK"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    lock = lockChannel.tryLock();
+    if (lock == null) {
+      throw new IOException(directory + " is used by another process");
+    }
+
+    List<Path> files = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+      stream.forEach(files::add);
+    }
+    files.sort(Comparator.comparingLong(LogPageStore::sequence));
+
+    List<Record> batch = new ArrayList<>();
+    for (Path file : files) {
+      Segment segment = Segment.map(file, sequence(file), (int) Files.size(file));
+      segments.add(segment);
+      int position = 0;
+      while (true) {
+        int length = validLength(segment, position);
+        if (length < 0) {
+          LOGGER.warn("Damaged record at " + position + " in " + file + ", the rest of the segment is dropped");
+          batch.forEach(this::abort);
+          batch.clear();
+          segment.zero(position);
+        }
+        if (length <= 0) {
+          break;
+        }
+        Record record = Record.read(segment, position, length);
+        position += length;
+        if (record.type == ABORTED) {
+          continue;
+        }
+        batch.add(record);
+        if (!record.continues) {
+          batch.forEach(this::index);
+          batch.clear();
+        }
+      }
+      segment.used = position;
+    }
+    if (!batch.isEmpty()) {
+      LOGGER.warn("Dropping an unfinished batch of " + batch.size() + " writes");
+      batch.forEach(this::abort);
+    }
+    if (segments.isEmpty()) {
+      segments.add(Segment.map(segmentFile(1), 1, segmentSize));
+    }
+    active = segments.get(segments.size() - 1);
+    forceAll();
+    LOGGER.info("Recovered " + byId.size() + " pages from " + segments.size() + " segments in " + directory);
+  }
+
+  /*
+   * Length of the record at position, 0 at the end of the log, or -1 when the record is damaged.
+   */
+  private static int validLength(Segment segment, int position) {
+    if (position + HEADER > segment.capacity) {
+      return 0;
+    }
+    ByteBuffer buffer = segment.buffer;
+    int length = buffer.getInt(position);
+    if (length == 0) {
+      return 0;
+    }
+    if (length < HEADER || length > segment.capacity - position || checksum(buffer, position, length) != buffer.getInt(position + 4)) {
+      return -1;
+    }
+    long chars = (long) buffer.getInt(position + 25) + buffer.getInt(position + 29) + Math.max(0, buffer.getInt(position + 33));
+    return HEADER + 2 * chars == length ? length : -1;
+  }
+
+  private Record append(Draft draft, boolean continues) {
+    int length = HEADER + 2 * (draft.name.length() + chars(draft.markdown) + Math.max(0, chars(draft.html)));
+    if (active.used + length > active.capacity) {
+      roll(length);
+    }
+    Segment segment = active;
+    int position = segment.used;
+    ByteBuffer out = segment.buffer.duplicate();
+    out.position(position + 8);
+    out.put(continues ? (byte) (draft.type | BATCH_CONTINUES) : draft.type);
+    out.putInt(draft.id);
+    out.putInt(draft.revision);
+    out.putLong(System.currentTimeMillis());
+    out.putInt(draft.name.length());
+    out.putInt(chars(draft.markdown));
+    out.putInt(draft.html != null ? draft.html.length() : -1);
+    putChars(out, draft.name);
+    putChars(out, draft.markdown);
+    putChars(out, draft.html);
+    segment.buffer.putInt(position + 4, checksum(segment.buffer, position, length));
+    segment.buffer.putInt(position, length);
+    segment.used = position + length;
+    segment.dirty = true;
+    return Record.read(segment, position, length);
+  }
+
+  private Record copy(Segment from, int position, int length) {
+    if (active.used + length > active.capacity) {
+      roll(length);
+    }
+    Segment segment = active;
+    int at = segment.used;
+    ByteBuffer source = from.buffer.duplicate();
+    source.limit(position + length);
+    source.position(position);
+    ByteBuffer target = segment.buffer.duplicate();
+    target.position(at);
+    target.put(source);
+    segment.buffer.put(at + 8, (byte) (segment.buffer.get(at + 8) & ~BATCH_CONTINUES));
+    segment.buffer.putInt(at + 4, checksum(segment.buffer, at, length));
+    segment.used = at + length;
+    segment.dirty = true;
+    return Record.read(segment, at, length);
+  }
+
+  /*
+   * Rewrites a record of an unfinished batch so that replay skips it.
+   */
+  private void abort(Record record) {
+    ByteBuffer buffer = record.segment.buffer;
+    buffer.put(record.position + 8, ABORTED);
+    buffer.putInt(record.position + 4, checksum(buffer, record.position, record.length));
+    record.segment.dirty = true;
+  }
+
+  private void index(Record record) {
+    nextId = Math.max(nextId, record.id + 1);
+    Record previous = byId.get(record.id);
+    if (previous != null) {
+      previous.segment.live -= previous.length;
+    }
+    if (record.type == DELETE) {
+      if (previous != null) {
+        byName.remove(previous.name, previous);
+      }
+      byId.remove(record.id);
+    } else {
+      byName.put(record.name, record);
+      byId.put(record.id, record);
+      record.segment.live += record.length;
+    }
+  }
+
+  private void roll(int length) {
+    if (fsync) {
+      forceAll();
+    }
+    long sequence = active.sequence + 1;
+    try {
+      active = Segment.map(segmentFile(sequence), sequence, Math.max(segmentSize, length));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    segments.add(active);
+  }
+
+  private void sync() {
+    if (fsync) {
+      forceAll();
+    }
+  }
+
+  private void forceAll() {
+    for (Segment segment : segments) {
+      if (segment.dirty) {
+        segment.buffer.force();
+        segment.dirty = false;
+      }
+    }
+  }
+
+  private void unlock() {
+    try {
+      if (lock != null) {
+        lock.release();
+      }
+      if (lockChannel != null) {
+        lockChannel.close();
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private Path segmentFile(long sequence) {
+    return directory.resolve(String.format("%s%010d%s", SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX));
+  }
+
+  private static long sequence(Path file) {
+    String name = file.getFileName().toString();
+    return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+  }
+
+  private static int checksum(ByteBuffer buffer, int position, int length) {
+    ByteBuffer body = buffer.duplicate();
+    body.limit(position + length);
+    body.position(position + 8);
+    CRC32 crc = new CRC32();
+    crc.update(body);
+    return (int) crc.getValue();
+  }
+
+  private static int chars(String text) {
+    return text != null ? text.length() : 0;
+  }
+
+  private static void putChars(ByteBuffer out, String text) {
+    if (text != null) {
+      out.asCharBuffer().put(text);
+      out.position(out.position() + 2 * text.length());
+    }
+  }
+
+  private static String string(ByteBuffer buffer, int position, int length) {
+    char[] chars = new char[length];
+    ByteBuffer in = buffer.duplicate();
+    in.position(position);
+    in.asCharBuffer().get(chars);
+    return new String(chars);
+  }
+
+  private static final class Draft {
+
+    final byte type;
+    final int id;
+    final String name;
+    final int revision;
+    final String markdown;
+    final String html;
+
+    Draft(byte type, int id, String name, int revision, String markdown, String html) {
+      this.type = type;
+      this.id = id;
+      this.name = name;
+      this.revision = revision;
+      this.markdown = markdown;
+      this.html = html;
+    }
+  }
+
+  /*
+   * Where a record is and what its header says; the content stays in the mapped segment.
+   */
+  private static final class Record {
+
+    final Segment segment;
+    final int position;
+    final int length;
+    final byte type;
+    final boolean continues;
+    final int id;
+    final int revision;
+    final long modified;
+    final String name;
+    final int markdownChars;
+    final int htmlChars;
+
+    private Record(Segment segment, int position, int length, byte flags, int id, int revision, long modified, String name, int markdownChars, int htmlChars) {
+      this.segment = segment;
+      this.position = position;
+      this.length = length;
+      this.type = (byte) (flags & ~BATCH_CONTINUES);
+      this.continues = (flags & BATCH_CONTINUES) != 0;
+      this.id = id;
+      this.revision = revision;
+      this.modified = modified;
+      this.name = name;
+      this.markdownChars = markdownChars;
+      this.htmlChars = htmlChars;
+    }
+
+    static Record read(Segment segment, int position, int length) {
+      ByteBuffer buffer = segment.buffer;
+      return new Record(segment, position, length, buffer.get(position + 8), buffer.getInt(position + 9),
+        buffer.getInt(position + 13), buffer.getLong(position + 17), string(buffer, position + HEADER, buffer.getInt(position + 25)),
+        buffer.getInt(position + 29), buffer.getInt(position + 33));
+    }
+
+    int markdownAt() {
+      return position + HEADER + 2 * name.length();
+    }
+
+    int htmlAt() {
+      return markdownAt() + 2 * markdownChars;
+    }
+
+    String markdown() {
+      return string(segment.buffer, markdownAt(), markdownChars);
+    }
+
+    String html() {
+      return htmlChars < 0 ? null : string(segment.buffer, htmlAt(), htmlChars);
+    }
+  }
+
+  private static final class Segment {
+
+    final Path file;
+    final long sequence;
+    final MappedByteBuffer buffer;
+    final int capacity;
+    int used;
+    long live;
+    boolean dirty;
+
+    private Segment(Path file, long sequence, MappedByteBuffer buffer, int capacity) {
+      this.file = file;
+      this.sequence = sequence;
+      this.buffer = buffer;
+      this.capacity = capacity;
+    }
+
+    /*
+     * The mapping outlives the file channel, and the file itself: a reader holding a record of a compacted segment
+     * can still read it.
+     */
+    static Segment map(Path file, long sequence, int capacity) throws IOException {
+      try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+        if (raf.length() < capacity) {
+          raf.setLength(capacity);
+        }
+        return new Segment(file, sequence, raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity), capacity);
+      }
+    }
+
+    void zero(int from) {
+      for (int i = from; i < capacity; i++) {
+        buffer.put(i, (byte) 0);
+      }
+      dirty = true;
+    }
+  }
+}
@@ -0,0 +1,151 @@
+package pl.mkarebski.vertx.database;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import pl.mkarebski.vertx.metrics.Gauge;
+import pl.mkarebski.vertx.metrics.Metrics;
+import pl.mkarebski.vertx.metrics.Timer;
+
+/*
+ * Client-side decorator of the event-bus proxy: the round trip of each action, which includes the time the request
+ * spends queued on the service address, and the number of calls still waiting for a reply.
+ */
+class MeteredWikiDatabaseService implements WikiDatabaseService {
+
+  private final WikiDatabaseService delegate;
+  private final Gauge inFlight;
+  private final Timer fetchAllPages;
+  private final Timer fetchPagesPage;
+  private final Timer fetchPage;
+  private final Timer fetchPageChunk;
+  private final Timer createPage;
+  private final Timer savePage;
+  private final Timer deletePage;
+  private final Timer applyBatch;
+  private final Timer exportPages;
+  private final Timer importPages;
+  private final Timer fetchPageRevisions;
+  private final Timer fetchPageRevision;
+  private final Timer diffPageRevisions;
+  private final Timer searchPages;
+
+  MeteredWikiDatabaseService(Metrics metrics, String address, WikiDatabaseService delegate) {
+    this.delegate = delegate;
+    this.inFlight = metrics.gauge("wiki_eventbus_requests_in_flight", "Service proxy calls waiting for a reply", "address", address);
+    this.fetchAllPages = timer(metrics, address, "fetchAllPages");
+    this.fetchPagesPage = timer(metrics, address, "fetchPagesPage");
+    this.fetchPage = timer(metrics, address, "fetchPage");
+    this.fetchPageChunk = timer(metrics, address, "fetchPageChunk");
+    this.createPage = timer(metrics, address, "createPage");
+    this.savePage = timer(metrics, address, "savePage");
+    this.deletePage = timer(metrics, address, "deletePage");
+    this.applyBatch = timer(metrics, address, "applyBatch");
+    this.exportPages = timer(metrics, address, "exportPages");
+    this.importPages = timer(metrics, address, "importPages");
+    this.fetchPageRevisions = timer(metrics, address, "fetchPageRevisions");
+    this.fetchPageRevision = timer(metrics, address, "fetchPageRevision");
+    this.diffPageRevisions = timer(metrics, address, "diffPageRevisions");
+    this.searchPages = timer(metrics, address, "searchPages");
+  }
+
+  @Override
+  public WikiDatabaseService fetchAllPages(Handler<AsyncResult<JsonArray>> resultHandler) {
+    delegate.fetchAllPages(timed(fetchAllPages, resultHandler));
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService fetchPagesPage(String afterName, int limit, Handler<AsyncResult<JsonArray>> resultHandler) {
+    delegate.fetchPagesPage(afterName, limit, timed(fetchPagesPage, resultHandler));
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService fetchPage(String name, Handler<AsyncResult<JsonObject>> resultHandler) {
+    delegate.fetchPage(name, timed(fetchPage, resultHandler));
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService fetchPageChunk(int id, int revision, boolean html, int offset, int length, Handler<AsyncResult<String>> resultHandler) {
+    delegate.fetchPageChunk(id, revision, html, offset, length, timed(fetchPageChunk, resultHandler));
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService createPage(String title, String markdown, Handler<AsyncResult<Void>> resultHandler) {
+    delegate.createPage(title, markdown, timed(createPage, resultHandler));
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService savePage(int id, String markdown, Handler<AsyncResult<Void>> resultHandler) {
+    delegate.savePage(id, markdown, timed(savePage, resultHandler));
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService deletePage(int id, Handler<AsyncResult<Void>> resultHandler) {
+    delegate.deletePage(id, timed(deletePage, resultHandler));
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService applyBatch(JsonArray operations, Handler<AsyncResult<JsonArray>> resultHandler) {
+    delegate.applyBatch(operations, timed(applyBatch, resultHandler));
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService exportPages(String afterName, int limit, int inlineMaxChars, Handler<AsyncResult<JsonArray>> resultHandler) {
+    delegate.exportPages(afterName, limit, inlineMaxChars, timed(exportPages, resultHandler));
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService importPages(JsonArray pages, Handler<AsyncResult<Integer>> resultHandler) {
+    delegate.importPages(pages, timed(importPages, resultHandler));
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService fetchPageRevisions(String name, Handler<AsyncResult<JsonArray>> resultHandler) {
+    delegate.fetchPageRevisions(name, timed(fetchPageRevisions, resultHandler));
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService fetchPageRevision(String name, int revision, Handler<AsyncResult<JsonObject>> resultHandler) {
+    delegate.fetchPageRevision(name, revision, timed(fetchPageRevision, resultHandler));
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService diffPageRevisions(String name, int from, int to, Handler<AsyncResult<JsonObject>> resultHandler) {
+    delegate.diffPageRevisions(name, from, to, timed(diffPageRevisions, resultHandler));
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService searchPages(String query, int limit, Handler<AsyncResult<JsonArray>> resultHandler) {
+    delegate.searchPages(query, limit, timed(searchPages, resultHandler));
+    return this;
+  }
+
+  private <T> Handler<AsyncResult<T>> timed(Timer timer, Handler<AsyncResult<T>> resultHandler) {
+    long started = System.nanoTime();
+    inFlight.increment();
+    return ar -> {
+      inFlight.decrement();
+      timer.recordSince(started);
+      resultHandler.handle(ar);
+    };
+  }
+
+  private static Timer timer(Metrics metrics, String address, String action) {
+    return metrics.timer("wiki_eventbus_request_seconds", "Service proxy round trip by action",
+      "address", address, "action", action);
+  }
+}
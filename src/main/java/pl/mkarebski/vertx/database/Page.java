@@ -0,0 +1,121 @@
+package pl.mkarebski.vertx.database;
+
+import io.vertx.core.json.JsonObject;
+
+/**
+ * A wiki page as read from the database. Instances are immutable, so that the event bus can hand them from the
+ * database verticle to a local consumer by reference.
+ */
+public final class Page {
+
+  private final boolean found;
+  private final int id;
+  private final String name;
+  private final String markdown;
+  private final String html;
+  private final int length;
+  private final int htmlLength;
+  private final int revision;
+  private final String lastModified;
+
+  public Page(int id, String name, String markdown, String html, int revision, String lastModified) {
+    this(true, id, name, markdown, html, markdown != null ? markdown.length() : 0, html != null ? html.length() : -1, revision, lastModified);
+  }
+
+  private Page(boolean found, int id, String name, String markdown, String html, int length, int htmlLength, int revision, String lastModified) {
+    this.found = found;
+    this.id = id;
+    this.name = name;
+    this.markdown = markdown;
+    this.html = html;
+    this.length = length;
+    this.htmlLength = htmlLength;
+    this.revision = revision;
+    this.lastModified = lastModified;
+  }
+
+  public static Page notFound(String name) {
+    return new Page(false, -1, name, null, null, 0, -1, 0, null);
+  }
+
+  /**
+   * A page too large to be sent in one message: its Markdown and HTML are left out and read in chunks with
+   * {@link WikiDatabaseService#fetchPageChunk}. {@code htmlLength} is -1 when the page has not been rendered yet.
+   */
+  public static Page streamed(int id, String name, int length, int htmlLength, int revision, String lastModified) {
+    return new Page(true, id, name, null, null, length, htmlLength, revision, lastModified);
+  }
+
+  static Page read(boolean found, int id, String name, String markdown, String html, int length, int htmlLength, int revision, String lastModified) {
+    return new Page(found, id, name, markdown, html, length, htmlLength, revision, lastModified);
+  }
+
+  public boolean isFound() {
+    return found;
+  }
+
+  public int getId() {
+    return id;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public String getMarkdown() {
+    return markdown;
+  }
+
+  /**
+   * The pre-rendered HTML, or {@code null} when the page has not been rendered yet or is streamed.
+   */
+  public String getHtml() {
+    return html;
+  }
+
+  /**
+   * Whether the content was left out of this page, see {@link #streamed}.
+   */
+  public boolean isStreamed() {
+    return found && markdown == null && length > 0;
+  }
+
+  /**
+   * Length of the Markdown, in characters.
+   */
+  public int getLength() {
+    return length;
+  }
+
+  /**
+   * Length of the pre-rendered HTML, in characters, or -1 when the page has not been rendered yet.
+   */
+  public int getHtmlLength() {
+    return htmlLength;
+  }
+
+  public int getRevision() {
+    return revision;
+  }
+
+  public String getLastModified() {
+    return lastModified;
+  }
+
+  /**
+   * The {@link WikiDatabaseService#fetchPage} representation of this page.
+   */
+  public JsonObject toJson() {
+    JsonObject json = new JsonObject().put("found", found);
+    if (found) {
+      json.put("id", id);
+      json.put("rawContent", markdown);
+      json.put("revision", revision);
+      json.put("lastModified", lastModified);
+      if (html != null) {
+        json.put("htmlContent", html);
+      }
+    }
+    return json;
+  }
+}
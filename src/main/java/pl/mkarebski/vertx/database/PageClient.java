@@ -0,0 +1,82 @@
+package pl.mkarebski.vertx.database;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.DeliveryOptions;
+import pl.mkarebski.vertx.metrics.Gauge;
+import pl.mkarebski.vertx.metrics.Metrics;
+import pl.mkarebski.vertx.metrics.RequestTrace;
+import pl.mkarebski.vertx.metrics.Timer;
+
+/**
+ * Reads pages from the database verticle's page address, where requests are bare page names and replies are
+ * {@link Page} objects carried by {@link PageCodec} rather than JSON built and parsed by the service proxy.
+ */
+public final class PageClient {
+
+  private final Vertx vertx;
+  private final String address;
+  private final DeliveryOptions options;
+  private final Timer fetchPage;
+  private final Gauge inFlight;
+
+  private PageClient(Vertx vertx, String address, DeliveryOptions options) {
+    this.vertx = vertx;
+    this.address = address;
+    this.options = options;
+    Metrics metrics = Metrics.shared(vertx);
+    this.fetchPage = metrics.timer("wiki_eventbus_request_seconds", "Service proxy round trip by action",
+      "address", address, "action", "fetchPage");
+    this.inFlight = metrics.gauge("wiki_eventbus_requests_in_flight", "Service proxy calls waiting for a reply", "address", address);
+  }
+
+  public static PageClient create(Vertx vertx, String address) {
+    return create(vertx, address, new DeliveryOptions());
+  }
+
+  /**
+   * A client sending with {@code options}, e.g. a send timeout after which reads fail instead of waiting on.
+   */
+  public static PageClient create(Vertx vertx, String address, DeliveryOptions options) {
+    PageCodec.register(vertx);
+    return new PageClient(vertx, address, options);
+  }
+
+  public PageClient fetchPage(String name, Handler<AsyncResult<Page>> resultHandler) {
+    return fetchPage(name, RequestTrace.NONE, resultHandler);
+  }
+
+  /**
+   * Reads a page as part of a traced request: the stages of the read on the database side are added to the trace,
+   * followed by the rest of the round trip as "eventbus".
+   */
+  public PageClient fetchPage(String name, RequestTrace trace, Handler<AsyncResult<Page>> resultHandler) {
+    long started = System.nanoTime();
+    inFlight.increment();
+    DeliveryOptions sendOptions = options;
+    if (trace.enabled()) {
+      // not the copy constructor, which shares the headers of the options it copies
+      sendOptions = new DeliveryOptions()
+        .setSendTimeout(options.getSendTimeout())
+        .setCodecName(options.getCodecName())
+        .addHeader(RequestTrace.ID_HEADER, trace.id());
+    }
+    vertx.eventBus().<Page>send(address, name, sendOptions, reply -> {
+      inFlight.decrement();
+      long roundTrip = System.nanoTime() - started;
+      fetchPage.record(roundTrip);
+      if (trace.enabled() && reply.succeeded()) {
+        long remote = trace.addEncoded(reply.result().headers().get(RequestTrace.STAGES_HEADER));
+        trace.add("eventbus", roundTrip - remote);
+      }
+      if (reply.succeeded()) {
+        resultHandler.handle(Future.succeededFuture(reply.result().body()));
+      } else {
+        resultHandler.handle(Future.failedFuture(reply.cause()));
+      }
+    });
+    return this;
+  }
+}
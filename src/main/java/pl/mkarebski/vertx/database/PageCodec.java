@@ -0,0 +1,92 @@
+package pl.mkarebski.vertx.database;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.MessageCodec;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Event-bus codec for {@link Page}: local deliveries pass the (immutable) page itself, and pages sent to another node
+ * are written as a flag, four ints and length-prefixed UTF-8 strings instead of JSON.
+ */
+public final class PageCodec implements MessageCodec<Page, Page> {
+
+  public static final String NAME = "wiki.page";
+
+  private static final String SHARED_CODECS = "wiki.codecs";
+  private static final int NULL_LENGTH = -1;
+
+  /**
+   * Registers the codec as the default one for {@link Page} on this Vert.x instance, once.
+   */
+  public static void register(Vertx vertx) {
+    if (vertx.sharedData().<String, Boolean>getLocalMap(SHARED_CODECS).putIfAbsent(NAME, true) == null) {
+      vertx.eventBus().registerDefaultCodec(Page.class, new PageCodec());
+    }
+  }
+
+  @Override
+  public void encodeToWire(Buffer buffer, Page page) {
+    buffer.appendByte((byte) (page.isFound() ? 1 : 0));
+    buffer.appendInt(page.getId());
+    buffer.appendInt(page.getRevision());
+    buffer.appendInt(page.getLength());
+    buffer.appendInt(page.getHtmlLength());
+    writeString(buffer, page.getName());
+    writeString(buffer, page.getMarkdown());
+    writeString(buffer, page.getHtml());
+    writeString(buffer, page.getLastModified());
+  }
+
+  @Override
+  public Page decodeFromWire(int pos, Buffer buffer) {
+    boolean found = buffer.getByte(pos) == 1;
+    int id = buffer.getInt(pos + 1);
+    int revision = buffer.getInt(pos + 5);
+    int length = buffer.getInt(pos + 9);
+    int htmlLength = buffer.getInt(pos + 13);
+    int[] cursor = {pos + 17};
+    String name = readString(buffer, cursor);
+    String markdown = readString(buffer, cursor);
+    String html = readString(buffer, cursor);
+    String lastModified = readString(buffer, cursor);
+    return Page.read(found, id, name, markdown, html, length, htmlLength, revision, lastModified);
+  }
+
+  @Override
+  public Page transform(Page page) {
+    return page;
+  }
+
+  @Override
+  public String name() {
+    return NAME;
+  }
+
+  @Override
+  public byte systemCodecID() {
+    return -1;
+  }
+
+  private static void writeString(Buffer buffer, String value) {
+    if (value == null) {
+      buffer.appendInt(NULL_LENGTH);
+      return;
+    }
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    buffer.appendInt(bytes.length);
+    buffer.appendBytes(bytes);
+  }
+
+  private static String readString(Buffer buffer, int[] cursor) {
+    int length = buffer.getInt(cursor[0]);
+    cursor[0] += 4;
+    if (length == NULL_LENGTH) {
+      return null;
+    }
+    String value = buffer.getString(cursor[0], cursor[0] + length, "UTF-8");
+    cursor[0] += length;
+    return value;
+  }
+}
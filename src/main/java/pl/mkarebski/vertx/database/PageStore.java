@@ -0,0 +1,69 @@
+package pl.mkarebski.vertx.database;
+
+import io.vertx.core.json.JsonArray;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Storage SPI for a {@link WikiDatabaseService} that keeps pages in an embedded store instead of a JDBC database,
+ * see {@link WikiDatabaseService#create(io.vertx.core.Vertx, PageStore, io.vertx.core.json.JsonObject, io.vertx.core.Handler)}.
+ * The service renders Markdown, keeps the search index and publishes page events; the store only keeps pages.
+ * <p>
+ * Calls block and may be made from several threads at once. Reads should not wait for writes. Failures are thrown
+ * as unchecked exceptions.
+ */
+public interface PageStore {
+
+  /**
+   * Up to {@code limit} page names in ascending order, starting right after {@code afterName} (or from the first page
+   * when it is {@code null}).
+   */
+  List<String> names(String afterName, int limit);
+
+  /**
+   * A page by name, or {@link Page#notFound} when there is none. Pages longer than {@code inlineMaxChars} are
+   * returned {@link Page#streamed}.
+   */
+  Page read(String name, int inlineMaxChars);
+
+  /**
+   * Up to {@code length} characters of the Markdown (or of the HTML when {@code html} is set) of a page, starting at
+   * {@code offset}; {@code null} when the page is gone or past {@code revision}.
+   */
+  String chunk(int id, int revision, boolean html, int offset, int length);
+
+  /**
+   * Every page, with its Markdown, in no particular order.
+   */
+  void scan(Consumer<Page> consumer);
+
+  /**
+   * Id of the new page; fails when a page of that name exists.
+   */
+  int create(String name, String markdown, String html);
+
+  /**
+   * Whether there was a page to save.
+   */
+  boolean save(int id, String markdown, String html);
+
+  /**
+   * Whether there was a page to delete.
+   */
+  boolean delete(int id);
+
+  /**
+   * Applies validated {@code create}, {@code save} and {@code delete} operations, with the HTML of each one, all or
+   * nothing. Returns, for each operation, the id of the page it changed, or -1 when it changed nothing. A {@code put}
+   * operation (a {@code name} and {@code markdown}) creates the page, or saves it when there is one of that name.
+   */
+  int[] apply(JsonArray operations, List<String> htmls);
+
+  /**
+   * Background upkeep, such as compaction; called periodically from a worker thread.
+   */
+  void maintain();
+
+  void close();
+}
@@ -0,0 +1,369 @@
+package pl.mkarebski.vertx.database;
+
+import com.github.rjeschke.txtmark.Processor;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.serviceproxy.ServiceException;
+import pl.mkarebski.vertx.metrics.Counter;
+import pl.mkarebski.vertx.metrics.Metrics;
+import pl.mkarebski.vertx.metrics.RequestTrace;
+import pl.mkarebski.vertx.metrics.Timer;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+import static pl.mkarebski.vertx.database.ErrorCodes.*;
+
+/*
+ * The service over a PageStore. Reads are served on the calling thread, since the store answers them from memory
+ * without waiting for writers; writes run on a worker, in order, together with the Markdown rendering and the search
+ * index update they need. The search index and the node id are shared with the JDBC backend's local maps.
+ *
+ * Pages live on this node only: page events are published for the HTTP verticles, but events of other nodes are not
+ * applied.
+ */
+class PageStoreService implements WikiDatabaseBackend {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(PageStoreService.class);
+
+  private final Vertx vertx;
+  private final PageStore store;
+  private final String pageEventsAddress;
+  private final boolean prerenderMarkdown;
+  private final SearchIndex searchIndex;
+  private final String nodeId;
+  private final long maintenanceTimer;
+
+  private final HashMap<String, Timer> timers = new HashMap<>();
+  private final EnumMap<ErrorCodes, Counter> errors = new EnumMap<>(ErrorCodes.class);
+
+  PageStoreService(Vertx vertx, PageStore store, JsonObject config, Handler<AsyncResult<WikiDatabaseService>> readyHandler) {
+    this.vertx = vertx;
+    this.store = store;
+    this.pageEventsAddress = config.getString(WikiDatabaseVerticle.CONFIG_WIKIDB_PAGE_EVENTS, "wikidb.page.events");
+    this.prerenderMarkdown = config.getBoolean(WikiDatabaseVerticle.CONFIG_WIKIDB_MARKDOWN_PRERENDER, true);
+    this.searchIndex = vertx.sharedData().<String, SearchIndex>getLocalMap(WikiDatabaseServiceImpl.SHARED_SEARCH_INDEX)
+      .computeIfAbsent("index", key -> new SearchIndex());
+    this.nodeId = vertx.sharedData().<String, String>getLocalMap(WikiDatabaseServiceImpl.SHARED_NODE)
+      .computeIfAbsent("id", key -> UUID.randomUUID().toString());
+
+    Metrics metrics = Metrics.shared(vertx);
+    for (String operation : new String[]{"read", "list", "chunk", "export", "write", "batch", "import"}) {
+      timers.put(operation, metrics.timer("wiki_db_store_seconds", "Page store call time by operation", "operation", operation));
+    }
+    for (ErrorCodes code : ErrorCodes.values()) {
+      errors.put(code, metrics.counter("wiki_db_errors_total", "Failed database service calls by error code", "code", code.name()));
+    }
+
+    maintenanceTimer = vertx.setPeriodic(config.getLong(WikiDatabaseVerticle.CONFIG_WIKIDB_LOG_COMPACTION_INTERVAL_MS, 10_000L), tick ->
+      vertx.executeBlocking(future -> {
+        store.maintain();
+        future.complete();
+      }, false, maintained -> {
+        if (maintained.failed()) {
+          LOGGER.error("Page store maintenance error", maintained.cause());
+        }
+      }));
+
+    vertx.executeBlocking(future -> {
+      buildSearchIndex();
+      future.complete();
+    }, false, built -> {
+      if (built.failed()) {
+        LOGGER.error("Search index build error", built.cause());
+        vertx.cancelTimer(maintenanceTimer);
+        readyHandler.handle(Future.failedFuture(built.cause()));
+      } else {
+        readyHandler.handle(Future.succeededFuture(this));
+      }
+    });
+  }
+
+  @Override
+  public WikiDatabaseService fetchAllPages(Handler<AsyncResult<JsonArray>> resultHandler) {
+    read("list", () -> new JsonArray(store.names(null, Integer.MAX_VALUE)), resultHandler);
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService fetchPagesPage(String afterName, int limit, Handler<AsyncResult<JsonArray>> resultHandler) {
+    read("list", () -> new JsonArray(store.names(afterName, limit)), resultHandler);
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService fetchPage(String name, Handler<AsyncResult<JsonObject>> resultHandler) {
+    readPage(name, Integer.MAX_VALUE, RequestTrace.NONE, read -> resultHandler.handle(read.map(Page::toJson)));
+    return this;
+  }
+
+  @Override
+  public void readPage(String name, int inlineMaxChars, RequestTrace trace, Handler<AsyncResult<Page>> resultHandler) {
+    long started = System.nanoTime();
+    read("read", () -> store.read(name, inlineMaxChars), read -> {
+      trace.stage("store.read", started);
+      resultHandler.handle(read);
+    });
+  }
+
+  @Override
+  public WikiDatabaseService fetchPageChunk(int id, int revision, boolean html, int offset, int length, Handler<AsyncResult<String>> resultHandler) {
+    read("chunk", () -> store.chunk(id, revision, html, offset, length), read -> {
+      if (read.succeeded() && read.result() == null) {
+        errors.get(STALE_REVISION).increment();
+        resultHandler.handle(ServiceException.fail(STALE_REVISION.ordinal(), "Page " + id + " is no longer at revision " + revision));
+      } else {
+        resultHandler.handle(read);
+      }
+    });
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService createPage(String title, String markdown, Handler<AsyncResult<Void>> resultHandler) {
+    write("write", () -> {
+      int id = store.create(title, markdown, render(markdown));
+      searchIndex.put(id, title, markdown);
+      publishPageEvent(new JsonObject().put("action", "create").put("name", title));
+      return null;
+    }, resultHandler);
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService savePage(int id, String markdown, Handler<AsyncResult<Void>> resultHandler) {
+    write("write", () -> {
+      if (store.save(id, markdown, render(markdown))) {
+        searchIndex.update(id, markdown);
+        publishPageEvent(new JsonObject().put("action", "save").put("id", id));
+      }
+      return null;
+    }, resultHandler);
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService deletePage(int id, Handler<AsyncResult<Void>> resultHandler) {
+    write("write", () -> {
+      if (store.delete(id)) {
+        searchIndex.remove(id);
+        publishPageEvent(new JsonObject().put("action", "delete").put("id", id));
+      }
+      return null;
+    }, resultHandler);
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService applyBatch(JsonArray operations, Handler<AsyncResult<JsonArray>> resultHandler) {
+    for (int i = 0; i < operations.size(); i++) {
+      String error = WikiDatabaseServiceImpl.validateOperation(operations.getValue(i));
+      if (error != null) {
+        errors.get(BAD_ACTION).increment();
+        resultHandler.handle(ServiceException.fail(BAD_ACTION.ordinal(), "Operation " + i + ": " + error));
+        return this;
+      }
+    }
+    write("batch", () -> {
+      List<String> htmls = new ArrayList<>();
+      for (int i = 0; i < operations.size(); i++) {
+        htmls.add(render(operations.getJsonObject(i).getString("markdown")));
+      }
+      int[] ids = store.apply(operations, htmls);
+      JsonArray results = new JsonArray();
+      for (int i = 0; i < operations.size(); i++) {
+        JsonObject operation = operations.getJsonObject(i);
+        String action = operation.getString("action");
+        boolean applied = ids[i] >= 0;
+        if (applied) {
+          switch (action) {
+            case "create":
+              searchIndex.put(ids[i], operation.getString("name"), operation.getString("markdown"));
+              publishPageEvent(new JsonObject().put("action", action).put("name", operation.getString("name")));
+              break;
+            case "save":
+              searchIndex.update(ids[i], operation.getString("markdown"));
+              publishPageEvent(new JsonObject().put("action", action).put("id", ids[i]));
+              break;
+            default:
+              searchIndex.remove(ids[i]);
+              publishPageEvent(new JsonObject().put("action", action).put("id", ids[i]));
+          }
+        }
+        results.add(new JsonObject().put("action", action).put("success", applied));
+      }
+      return results;
+    }, resultHandler);
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService exportPages(String afterName, int limit, int inlineMaxChars, Handler<AsyncResult<JsonArray>> resultHandler) {
+    read("export", () -> {
+      JsonArray pages = new JsonArray();
+      for (String name : store.names(afterName, limit)) {
+        Page page = store.read(name, inlineMaxChars);
+        if (!page.isFound()) {
+          continue;
+        }
+        JsonObject exported = new JsonObject()
+          .put("id", page.getId())
+          .put("name", page.getName())
+          .put("revision", page.getRevision())
+          .put("length", page.getLength());
+        if (page.getMarkdown() != null) {
+          exported.put("markdown", page.getMarkdown());
+        }
+        pages.add(exported);
+      }
+      return pages;
+    }, resultHandler);
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService importPages(JsonArray pages, Handler<AsyncResult<Integer>> resultHandler) {
+    JsonArray operations = new JsonArray();
+    for (int i = 0; i < pages.size(); i++) {
+      String error = WikiDatabaseServiceImpl.validateImportedPage(pages.getValue(i));
+      if (error != null) {
+        errors.get(BAD_ACTION).increment();
+        resultHandler.handle(ServiceException.fail(BAD_ACTION.ordinal(), "Page " + i + ": " + error));
+        return this;
+      }
+      JsonObject page = pages.getJsonObject(i);
+      operations.add(new JsonObject().put("action", "put").put("name", page.getString("name")).put("markdown", page.getString("markdown")));
+    }
+    write("import", () -> {
+      List<String> htmls = new ArrayList<>();
+      for (int i = 0; i < operations.size(); i++) {
+        htmls.add(render(operations.getJsonObject(i).getString("markdown")));
+      }
+      int[] ids = store.apply(operations, htmls);
+      for (int i = 0; i < operations.size(); i++) {
+        JsonObject operation = operations.getJsonObject(i);
+        searchIndex.put(ids[i], operation.getString("name"), operation.getString("markdown"));
+        publishPageEvent(new JsonObject().put("action", "import").put("name", operation.getString("name")).put("id", ids[i]));
+      }
+      return operations.size();
+    }, resultHandler);
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService fetchPageRevisions(String name, Handler<AsyncResult<JsonArray>> resultHandler) {
+    noHistory(resultHandler);
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService fetchPageRevision(String name, int revision, Handler<AsyncResult<JsonObject>> resultHandler) {
+    noHistory(resultHandler);
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService diffPageRevisions(String name, int from, int to, Handler<AsyncResult<JsonObject>> resultHandler) {
+    noHistory(resultHandler);
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService searchPages(String query, int limit, Handler<AsyncResult<JsonArray>> resultHandler) {
+    if (query == null) {
+      resultHandler.handle(Future.succeededFuture(new JsonArray()));
+      return this;
+    }
+    vertx.<JsonArray>executeBlocking(future -> {
+      if (searchIndex.needsBuild()) {
+        buildSearchIndex();
+      }
+      future.complete(searchIndex.search(query, limit));
+    }, false, resultHandler);
+    return this;
+  }
+
+  /*
+   * Blocking. A build that fails gives its claim back, for the next search to build the index again.
+   */
+  private void buildSearchIndex() {
+    if (!searchIndex.claimBuild()) {
+      return;
+    }
+    try {
+      store.scan(page -> searchIndex.put(page.getId(), page.getName(), page.getMarkdown()));
+    } catch (RuntimeException e) {
+      searchIndex.abandonBuild();
+      throw e;
+    }
+    LOGGER.info("Indexed " + searchIndex.size() + " pages for search");
+  }
+
+  @Override
+  public void close() {
+    vertx.cancelTimer(maintenanceTimer);
+    store.close();
+  }
+
+  private <T> void read(String operation, Supplier<T> read, Handler<AsyncResult<T>> resultHandler) {
+    long started = System.nanoTime();
+    T result;
+    try {
+      result = read.get();
+    } catch (RuntimeException e) {
+      LOGGER.error("Page store error", e);
+      errors.get(DB_ERROR).increment();
+      resultHandler.handle(Future.failedFuture(e));
+      return;
+    } finally {
+      timers.get(operation).recordSince(started);
+    }
+    resultHandler.handle(Future.succeededFuture(result));
+  }
+
+  private <T> void write(String operation, Supplier<T> write, Handler<AsyncResult<T>> resultHandler) {
+    vertx.<T>executeBlocking(future -> {
+      long started = System.nanoTime();
+      try {
+        future.complete(write.get());
+      } finally {
+        timers.get(operation).recordSince(started);
+      }
+    }, true, written -> {
+      if (written.failed()) {
+        LOGGER.error("Page store error", written.cause());
+        errors.get(DB_ERROR).increment();
+      }
+      resultHandler.handle(written);
+    });
+  }
+
+  /*
+   * Stores only keep the latest revision of a page.
+   */
+  private <T> void noHistory(Handler<AsyncResult<T>> resultHandler) {
+    errors.get(NOT_SUPPORTED).increment();
+    resultHandler.handle(ServiceException.fail(NOT_SUPPORTED.ordinal(), "Page history is not kept by this storage"));
+  }
+
+  /*
+   * When pre-rendering is disabled pages are stored without HTML and rendered on read.
+   */
+  private String render(String markdown) {
+    return prerenderMarkdown && markdown != null ? Processor.process(markdown) : null;
+  }
+
+  private void publishPageEvent(JsonObject event) {
+    vertx.eventBus().publish(pageEventsAddress, event.put("origin", nodeId));
+  }
+}
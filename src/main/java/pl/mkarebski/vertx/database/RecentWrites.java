@@ -0,0 +1,62 @@
+package pl.mkarebski.vertx.database;
+
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.Shareable;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Pages written during the last few moments, which read replicas may not have caught up with yet: reads of those
+ * pages (and page lists, after a create, a delete or an import) go to the primary instead. It is fed with page events, so it
+ * covers writes made through any service instance or cluster node, and is shared through a local map.
+ */
+class RecentWrites implements Shareable {
+
+  private final long windowNanos;
+  private final ConcurrentHashMap<Integer, Long> ids = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<String, Long> createdNames = new ConcurrentHashMap<>();
+  private volatile long listChanged;
+  private volatile long purged;
+
+  RecentWrites(long windowMillis) {
+    this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+    this.listChanged = System.nanoTime() - windowNanos;
+    this.purged = System.nanoTime();
+  }
+
+  void record(JsonObject pageEvent) {
+    long now = System.nanoTime();
+    if (pageEvent.containsKey("id")) {
+      ids.put(pageEvent.getInteger("id"), now);
+    }
+    String action = pageEvent.getString("action");
+    if (("create".equals(action) || "import".equals(action)) && pageEvent.containsKey("name")) {
+      createdNames.put(pageEvent.getString("name"), now);
+    }
+    if (!"save".equals(action)) {
+      listChanged = now;
+    }
+    if (now - purged > windowNanos) {
+      purged = now;
+      ids.values().removeIf(written -> now - written >= windowNanos);
+      createdNames.values().removeIf(written -> now - written >= windowNanos);
+    }
+  }
+
+  boolean written(int id) {
+    return recent(ids.get(id));
+  }
+
+  boolean created(String name) {
+    return recent(createdNames.get(name));
+  }
+
+  boolean listChanged() {
+    return System.nanoTime() - listChanged < windowNanos;
+  }
+
+  private boolean recent(Long written) {
+    return written != null && System.nanoTime() - written < windowNanos;
+  }
+}
@@ -0,0 +1,77 @@
+package pl.mkarebski.vertx.database;
+
+import io.vertx.core.shareddata.Shareable;
+import pl.mkarebski.vertx.metrics.Counter;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * LRU cache of reconstructed page revisions bounded by the total length of their Markdown. A revision never changes
+ * once written, so entries are only ever evicted. One instance is shared by all database service instances through
+ * a local map, hence the locking.
+ */
+class RevisionCache implements Shareable {
+
+  private static final int ENTRY_OVERHEAD_CHARS = 32;
+
+  static final class Entry {
+
+    final String markdown;
+    final String lastModified;
+
+    Entry(String markdown, String lastModified) {
+      this.markdown = markdown;
+      this.lastModified = lastModified;
+    }
+
+    long weight() {
+      return markdown.length() + ENTRY_OVERHEAD_CHARS;
+    }
+  }
+
+  private final long maxChars;
+  private final Counter hits;
+  private final Counter misses;
+  private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+
+  private long usedChars;
+
+  RevisionCache(long maxChars, Counter hits, Counter misses) {
+    this.maxChars = maxChars;
+    this.hits = hits;
+    this.misses = misses;
+  }
+
+  synchronized Entry get(int id, int revision) {
+    Entry entry = entries.get(key(id, revision));
+    if (entry == null) {
+      misses.increment();
+    } else {
+      hits.increment();
+    }
+    return entry;
+  }
+
+  synchronized void put(int id, int revision, Entry entry) {
+    if (entry.weight() > maxChars) {
+      return;
+    }
+    Entry previous = entries.put(key(id, revision), entry);
+    if (previous != null) {
+      usedChars -= previous.weight();
+    }
+    usedChars += entry.weight();
+
+    Iterator<Map.Entry<Long, Entry>> eldest = entries.entrySet().iterator();
+    while (usedChars > maxChars && eldest.hasNext()) {
+      usedChars -= eldest.next().getValue().weight();
+      eldest.remove();
+    }
+  }
+
+  private static long key(int id, int revision) {
+    return (long) id << 32 | revision & 0xffffffffL;
+  }
+}
@@ -0,0 +1,447 @@
+package pl.mkarebski.vertx.database;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.Shareable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/*
+ * In-memory inverted index over page names and Markdown, ranked with BM25.
+ *
+ * Each indexed page gets a slot, and the slots of deleted pages are handed out again, so that memory follows the
+ * number of pages rather than the largest page id. Page ids map to slots through an int-to-int table, per-page data
+ * lives in arrays indexed by slot and every posting list is a pair of int arrays (slots in ascending order, term
+ * frequencies), so that neither indexing nor searching boxes ids. One instance is shared by all service instances of
+ * a Vert.x instance through a local map, hence the read/write lock.
+ */
+class SearchIndex implements Shareable {
+
+  private static final double K1 = 1.2;
+  private static final double B = 0.75;
+  private static final int NAME_WEIGHT = 3;
+
+  // package-private so that tests can hold it
+  final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+  private final HashMap<String, Postings> postings = new HashMap<>();
+  private final SlotTable slots = new SlotTable();
+
+  private int[] freeSlots = new int[16];
+  private int freeSlotCount;
+  private int nextSlot;
+  private String[] names = new String[1024];
+  private String[][] terms = new String[1024][];
+  private int[] lengths = new int[1024];
+  private int documents;
+  private long totalLength;
+  private boolean built;
+
+  /*
+   * Whether the initial build has been done (or started) already; only the first caller gets true, until a build is
+   * abandoned.
+   */
+  boolean claimBuild() {
+    lock.writeLock().lock();
+    try {
+      boolean first = !built;
+      built = true;
+      return first;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  boolean needsBuild() {
+    lock.readLock().lock();
+    try {
+      return !built;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /*
+   * Gives up a build that failed half way: what it indexed is dropped, and the next claimBuild() gets true again.
+   */
+  void abandonBuild() {
+    lock.writeLock().lock();
+    try {
+      postings.clear();
+      slots.clear();
+      freeSlotCount = 0;
+      nextSlot = 0;
+      Arrays.fill(names, null);
+      Arrays.fill(terms, null);
+      Arrays.fill(lengths, 0);
+      documents = 0;
+      totalLength = 0;
+      built = false;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  void put(int id, String name, String markdown) {
+    HashMap<String, int[]> frequencies = new HashMap<>();
+    int length = tokenize(name, NAME_WEIGHT, frequencies) + tokenize(markdown, 1, frequencies);
+
+    lock.writeLock().lock();
+    try {
+      replaceDocument(id, name, frequencies, length);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /*
+   * New content for a page already in the index, which is how saves (by id only) find the page name. The name is
+   * looked up and the page indexed again under the same lock, so a page removed in the meantime stays removed.
+   */
+  void update(int id, String markdown) {
+    HashMap<String, int[]> frequencies = new HashMap<>();
+    int markdownLength = tokenize(markdown, 1, frequencies);
+
+    lock.writeLock().lock();
+    try {
+      int slot = slots.get(id);
+      if (slot == SlotTable.MISSING) {
+        return;
+      }
+      String name = names[slot];
+      int length = tokenize(name, NAME_WEIGHT, frequencies) + markdownLength;
+      replaceDocument(id, name, frequencies, length);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  void remove(int id) {
+    lock.writeLock().lock();
+    try {
+      removeDocument(id);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /*
+   * Pages matching any of the query terms, best first, as {"name", "score"} objects.
+   */
+  JsonArray search(String query, int limit) {
+    List<String> queryTerms = new ArrayList<>(new LinkedHashSet<>(tokens(query)));
+    JsonArray results = new JsonArray();
+    if (queryTerms.isEmpty() || limit <= 0) {
+      return results;
+    }
+
+    lock.readLock().lock();
+    try {
+      if (documents == 0) {
+        return results;
+      }
+      Postings[] lists = new Postings[queryTerms.size()];
+      double[] idfs = new double[queryTerms.size()];
+      int matched = 0;
+      for (String term : queryTerms) {
+        Postings list = postings.get(term);
+        if (list != null) {
+          lists[matched] = list;
+          idfs[matched++] = Math.log(1 + (documents - list.size + 0.5) / (list.size + 0.5));
+        }
+      }
+      double averageLength = totalLength / (double) documents;
+
+      // The lists are sorted by slot, so they are merged and every matching page is scored exactly once.
+      int[] cursors = new int[matched];
+      PriorityQueue<Hit> best = new PriorityQueue<>();
+      while (true) {
+        int slot = Integer.MAX_VALUE;
+        for (int i = 0; i < matched; i++) {
+          if (cursors[i] < lists[i].size) {
+            slot = Math.min(slot, lists[i].slots[cursors[i]]);
+          }
+        }
+        if (slot == Integer.MAX_VALUE) {
+          break;
+        }
+        double score = 0;
+        double norm = K1 * (1 - B + B * lengths[slot] / averageLength);
+        for (int i = 0; i < matched; i++) {
+          if (cursors[i] < lists[i].size && lists[i].slots[cursors[i]] == slot) {
+            int tf = lists[i].frequencies[cursors[i]++];
+            score += idfs[i] * tf * (K1 + 1) / (tf + norm);
+          }
+        }
+        if (best.size() < limit) {
+          best.add(new Hit(slot, score));
+        } else if (score > best.peek().score) {
+          best.poll();
+          best.add(new Hit(slot, score));
+        }
+      }
+
+      Hit[] hits = best.toArray(new Hit[0]);
+      Arrays.sort(hits, (a, b) -> Double.compare(b.score, a.score));
+      for (Hit hit : hits) {
+        results.add(new JsonObject().put("name", names[hit.slot]).put("score", hit.score));
+      }
+      return results;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  int size() {
+    lock.readLock().lock();
+    try {
+      return documents;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  static List<String> tokens(String text) {
+    List<String> tokens = new ArrayList<>();
+    int start = -1;
+    for (int i = 0; i <= text.length(); i++) {
+      boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+      if (wordChar && start < 0) {
+        start = i;
+      } else if (!wordChar && start >= 0) {
+        tokens.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+        start = -1;
+      }
+    }
+    return tokens;
+  }
+
+  private static int tokenize(String text, int weight, HashMap<String, int[]> frequencies) {
+    if (text == null) {
+      return 0;
+    }
+    List<String> tokens = tokens(text);
+    for (String token : tokens) {
+      frequencies.computeIfAbsent(token, key -> new int[1])[0] += weight;
+    }
+    return tokens.size() * weight;
+  }
+
+  private void replaceDocument(int id, String name, HashMap<String, int[]> frequencies, int length) {
+    removeDocument(id);
+    int slot = allocateSlot();
+    slots.put(id, slot);
+    String[] documentTerms = frequencies.keySet().toArray(new String[0]);
+    for (String term : documentTerms) {
+      postings.computeIfAbsent(term, key -> new Postings()).put(slot, frequencies.get(term)[0]);
+    }
+    names[slot] = name;
+    terms[slot] = documentTerms;
+    lengths[slot] = length;
+    documents++;
+    totalLength += length;
+  }
+
+  private void removeDocument(int id) {
+    int slot = slots.remove(id);
+    if (slot == SlotTable.MISSING) {
+      return;
+    }
+    for (String term : terms[slot]) {
+      Postings list = postings.get(term);
+      list.remove(slot);
+      if (list.size == 0) {
+        postings.remove(term);
+      }
+    }
+    documents--;
+    totalLength -= lengths[slot];
+    names[slot] = null;
+    terms[slot] = null;
+    lengths[slot] = 0;
+    if (freeSlotCount == freeSlots.length) {
+      freeSlots = Arrays.copyOf(freeSlots, freeSlotCount * 2);
+    }
+    freeSlots[freeSlotCount++] = slot;
+  }
+
+  private int allocateSlot() {
+    if (freeSlotCount > 0) {
+      return freeSlots[--freeSlotCount];
+    }
+    if (nextSlot == names.length) {
+      int capacity = names.length * 2;
+      names = Arrays.copyOf(names, capacity);
+      terms = Arrays.copyOf(terms, capacity);
+      lengths = Arrays.copyOf(lengths, capacity);
+    }
+    return nextSlot++;
+  }
+
+  /*
+   * Slots taken, including those of deleted pages waiting to be handed out again; what the per-page arrays hold.
+   */
+  int capacity() {
+    lock.readLock().lock();
+    try {
+      return nextSlot;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /*
+   * Page id to slot, with open addressing and linear probing over two int arrays kept at most half full. No page id
+   * is Integer.MIN_VALUE, which marks a free cell. A removal moves the cells probed after it back rather than leaving
+   * a tombstone, so lookups never walk over deleted pages.
+   */
+  private static final class SlotTable {
+
+    static final int MISSING = -1;
+    private static final int FREE = Integer.MIN_VALUE;
+
+    private int[] ids;
+    private int[] slots;
+    private int size;
+
+    SlotTable() {
+      allocate(16);
+    }
+
+    int get(int id) {
+      int mask = ids.length - 1;
+      for (int cell = home(id, mask); ; cell = (cell + 1) & mask) {
+        if (ids[cell] == id) {
+          return slots[cell];
+        }
+        if (ids[cell] == FREE) {
+          return MISSING;
+        }
+      }
+    }
+
+    void put(int id, int slot) {
+      if (2 * (size + 1) > ids.length) {
+        int[] oldIds = ids;
+        int[] oldSlots = slots;
+        allocate(ids.length * 2);
+        for (int cell = 0; cell < oldIds.length; cell++) {
+          if (oldIds[cell] != FREE) {
+            insert(oldIds[cell], oldSlots[cell]);
+          }
+        }
+      }
+      insert(id, slot);
+    }
+
+    int remove(int id) {
+      int mask = ids.length - 1;
+      int gap = home(id, mask);
+      while (ids[gap] != id) {
+        if (ids[gap] == FREE) {
+          return MISSING;
+        }
+        gap = (gap + 1) & mask;
+      }
+      int removed = slots[gap];
+      for (int cell = (gap + 1) & mask; ids[cell] != FREE; cell = (cell + 1) & mask) {
+        // a cell can move back into the gap when the gap is between the cell's home and the cell
+        int home = home(ids[cell], mask);
+        if (((cell - home) & mask) >= ((cell - gap) & mask)) {
+          ids[gap] = ids[cell];
+          slots[gap] = slots[cell];
+          gap = cell;
+        }
+      }
+      ids[gap] = FREE;
+      size--;
+      return removed;
+    }
+
+    void clear() {
+      Arrays.fill(ids, FREE);
+      size = 0;
+    }
+
+    private void insert(int id, int slot) {
+      int mask = ids.length - 1;
+      int cell = home(id, mask);
+      while (ids[cell] != FREE && ids[cell] != id) {
+        cell = (cell + 1) & mask;
+      }
+      if (ids[cell] == FREE) {
+        ids[cell] = id;
+        size++;
+      }
+      slots[cell] = slot;
+    }
+
+    private void allocate(int capacity) {
+      ids = new int[capacity];
+      slots = new int[capacity];
+      Arrays.fill(ids, FREE);
+      size = 0;
+    }
+
+    private static int home(int id, int mask) {
+      int hash = id * 0x9E3779B9;
+      return (hash ^ (hash >>> 16)) & mask;
+    }
+  }
+
+  private static final class Postings {
+
+    int[] slots = new int[4];
+    int[] frequencies = new int[4];
+    int size;
+
+    void put(int slot, int frequency) {
+      int position = Arrays.binarySearch(slots, 0, size, slot);
+      if (position >= 0) {
+        frequencies[position] = frequency;
+        return;
+      }
+      position = -position - 1;
+      if (size == slots.length) {
+        slots = Arrays.copyOf(slots, size * 2);
+        frequencies = Arrays.copyOf(frequencies, size * 2);
+      }
+      System.arraycopy(slots, position, slots, position + 1, size - position);
+      System.arraycopy(frequencies, position, frequencies, position + 1, size - position);
+      slots[position] = slot;
+      frequencies[position] = frequency;
+      size++;
+    }
+
+    void remove(int slot) {
+      int position = Arrays.binarySearch(slots, 0, size, slot);
+      if (position >= 0) {
+        System.arraycopy(slots, position + 1, slots, position, size - position - 1);
+        System.arraycopy(frequencies, position + 1, frequencies, position, size - position - 1);
+        size--;
+      }
+    }
+  }
+
+  private static final class Hit implements Comparable<Hit> {
+
+    final int slot;
+    final double score;
+
+    Hit(int slot, double score) {
+      this.slot = slot;
+      this.score = score;
+    }
+
+    @Override
+    public int compareTo(Hit other) {
+      return Double.compare(score, other.score);
+    }
+  }
+}
@@ -2,9 +2,36 @@ package pl.mkarebski.vertx.database;
 
 public enum SqlQuery {
   CREATE_PAGES_TABLE,
+  PAGES_COLUMNS,
+  ADD_REVISION_COLUMN,
+  ADD_MODIFIED_COLUMN,
+  ADD_HTML_COLUMN,
   ALL_PAGES,
+  FIRST_PAGES,
+  PAGES_AFTER,
   GET_PAGE,
   CREATE_PAGE,
   SAVE_PAGE,
-  DELETE_PAGE
+  DELETE_PAGE,
+  PAGES_WITHOUT_HTML,
+  SAVE_PAGE_HTML,
+  PAGE_ID,
+  ALL_PAGES_CONTENT,
+  PAGE_CONTENT,
+  PAGE_CONTENT_CHUNK,
+  PAGE_HTML_CHUNK,
+  EXPORT_FIRST,
+  EXPORT_AFTER,
+  IMPORT_PAGE,
+  CREATE_REVISIONS_TABLE,
+  CREATE_REVISIONS_INDEX,
+  ARCHIVE_PAGE,
+  ARCHIVE_PAGE_BY_NAME,
+  ARCHIVE_ALL_PAGES,
+  DELETE_REVISIONS,
+  PAGE_REVISIONS,
+  REVISION_CHAIN,
+  UNPACKED_REVISIONS,
+  REVISIONS_BEFORE,
+  PACK_REVISION
 }
@@ -0,0 +1,22 @@
+package pl.mkarebski.vertx.database;
+
+import com.mchange.v2.c3p0.ComboPooledDataSource;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.jdbc.spi.impl.C3P0DataSourceProvider;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+
+/**
+ * The default c3p0 pool, plus the settings the JDBC client does not pass on: {@code acquire_timeout_ms} bounds how
+ * long a caller waits for a connection when the pool is exhausted (0 waits forever).
+ */
+public class WikiDataSourceProvider extends C3P0DataSourceProvider {
+
+  @Override
+  public DataSource getDataSource(JsonObject config) throws SQLException {
+    ComboPooledDataSource dataSource = (ComboPooledDataSource) super.getDataSource(config);
+    dataSource.setCheckoutTimeout(config.getInteger("acquire_timeout_ms", 0));
+    return dataSource;
+  }
+}
@@ -0,0 +1,20 @@
+package pl.mkarebski.vertx.database;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import pl.mkarebski.vertx.metrics.RequestTrace;
+
+/*
+ * What the database verticle needs from a service implementation on top of the service itself: page reads for the
+ * page address, and a way to let go of what it holds when the verticle stops.
+ */
+interface WikiDatabaseBackend extends WikiDatabaseService {
+
+  /*
+   * What fetchPage returns, before it is turned into JSON. Pages longer than inlineMaxChars are returned without
+   * their content. The stages of the read are recorded in the trace.
+   */
+  void readPage(String name, int inlineMaxChars, RequestTrace trace, Handler<AsyncResult<Page>> resultHandler);
+
+  void close();
+}
@@ -1,33 +1,82 @@
 package pl.mkarebski.vertx.database;
 
 import io.vertx.codegen.annotations.Fluent;
+import io.vertx.codegen.annotations.GenIgnore;
 import io.vertx.codegen.annotations.ProxyGen;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Handler;
 import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.DeliveryOptions;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.jdbc.JDBCClient;
+import pl.mkarebski.vertx.metrics.Metrics;
 
 import java.util.HashMap;
+import java.util.List;
 
 @ProxyGen
 public interface WikiDatabaseService {
 
-  static WikiDatabaseService create(JDBCClient dbClient, HashMap<SqlQuery, String> sqlQueries, Handler<AsyncResult<WikiDatabaseService>> readyHandler) {
-    return new WikiDatabaseServiceImpl(dbClient, sqlQueries, readyHandler);
+  /**
+   * A service that sends page reads to {@code readClients}, round-robin, and everything else to {@code dbClient};
+   * with no read clients, everything goes to {@code dbClient}.
+   */
+  static WikiDatabaseService create(Vertx vertx, JDBCClient dbClient, List<JDBCClient> readClients, HashMap<SqlQuery, String> sqlQueries, JsonObject config, Handler<AsyncResult<WikiDatabaseService>> readyHandler) {
+    return new WikiDatabaseServiceImpl(vertx, dbClient, readClients, sqlQueries, config, readyHandler);
+  }
+
+  /**
+   * A service keeping pages in {@code store} instead of a JDBC database.
+   */
+  @GenIgnore
+  static WikiDatabaseService create(Vertx vertx, PageStore store, JsonObject config, Handler<AsyncResult<WikiDatabaseService>> readyHandler) {
+    return new PageStoreService(vertx, store, config, readyHandler);
   }
 
   static WikiDatabaseService createProxy(Vertx vertx, String address) {
     return new WikiDatabaseServiceVertxEBProxy(vertx, address);
   }
 
+  /**
+   * Event-bus proxy sending with {@code options}, e.g. a send timeout after which calls fail instead of waiting on.
+   */
+  @GenIgnore
+  static WikiDatabaseService createProxy(Vertx vertx, String address, DeliveryOptions options) {
+    return new WikiDatabaseServiceVertxEBProxy(vertx, address, options);
+  }
+
+  /**
+   * Event-bus proxy that times every call, from send to reply, in the shared metrics registry.
+   */
+  static WikiDatabaseService createMeteredProxy(Vertx vertx, String address) {
+    return createMeteredProxy(vertx, address, new DeliveryOptions());
+  }
+
+  @GenIgnore
+  static WikiDatabaseService createMeteredProxy(Vertx vertx, String address, DeliveryOptions options) {
+    return new MeteredWikiDatabaseService(Metrics.shared(vertx), address, createProxy(vertx, address, options));
+  }
+
   @Fluent
   WikiDatabaseService fetchAllPages(Handler<AsyncResult<JsonArray>> resultHandler);
 
+  /**
+   * Page names in ascending order, starting right after {@code afterName} (or from the first page when it is {@code null}).
+   */
+  @Fluent
+  WikiDatabaseService fetchPagesPage(String afterName, int limit, Handler<AsyncResult<JsonArray>> resultHandler);
+
   @Fluent
   WikiDatabaseService fetchPage(String name, Handler<AsyncResult<JsonObject>> resultHandler);
 
+  /**
+   * Up to {@code length} characters of the Markdown (or of the pre-rendered HTML when {@code html} is set) of a page,
+   * starting at {@code offset}; fails with {@link ErrorCodes#STALE_REVISION} once the page is past {@code revision}.
+   */
+  @Fluent
+  WikiDatabaseService fetchPageChunk(int id, int revision, boolean html, int offset, int length, Handler<AsyncResult<String>> resultHandler);
+
   @Fluent
   WikiDatabaseService createPage(String title, String markdown, Handler<AsyncResult<Void>> resultHandler);
 
@@ -37,5 +86,54 @@ public interface WikiDatabaseService {
   @Fluent
   WikiDatabaseService deletePage(int id, Handler<AsyncResult<Void>> resultHandler);
 
+  /**
+   * Applies {@code create} ({@code name}, {@code markdown}), {@code save} ({@code id}, {@code markdown}) and
+   * {@code delete} ({@code id}) operations in a single transaction, and returns one result per operation.
+   */
+  @Fluent
+  WikiDatabaseService applyBatch(JsonArray operations, Handler<AsyncResult<JsonArray>> resultHandler);
+
+  /**
+   * Up to {@code limit} pages in name order, starting right after {@code afterName} (or from the first page when it is
+   * {@code null}), as {@code id} / {@code name} / {@code revision} / {@code length} / {@code markdown} objects.
+   * Pages longer than {@code inlineMaxChars} come without {@code markdown}, to be read with {@link #fetchPageChunk}.
+   */
+  @Fluent
+  WikiDatabaseService exportPages(String afterName, int limit, int inlineMaxChars, Handler<AsyncResult<JsonArray>> resultHandler);
+
+  /**
+   * Creates, or replaces by name, each of the {@code name} / {@code markdown} pages in a single transaction, and
+   * returns how many there were.
+   */
+  @Fluent
+  WikiDatabaseService importPages(JsonArray pages, Handler<AsyncResult<Integer>> resultHandler);
+
+  /**
+   * Revisions of a page, newest first, as {@code revision} / {@code lastModified} objects; empty when there is no
+   * such page.
+   */
+  @Fluent
+  WikiDatabaseService fetchPageRevisions(String name, Handler<AsyncResult<JsonArray>> resultHandler);
+
+  /**
+   * The Markdown of a page as it was at {@code revision}, as a {@code found} / {@code name} / {@code revision} /
+   * {@code lastModified} / {@code markdown} object.
+   */
+  @Fluent
+  WikiDatabaseService fetchPageRevision(String name, int revision, Handler<AsyncResult<JsonObject>> resultHandler);
+
+  /**
+   * What changed in a page between two of its revisions, as a {@code found} / {@code from} / {@code to} /
+   * {@code diff} object, the diff being in the unified format.
+   */
+  @Fluent
+  WikiDatabaseService diffPageRevisions(String name, int from, int to, Handler<AsyncResult<JsonObject>> resultHandler);
+
+  /**
+   * Up to {@code limit} pages whose name or content contain words of {@code query}, best match first,
+   * as {@code name} / {@code score} objects.
+   */
+  @Fluent
+  WikiDatabaseService searchPages(String query, int limit, Handler<AsyncResult<JsonArray>> resultHandler);
 
 }
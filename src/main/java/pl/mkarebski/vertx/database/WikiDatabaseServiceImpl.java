@@ -1,10 +1,13 @@
 package pl.mkarebski.vertx.database;
 
+import com.github.rjeschke.txtmark.Processor;
 import io.vertx.core.AbstractVerticle;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
 import io.vertx.core.eventbus.Message;
+import io.vertx.core.eventbus.MessageConsumer;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
@@ -12,13 +15,32 @@ import io.vertx.core.logging.LoggerFactory;
 import io.vertx.ext.jdbc.JDBCClient;
 import io.vertx.ext.sql.ResultSet;
 import io.vertx.ext.sql.SQLConnection;
+import io.vertx.ext.sql.SQLRowStream;
+import io.vertx.ext.sql.UpdateResult;
+import io.vertx.serviceproxy.ServiceException;
+import pl.mkarebski.vertx.metrics.Counter;
+import pl.mkarebski.vertx.metrics.Gauge;
+import pl.mkarebski.vertx.metrics.Metrics;
+import pl.mkarebski.vertx.metrics.RequestTrace;
+import pl.mkarebski.vertx.metrics.Timer;
 
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
 import java.util.stream.Collectors;
 
 import static pl.mkarebski.vertx.database.ErrorCodes.*;
@@ -27,58 +49,317 @@ import static pl.mkarebski.vertx.database.SqlQuery.ALL_PAGES;
 import static pl.mkarebski.vertx.database.SqlQuery.CREATE_PAGES_TABLE;
 import static pl.mkarebski.vertx.database.SqlQuery.GET_PAGE;
 
-class WikiDatabaseServiceImpl implements WikiDatabaseService {
+class WikiDatabaseServiceImpl implements WikiDatabaseBackend {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(WikiDatabaseServiceImpl.class);
 
+  private static final LinkedHashMap<String, SqlQuery> COLUMN_MIGRATIONS = new LinkedHashMap<>();
+
+  static {
+    COLUMN_MIGRATIONS.put("REVISION", SqlQuery.ADD_REVISION_COLUMN);
+    COLUMN_MIGRATIONS.put("MODIFIED", SqlQuery.ADD_MODIFIED_COLUMN);
+    COLUMN_MIGRATIONS.put("HTML", SqlQuery.ADD_HTML_COLUMN);
+  }
+
+  private static final int HTML_BACKFILL_BATCH_SIZE = 100;
+  private static final int REVISION_PACK_BATCH_SIZE = 100;
+  private static final int DIFF_MAX_DISTANCE = 2000;
+  private static final int DIFF_CONTEXT_LINES = 3;
+
+  private static final String SCHEMA_LOCK = "wikidb.schema";
+  static final String SHARED_SEARCH_INDEX = "wikidb.search";
+  static final String SHARED_NODE = "wikidb.node";
+  private static final String SHARED_RECENT_WRITES = "wikidb.recent_writes";
+  private static final String SHARED_REVISION_CACHE = "wikidb.revision_cache";
+  private static final int SEARCH_INDEX_CHUNK_SIZE = 500;
+
+  private static final HashMap<String, SqlQuery> BATCH_QUERIES = new HashMap<>();
+
+  static {
+    BATCH_QUERIES.put("create", SqlQuery.CREATE_PAGE);
+    BATCH_QUERIES.put("save", SqlQuery.SAVE_PAGE);
+    BATCH_QUERIES.put("delete", SqlQuery.DELETE_PAGE);
+  }
+
+  private static final HashMap<String, SqlQuery> ARCHIVE_QUERIES = new HashMap<>();
+
+  static {
+    ARCHIVE_QUERIES.put("create", SqlQuery.ARCHIVE_PAGE_BY_NAME);
+    ARCHIVE_QUERIES.put("save", SqlQuery.ARCHIVE_PAGE);
+    ARCHIVE_QUERIES.put("delete", SqlQuery.DELETE_REVISIONS);
+  }
+
+  private final Vertx vertx;
   private final HashMap<SqlQuery, String> sqlQueries;
   private final JDBCClient dbClient;
+  private final List<JDBCClient> readClients;
+  private final AtomicInteger nextReadClient = new AtomicInteger();
+  private final RecentWrites recentWrites;
+  private final List<PinnedConnection> pinnedConnections = new CopyOnWriteArrayList<>();
+  private final String pageEventsAddress;
+  private final boolean prerenderMarkdown;
+  private final SearchIndex searchIndex;
+  private final String nodeId;
+  private final RevisionCache revisionCache;
+  private final int snapshotInterval;
+  private Future<Void> remoteIndexUpdates = Future.succeededFuture();
+  private boolean packing;
+
+  private final EnumMap<SqlQuery, Timer> queryTimers = new EnumMap<>(SqlQuery.class);
+  private final EnumMap<ErrorCodes, Counter> errors = new EnumMap<>(ErrorCodes.class);
+  private final Timer connectionAcquire;
+  private final Gauge connectionsInUse;
+  private final Gauge connectionsPending;
+  private final Gauge connectionsPinned;
 
-  WikiDatabaseServiceImpl(JDBCClient dbClient, HashMap<SqlQuery, String> sqlQueries, Handler<AsyncResult<WikiDatabaseService>> readyHandler) {
+  WikiDatabaseServiceImpl(Vertx vertx, JDBCClient dbClient, List<JDBCClient> readClients, HashMap<SqlQuery, String> sqlQueries, JsonObject config, Handler<AsyncResult<WikiDatabaseService>> readyHandler) {
+    this.vertx = vertx;
     this.dbClient = dbClient;
+    this.readClients = readClients;
+    long readYourWritesMs = config.getLong(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_READ_YOUR_WRITES_MS, 2000L);
+    this.recentWrites = vertx.sharedData().<String, RecentWrites>getLocalMap(SHARED_RECENT_WRITES)
+      .computeIfAbsent("writes", key -> new RecentWrites(readYourWritesMs));
     this.sqlQueries = sqlQueries;
+    this.pageEventsAddress = config.getString(WikiDatabaseVerticle.CONFIG_WIKIDB_PAGE_EVENTS, "wikidb.page.events");
+    this.prerenderMarkdown = config.getBoolean(WikiDatabaseVerticle.CONFIG_WIKIDB_MARKDOWN_PRERENDER, true);
+    boolean backfillHtml = prerenderMarkdown && config.getBoolean(WikiDatabaseVerticle.CONFIG_WIKIDB_MARKDOWN_BACKFILL, true);
+    this.searchIndex = vertx.sharedData().<String, SearchIndex>getLocalMap(SHARED_SEARCH_INDEX)
+      .computeIfAbsent("index", key -> new SearchIndex());
+    this.nodeId = vertx.sharedData().<String, String>getLocalMap(SHARED_NODE)
+      .computeIfAbsent("id", key -> UUID.randomUUID().toString());
 
-    dbClient.getConnection(asyncResult -> {
-      if (asyncResult.failed()) {
-        LOGGER.error("Could not open a database connection", asyncResult.cause());
-        readyHandler.handle(Future.failedFuture(asyncResult.cause()));
-      } else {
-        SQLConnection connection = asyncResult.result();
-        connection.execute(sqlQueries.get(SqlQuery.CREATE_PAGES_TABLE), create -> {
-          connection.close();
-          if (create.failed()) {
-            LOGGER.error("Database preparation error", create.cause());
-            readyHandler.handle(Future.failedFuture(create.cause()));
-          } else {
-            readyHandler.handle(Future.succeededFuture(this));
+    Metrics metrics = Metrics.shared(vertx);
+    for (SqlQuery query : SqlQuery.values()) {
+      queryTimers.put(query, metrics.timer("wiki_db_query_seconds", "SQL execution time by query", "query", query.name()));
+    }
+    for (ErrorCodes code : ErrorCodes.values()) {
+      errors.put(code, metrics.counter("wiki_db_errors_total", "Failed database service calls by error code", "code", code.name()));
+    }
+    connectionAcquire = metrics.timer("wiki_db_connection_acquire_seconds", "Time spent waiting for a pooled JDBC connection");
+    connectionsInUse = metrics.gauge("wiki_db_connections_in_use", "JDBC connections currently checked out of the pool");
+    connectionsPending = metrics.gauge("wiki_db_connections_pending", "Callers waiting for a JDBC connection");
+    connectionsPinned = metrics.gauge("wiki_db_connections_pinned", "JDBC connections kept open for page reads");
+    Counter revisionCacheHits = metrics.counter("wiki_db_revision_cache_hits_total", "Page revisions found already reconstructed");
+    Counter revisionCacheMisses = metrics.counter("wiki_db_revision_cache_misses_total", "Page revisions that had to be reconstructed");
+    long revisionCacheMaxChars = config.getLong(WikiDatabaseVerticle.CONFIG_WIKIDB_REVISIONS_CACHE_MAX_CHARS, 8L * 1024 * 1024);
+    this.revisionCache = vertx.sharedData().<String, RevisionCache>getLocalMap(SHARED_REVISION_CACHE)
+      .computeIfAbsent("revisions", key -> new RevisionCache(revisionCacheMaxChars, revisionCacheHits, revisionCacheMisses));
+    this.snapshotInterval = Math.max(1, config.getInteger(WikiDatabaseVerticle.CONFIG_WIKIDB_REVISIONS_SNAPSHOT_INTERVAL, 16));
+    long packIntervalMs = config.getLong(WikiDatabaseVerticle.CONFIG_WIKIDB_REVISIONS_PACK_INTERVAL_MS, 5000L);
+    int pinned = config.getInteger(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_PINNED_CONNECTIONS, 0);
+
+    /*
+     * Several service instances may start at once: schema changes are serialized, and existing pages
+     * are indexed and back-filled by only one of them.
+     */
+    vertx.sharedData().getLock(SCHEMA_LOCK, lock -> {
+      if (lock.failed()) {
+        LOGGER.error("Could not lock the database schema", lock.cause());
+        readyHandler.handle(Future.failedFuture(lock.cause()));
+        return;
+      }
+      getConnection(asyncResult -> {
+        if (asyncResult.failed()) {
+          lock.result().release();
+          LOGGER.error("Could not open a database connection", asyncResult.cause());
+          readyHandler.handle(Future.failedFuture(asyncResult.cause()));
+        } else {
+          SQLConnection connection = asyncResult.result();
+          prepareSchema(connection).compose(prepared -> buildSearchIndex(connection)).setHandler(prepare -> {
+            release(connection);
+            lock.result().release();
+            if (prepare.failed()) {
+              LOGGER.error("Database preparation error", prepare.cause());
+              readyHandler.handle(Future.failedFuture(prepare.cause()));
+            } else {
+              pinConnections(pinned).setHandler(pinnedAll -> {
+                readyHandler.handle(Future.succeededFuture(this));
+                if (backfillHtml && vertx.sharedData().getLocalMap(SCHEMA_LOCK).putIfAbsent("backfill", true) == null) {
+                  backfillHtml(-1);
+                }
+                if (vertx.sharedData().getLocalMap(SCHEMA_LOCK).putIfAbsent("packer", true) == null) {
+                  vertx.setPeriodic(packIntervalMs, tick -> packRevisions());
+                }
+              });
+            }
+          });
+        }
+      });
+    });
+  }
+
+  /*
+   * Tables created by older versions lack the columns added since, so they are added on startup. Pages written
+   * before revisions were kept get their current revision archived as the first one.
+   */
+  private Future<Void> prepareSchema(SQLConnection connection) {
+    Future<Void> create = Future.future();
+    connection.execute(sqlQueries.get(SqlQuery.CREATE_PAGES_TABLE), create.completer());
+    return create
+      .compose(created -> {
+        Future<ResultSet> columns = Future.future();
+        connection.queryWithParams(sqlQueries.get(SqlQuery.PAGES_COLUMNS), new JsonArray(), columns.completer());
+        return columns;
+      })
+      .compose(columns -> {
+        List<String> present = columns.getResults().stream()
+          .map(row -> row.getString(0).toUpperCase())
+          .collect(Collectors.toList());
+        Future<Void> migrated = Future.succeededFuture();
+        for (Map.Entry<String, SqlQuery> migration : COLUMN_MIGRATIONS.entrySet()) {
+          if (!present.contains(migration.getKey())) {
+            migrated = migrated.compose(previous -> {
+              LOGGER.info("Adding column " + migration.getKey() + " to the Pages table");
+              Future<Void> alter = Future.future();
+              connection.execute(sqlQueries.get(migration.getValue()), alter.completer());
+              return alter;
+            });
+          }
+        }
+        return migrated;
+      })
+      .compose(migrated -> {
+        Future<Void> revisions = Future.future();
+        connection.execute(sqlQueries.get(SqlQuery.CREATE_REVISIONS_TABLE), revisions.completer());
+        return revisions;
+      })
+      .compose(revisions -> {
+        Future<Void> index = Future.future();
+        connection.execute(sqlQueries.get(SqlQuery.CREATE_REVISIONS_INDEX), index.completer());
+        return index;
+      })
+      .compose(index -> {
+        Future<UpdateResult> archived = Future.future();
+        connection.update(sqlQueries.get(SqlQuery.ARCHIVE_ALL_PAGES), archived.completer());
+        return archived.map(result -> {
+          if (result.getUpdated() > 0) {
+            LOGGER.info("Archived the current revision of " + result.getUpdated() + " existing pages");
           }
+          return null;
         });
+      });
+  }
+
+  /*
+   * Existing pages are streamed into the search index, indexing each chunk of rows on a worker
+   * while the stream is paused. The instance that builds the index also keeps it in sync with writes
+   * made by other nodes of a cluster. A build that fails gives its claim back, for the next search to
+   * build the index again.
+   */
+  private Future<Void> buildSearchIndex(SQLConnection connection) {
+    Future<Void> built = Future.future();
+    if (!searchIndex.claimBuild()) {
+      built.complete();
+      return built;
+    }
+    Future<Void> caughtUp = Future.future();
+    remoteIndexUpdates = caughtUp;
+    MessageConsumer<JsonObject> remoteUpdates = vertx.eventBus().consumer(pageEventsAddress, this::remotePageEventHandler);
+    Handler<Throwable> abandon = cause -> {
+      if (built.tryFail(cause)) {
+        LOGGER.error("Search index build error", cause);
+        remoteUpdates.unregister();
+        remoteIndexUpdates = Future.succeededFuture();
+        searchIndex.abandonBuild();
       }
+    };
+    connection.queryStreamWithParams(sqlQueries.get(SqlQuery.ALL_PAGES_CONTENT), new JsonArray(), query -> {
+      if (query.failed()) {
+        abandon.handle(query.cause());
+        return;
+      }
+      SQLRowStream rows = query.result();
+      List<JsonArray> chunk = new ArrayList<>();
+      rows.exceptionHandler(abandon);
+      rows.handler(row -> {
+        chunk.add(row);
+        if (chunk.size() == SEARCH_INDEX_CHUNK_SIZE) {
+          rows.pause();
+          List<JsonArray> pages = new ArrayList<>(chunk);
+          chunk.clear();
+          vertx.executeBlocking(future -> {
+            pages.forEach(page -> searchIndex.put(page.getInteger(0), page.getString(1), page.getString(2)));
+            future.complete();
+          }, true, indexed -> {
+            if (indexed.failed()) {
+              rows.close();
+              abandon.handle(indexed.cause());
+            } else {
+              rows.resume();
+            }
+          });
+        }
+      });
+      rows.endHandler(end -> vertx.executeBlocking(future -> {
+        chunk.forEach(page -> searchIndex.put(page.getInteger(0), page.getString(1), page.getString(2)));
+        future.complete();
+      }, true, indexed -> {
+        if (indexed.failed()) {
+          abandon.handle(indexed.cause());
+        } else if (built.tryComplete()) {
+          LOGGER.info("Indexed " + searchIndex.size() + " pages for search");
+          caughtUp.complete();
+        }
+      }));
     });
+    return built;
   }
 
   @Override
   public WikiDatabaseService fetchAllPages(Handler<AsyncResult<JsonArray>> resultHandler) {
-    dbClient.getConnection(car -> {
+    getReadConnection(recentWrites.listChanged(), car -> {
       if (car.succeeded()) {
         SQLConnection connection = car.result();
-        connection.query(sqlQueries.get(SqlQuery.ALL_PAGES), res -> {
-          connection.close();
+        long started = System.nanoTime();
+        connection.queryWithParams(sqlQueries.get(SqlQuery.ALL_PAGES), new JsonArray(), res -> {
+          queryTimers.get(SqlQuery.ALL_PAGES).recordSince(started);
+          release(connection, res.succeeded());
           if (res.succeeded()) {
-            JsonArray pages = new JsonArray(res.result()
-              .getResults()
-              .stream()
-              .map(json -> json.getString(0))
-              .sorted()
-              .collect(Collectors.toList()));
-            resultHandler.handle(Future.succeededFuture(pages));
+            resultHandler.handle(Future.succeededFuture(pageNames(res.result())));
           } else {
             LOGGER.error("Database query error", res.cause());
+            errors.get(DB_ERROR).increment();
             resultHandler.handle(Future.failedFuture(res.cause()));
           }
         });
       } else {
         LOGGER.error("Database query error", car.cause());
+        errors.get(DB_ERROR).increment();
+        resultHandler.handle(Future.failedFuture(car.cause()));
+      }
+    });
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService fetchPagesPage(String afterName, int limit, Handler<AsyncResult<JsonArray>> resultHandler) {
+    getReadConnection(recentWrites.listChanged(), car -> {
+      if (car.succeeded()) {
+        SQLConnection connection = car.result();
+        SqlQuery query;
+        JsonArray params = new JsonArray();
+        if (afterName == null) {
+          query = SqlQuery.FIRST_PAGES;
+        } else {
+          query = SqlQuery.PAGES_AFTER;
+          params.add(afterName);
+        }
+        params.add(limit);
+        long started = System.nanoTime();
+        connection.queryWithParams(sqlQueries.get(query), params, res -> {
+          queryTimers.get(query).recordSince(started);
+          release(connection, res.succeeded());
+          if (res.succeeded()) {
+            resultHandler.handle(Future.succeededFuture(pageNames(res.result())));
+          } else {
+            LOGGER.error("Database query error", res.cause());
+            errors.get(DB_ERROR).increment();
+            resultHandler.handle(Future.failedFuture(res.cause()));
+          }
+        });
+      } else {
+        LOGGER.error("Database query error", car.cause());
+        errors.get(DB_ERROR).increment();
         resultHandler.handle(Future.failedFuture(car.cause()));
       }
     });
@@ -87,78 +368,338 @@ class WikiDatabaseServiceImpl implements WikiDatabaseService {
 
   @Override
   public WikiDatabaseService fetchPage(String name, Handler<AsyncResult<JsonObject>> resultHandler) {
-    dbClient.getConnection(car -> {
+    readPage(name, Integer.MAX_VALUE, RequestTrace.NONE, read -> resultHandler.handle(read.map(Page::toJson)));
+    return this;
+  }
+
+  /*
+   * What fetchPage returns, before it is turned into JSON; the page address replies with it as is. Pages longer
+   * than inlineMaxChars are returned without their content.
+   * A page that a replica returns but that was written too recently is read again from the primary.
+   */
+  @Override
+  public void readPage(String name, int inlineMaxChars, RequestTrace trace, Handler<AsyncResult<Page>> resultHandler) {
+    if (readClients.isEmpty() || recentWrites.created(name)) {
+      readPage(name, inlineMaxChars, true, trace, resultHandler);
+      return;
+    }
+    readPage(name, inlineMaxChars, false, trace, read -> {
+      if (read.succeeded() && read.result().isFound() && recentWrites.written(read.result().getId())) {
+        readPage(name, inlineMaxChars, true, trace, resultHandler);
+      } else {
+        resultHandler.handle(read);
+      }
+    });
+  }
+
+  private void readPage(String name, int inlineMaxChars, boolean fromPrimary, RequestTrace trace, Handler<AsyncResult<Page>> resultHandler) {
+    long acquiring = System.nanoTime();
+    getReadConnection(fromPrimary, car -> {
+      trace.stage("db.connection", acquiring);
       if (car.succeeded()) {
         SQLConnection connection = car.result();
-        connection.queryWithParams(sqlQueries.get(SqlQuery.GET_PAGE), new JsonArray().add(name), fetch -> {
-          connection.close();
+        long started = System.nanoTime();
+        JsonArray params = new JsonArray().add(inlineMaxChars).add(inlineMaxChars).add(name);
+        connection.queryWithParams(sqlQueries.get(SqlQuery.GET_PAGE), params, fetch -> {
+          queryTimers.get(SqlQuery.GET_PAGE).recordSince(started);
+          trace.stage("db.query", started);
+          release(connection, fetch.succeeded());
           if (fetch.succeeded()) {
-            JsonObject response = new JsonObject();
             ResultSet resultSet = fetch.result();
+            Page page;
             if (resultSet.getNumRows() == 0) {
-              response.put("found", false);
+              page = Page.notFound(name);
             } else {
-              response.put("found", true);
               JsonArray row = resultSet.getResults().get(0);
-              response.put("id", row.getInteger(0));
-              response.put("rawContent", row.getString(1));
+              int length = row.getValue(5) != null ? row.getInteger(5) : 0;
+              if (length > inlineMaxChars) {
+                int htmlLength = row.getValue(6) != null ? row.getInteger(6) : -1;
+                page = Page.streamed(row.getInteger(0), name, length, htmlLength, row.getInteger(2), row.getString(3));
+              } else {
+                page = new Page(row.getInteger(0), name, row.getString(1), row.getString(4), row.getInteger(2), row.getString(3));
+              }
             }
-            resultHandler.handle(Future.succeededFuture(response));
+            resultHandler.handle(Future.succeededFuture(page));
           } else {
             LOGGER.error("Database query error", fetch.cause());
+            errors.get(DB_ERROR).increment();
             resultHandler.handle(Future.failedFuture(fetch.cause()));
           }
         });
       } else {
         LOGGER.error("Database query error", car.cause());
+        errors.get(DB_ERROR).increment();
         resultHandler.handle(Future.failedFuture(car.cause()));
       }
     });
-    return this;
   }
 
   @Override
-  public WikiDatabaseService createPage(String title, String markdown, Handler<AsyncResult<Void>> resultHandler) {
-    dbClient.getConnection(car -> {
-
+  public WikiDatabaseService fetchPageChunk(int id, int revision, boolean html, int offset, int length, Handler<AsyncResult<String>> resultHandler) {
+    SqlQuery query = html ? SqlQuery.PAGE_HTML_CHUNK : SqlQuery.PAGE_CONTENT_CHUNK;
+    getReadConnection(recentWrites.written(id), car -> {
       if (car.succeeded()) {
         SQLConnection connection = car.result();
-        JsonArray data = new JsonArray().add(title).add(markdown);
-        connection.updateWithParams(sqlQueries.get(SqlQuery.CREATE_PAGE), data, res -> {
-          connection.close();
-          if (res.succeeded()) {
-            resultHandler.handle(Future.succeededFuture());
+        long started = System.nanoTime();
+        JsonArray params = new JsonArray().add(offset + 1).add(length).add(id).add(revision);
+        connection.queryWithParams(sqlQueries.get(query), params, fetch -> {
+          queryTimers.get(query).recordSince(started);
+          release(connection, fetch.succeeded());
+          if (fetch.succeeded()) {
+            List<JsonArray> rows = fetch.result().getResults();
+            if (rows.isEmpty()) {
+              errors.get(STALE_REVISION).increment();
+              resultHandler.handle(ServiceException.fail(STALE_REVISION.ordinal(), "Page " + id + " is no longer at revision " + revision));
+            } else {
+              String chunk = rows.get(0).getString(0);
+              resultHandler.handle(Future.succeededFuture(chunk != null ? chunk : ""));
+            }
           } else {
-            LOGGER.error("Database query error", res.cause());
-            resultHandler.handle(Future.failedFuture(res.cause()));
+            LOGGER.error("Database query error", fetch.cause());
+            errors.get(DB_ERROR).increment();
+            resultHandler.handle(Future.failedFuture(fetch.cause()));
           }
         });
       } else {
         LOGGER.error("Database query error", car.cause());
+        errors.get(DB_ERROR).increment();
         resultHandler.handle(Future.failedFuture(car.cause()));
       }
     });
     return this;
   }
 
+  @Override
+  public WikiDatabaseService createPage(String title, String markdown, Handler<AsyncResult<Void>> resultHandler) {
+    renderMarkdown(markdown, html -> updateInTransaction(
+      Arrays.asList(SqlQuery.CREATE_PAGE, SqlQuery.ARCHIVE_PAGE_BY_NAME),
+      Arrays.asList(new JsonArray().add(title).add(markdown).add(html), new JsonArray().add(title)), res -> {
+        if (res.succeeded()) {
+          int id = res.result().get(0).getKeys().getInteger(0);
+          updateSearchIndex(() -> searchIndex.put(id, title, markdown), indexed -> {
+            publishPageEvent(new JsonObject().put("action", "create").put("name", title));
+            resultHandler.handle(Future.succeededFuture());
+          });
+        } else {
+          LOGGER.error("Database query error", res.cause());
+          errors.get(DB_ERROR).increment();
+          resultHandler.handle(Future.failedFuture(res.cause()));
+        }
+      }));
+    return this;
+  }
+
   @Override
   public WikiDatabaseService savePage(int id, String markdown, Handler<AsyncResult<Void>> resultHandler) {
-    dbClient.getConnection(car -> {
+    renderMarkdown(markdown, html -> updateInTransaction(
+      Arrays.asList(SqlQuery.SAVE_PAGE, SqlQuery.ARCHIVE_PAGE),
+      Arrays.asList(new JsonArray().add(markdown).add(html).add(id), new JsonArray().add(id)), res -> {
+        if (res.succeeded()) {
+          updateSearchIndex(() -> searchIndex.update(id, markdown), indexed -> {
+            publishPageEvent(new JsonObject().put("action", "save").put("id", id));
+            resultHandler.handle(Future.succeededFuture());
+          });
+        } else {
+          LOGGER.error("Database query error", res.cause());
+          errors.get(DB_ERROR).increment();
+          resultHandler.handle(Future.failedFuture(res.cause()));
+        }
+      }));
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService deletePage(int id, Handler<AsyncResult<Void>> resultHandler) {
+    updateInTransaction(
+      Arrays.asList(SqlQuery.DELETE_PAGE, SqlQuery.DELETE_REVISIONS),
+      Arrays.asList(new JsonArray().add(id), new JsonArray().add(id)), res -> {
+        if (res.succeeded()) {
+          updateSearchIndex(() -> searchIndex.remove(id), indexed -> {
+            publishPageEvent(new JsonObject().put("action", "delete").put("id", id));
+            resultHandler.handle(Future.succeededFuture());
+          });
+        } else {
+          LOGGER.error("Database query error", res.cause());
+          errors.get(DB_ERROR).increment();
+          resultHandler.handle(Future.failedFuture(res.cause()));
+        }
+      });
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService applyBatch(JsonArray operations, Handler<AsyncResult<JsonArray>> resultHandler) {
+    for (int i = 0; i < operations.size(); i++) {
+      String error = validateOperation(operations.getValue(i));
+      if (error != null) {
+        errors.get(BAD_ACTION).increment();
+        resultHandler.handle(ServiceException.fail(BAD_ACTION.ordinal(), "Operation " + i + ": " + error));
+        return this;
+      }
+    }
+    if (operations.isEmpty()) {
+      resultHandler.handle(Future.succeededFuture(new JsonArray()));
+      return this;
+    }
+
+    renderMarkdown(operations, htmls -> getConnection(car -> {
+      if (car.failed()) {
+        LOGGER.error("Database query error", car.cause());
+        errors.get(DB_ERROR).increment();
+        resultHandler.handle(Future.failedFuture(car.cause()));
+        return;
+      }
+      SQLConnection connection = car.result();
+      List<Integer> updateCounts = new ArrayList<>();
+
+      Future<Void> autoCommitOff = Future.future();
+      connection.setAutoCommit(false, autoCommitOff.completer());
+      Future<Void> batches = autoCommitOff;
+      int start = 0;
+      while (start < operations.size()) {
+        String action = operations.getJsonObject(start).getString("action");
+        int end = start;
+        List<JsonArray> params = new ArrayList<>();
+        List<JsonArray> archiveParams = new ArrayList<>();
+        while (end < operations.size() && action.equals(operations.getJsonObject(end).getString("action"))) {
+          JsonObject operation = operations.getJsonObject(end);
+          params.add(batchParams(operation, htmls.get(end)));
+          archiveParams.add(new JsonArray().add(operation.getValue("create".equals(action) ? "name" : "id")));
+          end++;
+        }
+        batches = batches.compose(previous -> {
+          Future<List<Integer>> batch = Future.future();
+          SqlQuery query = BATCH_QUERIES.get(action);
+          long started = System.nanoTime();
+          connection.batchWithParams(sqlQueries.get(query), params, batch.completer());
+          return batch.compose(counts -> {
+            queryTimers.get(query).recordSince(started);
+            updateCounts.addAll(counts);
+            Future<List<Integer>> archived = Future.future();
+            SqlQuery archive = ARCHIVE_QUERIES.get(action);
+            long archiveStarted = System.nanoTime();
+            connection.batchWithParams(sqlQueries.get(archive), archiveParams, archived.completer());
+            return archived.map(archivedCounts -> {
+              queryTimers.get(archive).recordSince(archiveStarted);
+              return null;
+            });
+          });
+        });
+        start = end;
+      }
+      batches.compose(done -> {
+        Future<Void> commit = Future.future();
+        connection.commit(commit.completer());
+        return commit;
+      }).setHandler(outcome -> {
+        if (outcome.succeeded()) {
+          Future<Void> autoCommitOn = Future.future();
+          connection.setAutoCommit(true, autoCommitOn.completer());
+          autoCommitOn.compose(restored -> createdPageIds(connection, operations, updateCounts)).setHandler(lookup -> {
+            release(connection);
+            if (lookup.failed()) {
+              LOGGER.error("Could not look up created pages, they are missing from the search index", lookup.cause());
+            }
+            int[] createdIds = lookup.succeeded() ? lookup.result() : new int[0];
+            updateSearchIndex(() -> indexBatch(operations, updateCounts, createdIds), indexed -> {
+              JsonArray results = new JsonArray();
+              for (int i = 0; i < operations.size(); i++) {
+                JsonObject operation = operations.getJsonObject(i);
+                boolean applied = updateCounts.get(i) > 0;
+                if (applied) {
+                  publishPageEvent(pageEvent(operation));
+                }
+                results.add(new JsonObject().put("action", operation.getString("action")).put("success", applied));
+              }
+              resultHandler.handle(Future.succeededFuture(results));
+            });
+          });
+        } else {
+          LOGGER.error("Database batch error", outcome.cause());
+          errors.get(DB_ERROR).increment();
+          connection.rollback(rollback -> connection.setAutoCommit(true, restored -> release(connection)));
+          resultHandler.handle(Future.failedFuture(outcome.cause()));
+        }
+      });
+    }));
+    return this;
+  }
 
+  @Override
+  public WikiDatabaseService searchPages(String query, int limit, Handler<AsyncResult<JsonArray>> resultHandler) {
+    if (query == null) {
+      resultHandler.handle(Future.succeededFuture(new JsonArray()));
+      return this;
+    }
+    if (!searchIndex.needsBuild()) {
+      vertx.<JsonArray>executeBlocking(future -> future.complete(searchIndex.search(query, limit)), false, resultHandler);
+      return this;
+    }
+    getConnection(car -> {
+      if (car.failed()) {
+        LOGGER.error("Database query error", car.cause());
+        errors.get(DB_ERROR).increment();
+        resultHandler.handle(Future.failedFuture(car.cause()));
+        return;
+      }
+      buildSearchIndex(car.result()).setHandler(built -> {
+        release(car.result());
+        if (built.failed()) {
+          errors.get(DB_ERROR).increment();
+          resultHandler.handle(Future.failedFuture(built.cause()));
+        } else {
+          vertx.<JsonArray>executeBlocking(future -> future.complete(searchIndex.search(query, limit)), false, resultHandler);
+        }
+      });
+    });
+    return this;
+  }
+
+  /*
+   * One page of the export per call, by name, rather than a cursor over the whole table: a slow download then holds
+   * a connection for the length of a query, not for the length of the download.
+   */
+  @Override
+  public WikiDatabaseService exportPages(String afterName, int limit, int inlineMaxChars, Handler<AsyncResult<JsonArray>> resultHandler) {
+    getReadConnection(recentWrites.listChanged(), car -> {
       if (car.succeeded()) {
         SQLConnection connection = car.result();
-        JsonArray data = new JsonArray().add(markdown).add(id);
-        connection.updateWithParams(sqlQueries.get(SqlQuery.SAVE_PAGE), data, res -> {
-          connection.close();
+        SqlQuery query;
+        JsonArray params = new JsonArray().add(inlineMaxChars);
+        if (afterName == null) {
+          query = SqlQuery.EXPORT_FIRST;
+        } else {
+          query = SqlQuery.EXPORT_AFTER;
+          params.add(afterName);
+        }
+        params.add(limit);
+        long started = System.nanoTime();
+        connection.queryWithParams(sqlQueries.get(query), params, res -> {
+          queryTimers.get(query).recordSince(started);
+          release(connection, res.succeeded());
           if (res.succeeded()) {
-            resultHandler.handle(Future.succeededFuture());
+            JsonArray pages = new JsonArray();
+            for (JsonArray row : res.result().getResults()) {
+              JsonObject page = new JsonObject()
+                .put("id", row.getInteger(0))
+                .put("name", row.getString(1))
+                .put("revision", row.getInteger(2))
+                .put("length", row.getInteger(4));
+              if (row.getString(3) != null) {
+                page.put("markdown", row.getString(3));
+              }
+              pages.add(page);
+            }
+            resultHandler.handle(Future.succeededFuture(pages));
           } else {
             LOGGER.error("Database query error", res.cause());
+            errors.get(DB_ERROR).increment();
             resultHandler.handle(Future.failedFuture(res.cause()));
           }
         });
       } else {
         LOGGER.error("Database query error", car.cause());
+        errors.get(DB_ERROR).increment();
         resultHandler.handle(Future.failedFuture(car.cause()));
       }
     });
@@ -166,25 +707,743 @@ class WikiDatabaseServiceImpl implements WikiDatabaseService {
   }
 
   @Override
-  public WikiDatabaseService deletePage(int id, Handler<AsyncResult<Void>> resultHandler) {
-    dbClient.getConnection(car -> {
+  public WikiDatabaseService importPages(JsonArray pages, Handler<AsyncResult<Integer>> resultHandler) {
+    for (int i = 0; i < pages.size(); i++) {
+      String error = validateImportedPage(pages.getValue(i));
+      if (error != null) {
+        errors.get(BAD_ACTION).increment();
+        resultHandler.handle(ServiceException.fail(BAD_ACTION.ordinal(), "Page " + i + ": " + error));
+        return this;
+      }
+    }
+    if (pages.isEmpty()) {
+      resultHandler.handle(Future.succeededFuture(0));
+      return this;
+    }
+
+    renderMarkdown(pages, htmls -> getConnection(car -> {
+      if (car.failed()) {
+        LOGGER.error("Database query error", car.cause());
+        errors.get(DB_ERROR).increment();
+        resultHandler.handle(Future.failedFuture(car.cause()));
+        return;
+      }
+      SQLConnection connection = car.result();
+      List<JsonArray> params = new ArrayList<>();
+      for (int i = 0; i < pages.size(); i++) {
+        JsonObject page = pages.getJsonObject(i);
+        params.add(new JsonArray().add(page.getString("name")).add(page.getString("markdown")).add(htmls.get(i)));
+      }
+
+      Future<Void> autoCommitOff = Future.future();
+      connection.setAutoCommit(false, autoCommitOff.completer());
+      autoCommitOff.compose(off -> {
+        Future<List<Integer>> batch = Future.future();
+        long started = System.nanoTime();
+        connection.batchWithParams(sqlQueries.get(SqlQuery.IMPORT_PAGE), params, batch.completer());
+        return batch.map(counts -> {
+          queryTimers.get(SqlQuery.IMPORT_PAGE).recordSince(started);
+          return null;
+        });
+      }).compose(merged -> {
+        Future<List<Integer>> archived = Future.future();
+        List<JsonArray> names = params.stream().map(page -> new JsonArray().add(page.getString(0))).collect(Collectors.toList());
+        long started = System.nanoTime();
+        connection.batchWithParams(sqlQueries.get(SqlQuery.ARCHIVE_PAGE_BY_NAME), names, archived.completer());
+        return archived.map(counts -> {
+          queryTimers.get(SqlQuery.ARCHIVE_PAGE_BY_NAME).recordSince(started);
+          return null;
+        });
+      }).compose(archived -> {
+        Future<Void> commit = Future.future();
+        connection.commit(commit.completer());
+        return commit;
+      }).setHandler(outcome -> {
+        if (outcome.succeeded()) {
+          Future<Void> autoCommitOn = Future.future();
+          connection.setAutoCommit(true, autoCommitOn.completer());
+          autoCommitOn.compose(restored -> importedPageIds(connection, pages)).setHandler(lookup -> {
+            release(connection);
+            if (lookup.failed()) {
+              LOGGER.error("Could not look up imported pages, they are missing from the search index", lookup.cause());
+            }
+            int[] ids = lookup.succeeded() ? lookup.result() : null;
+            updateSearchIndex(() -> {
+              for (int i = 0; ids != null && i < pages.size(); i++) {
+                searchIndex.put(ids[i], pages.getJsonObject(i).getString("name"), pages.getJsonObject(i).getString("markdown"));
+              }
+            }, indexed -> {
+              for (int i = 0; i < pages.size(); i++) {
+                JsonObject event = new JsonObject().put("action", "import").put("name", pages.getJsonObject(i).getString("name"));
+                publishPageEvent(ids != null ? event.put("id", ids[i]) : event);
+              }
+              resultHandler.handle(Future.succeededFuture(pages.size()));
+            });
+          });
+        } else {
+          LOGGER.error("Database import error", outcome.cause());
+          errors.get(DB_ERROR).increment();
+          connection.rollback(rollback -> connection.setAutoCommit(true, restored -> release(connection)));
+          resultHandler.handle(Future.failedFuture(outcome.cause()));
+        }
+      });
+    }));
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService fetchPageRevisions(String name, Handler<AsyncResult<JsonArray>> resultHandler) {
+    getConnection(car -> {
       if (car.succeeded()) {
         SQLConnection connection = car.result();
-        JsonArray data = new JsonArray().add(id);
-        connection.updateWithParams(sqlQueries.get(SqlQuery.DELETE_PAGE), data, res -> {
-          connection.close();
+        long started = System.nanoTime();
+        connection.queryWithParams(sqlQueries.get(SqlQuery.PAGE_REVISIONS), new JsonArray().add(name), res -> {
+          queryTimers.get(SqlQuery.PAGE_REVISIONS).recordSince(started);
+          release(connection);
           if (res.succeeded()) {
-            resultHandler.handle(Future.succeededFuture());
+            JsonArray revisions = new JsonArray();
+            for (JsonArray row : res.result().getResults()) {
+              revisions.add(new JsonObject().put("revision", row.getInteger(0)).put("lastModified", row.getString(1)));
+            }
+            resultHandler.handle(Future.succeededFuture(revisions));
           } else {
             LOGGER.error("Database query error", res.cause());
+            errors.get(DB_ERROR).increment();
             resultHandler.handle(Future.failedFuture(res.cause()));
           }
         });
       } else {
         LOGGER.error("Database query error", car.cause());
+        errors.get(DB_ERROR).increment();
         resultHandler.handle(Future.failedFuture(car.cause()));
       }
     });
     return this;
   }
+
+  @Override
+  public WikiDatabaseService fetchPageRevision(String name, int revision, Handler<AsyncResult<JsonObject>> resultHandler) {
+    withPageId(name, (connection, id) -> reconstructRevision(connection, id, revision).map(entry -> entry == null
+      ? new JsonObject().put("found", false)
+      : new JsonObject()
+        .put("found", true)
+        .put("name", name)
+        .put("revision", revision)
+        .put("lastModified", entry.lastModified)
+        .put("markdown", entry.markdown)), resultHandler);
+    return this;
+  }
+
+  @Override
+  public WikiDatabaseService diffPageRevisions(String name, int from, int to, Handler<AsyncResult<JsonObject>> resultHandler) {
+    withPageId(name, (connection, id) -> reconstructRevision(connection, id, from).compose(older ->
+      reconstructRevision(connection, id, to).compose(newer -> {
+        if (older == null || newer == null) {
+          return Future.succeededFuture(new JsonObject().put("found", false));
+        }
+        Future<String> diff = Future.future();
+        vertx.executeBlocking(future -> future.complete(LineDiff.unified(older.markdown, newer.markdown,
+          name + "@" + from, name + "@" + to, DIFF_CONTEXT_LINES, DIFF_MAX_DISTANCE)), false, diff.completer());
+        return diff.map(unified -> new JsonObject().put("found", true).put("from", from).put("to", to).put("diff", unified));
+      })), resultHandler);
+    return this;
+  }
+
+  /*
+   * Looks up the id of a page by name and runs the query with it, on the same connection; pages that do not exist
+   * give {"found": false}.
+   */
+  private void withPageId(String name, BiFunction<SQLConnection, Integer, Future<JsonObject>> query, Handler<AsyncResult<JsonObject>> resultHandler) {
+    getConnection(car -> {
+      if (car.failed()) {
+        LOGGER.error("Database query error", car.cause());
+        errors.get(DB_ERROR).increment();
+        resultHandler.handle(Future.failedFuture(car.cause()));
+        return;
+      }
+      SQLConnection connection = car.result();
+      Future<ResultSet> lookup = Future.future();
+      connection.queryWithParams(sqlQueries.get(SqlQuery.PAGE_ID), new JsonArray().add(name), lookup.completer());
+      lookup.<JsonObject>compose(ids -> ids.getNumRows() == 0
+        ? Future.succeededFuture(new JsonObject().put("found", false))
+        : query.apply(connection, ids.getResults().get(0).getInteger(0))).setHandler(ar -> {
+        release(connection, ar.succeeded());
+        if (ar.failed()) {
+          LOGGER.error("Database query error", ar.cause());
+          errors.get(DB_ERROR).increment();
+        }
+        resultHandler.handle(ar);
+      });
+    });
+  }
+
+  /*
+   * A revision is rebuilt from the last whole revision at or before it, applying the deltas that follow on a
+   * worker. Null when the page has no such revision.
+   */
+  private Future<RevisionCache.Entry> reconstructRevision(SQLConnection connection, int id, int revision) {
+    RevisionCache.Entry cached = revisionCache.get(id, revision);
+    if (cached != null) {
+      return Future.succeededFuture(cached);
+    }
+    Future<ResultSet> chain = Future.future();
+    long started = System.nanoTime();
+    JsonArray params = new JsonArray().add(id).add(revision).add(id).add(revision);
+    connection.queryWithParams(sqlQueries.get(SqlQuery.REVISION_CHAIN), params, chain.completer());
+    return chain.compose(resultSet -> {
+      queryTimers.get(SqlQuery.REVISION_CHAIN).recordSince(started);
+      List<JsonArray> rows = resultSet.getResults();
+      if (rows.isEmpty() || rows.get(rows.size() - 1).getInteger(0) != revision) {
+        return Future.succeededFuture(null);
+      }
+      Future<RevisionCache.Entry> rebuilt = Future.future();
+      vertx.<RevisionCache.Entry>executeBlocking(future -> {
+        String markdown = content(rows.get(0));
+        for (JsonArray delta : rows.subList(1, rows.size())) {
+          markdown = LineDiff.apply(markdown, content(delta));
+        }
+        future.complete(new RevisionCache.Entry(markdown, rows.get(rows.size() - 1).getString(3)));
+      }, false, rebuilt.completer());
+      return rebuilt.map(entry -> {
+        revisionCache.put(id, revision, entry);
+        return entry;
+      });
+    });
+  }
+
+  private static String content(JsonArray revisionRow) {
+    return revisionRow.getString(2) != null ? revisionRow.getString(2) : "";
+  }
+
+  private Future<int[]> importedPageIds(SQLConnection connection, JsonArray pages) {
+    int[] ids = new int[pages.size()];
+    Future<Void> lookups = Future.succeededFuture();
+    for (int i = 0; i < pages.size(); i++) {
+      int index = i;
+      lookups = lookups.compose(previous -> {
+        Future<ResultSet> lookup = Future.future();
+        connection.queryWithParams(sqlQueries.get(SqlQuery.PAGE_ID), new JsonArray().add(pages.getJsonObject(index).getString("name")), lookup.completer());
+        return lookup.map(resultSet -> {
+          ids[index] = resultSet.getResults().get(0).getInteger(0);
+          return null;
+        });
+      });
+    }
+    return lookups.map(done -> ids);
+  }
+
+  /*
+   * Batched inserts do not return generated keys, so the ids of the pages created by a batch are looked up by name.
+   */
+  private Future<int[]> createdPageIds(SQLConnection connection, JsonArray operations, List<Integer> updateCounts) {
+    int[] ids = new int[operations.size()];
+    Future<Void> lookups = Future.succeededFuture();
+    for (int i = 0; i < operations.size(); i++) {
+      JsonObject operation = operations.getJsonObject(i);
+      if ("create".equals(operation.getString("action")) && updateCounts.get(i) > 0) {
+        int index = i;
+        lookups = lookups.compose(previous -> {
+          Future<ResultSet> lookup = Future.future();
+          connection.queryWithParams(sqlQueries.get(SqlQuery.PAGE_ID), new JsonArray().add(operation.getString("name")), lookup.completer());
+          return lookup.map(resultSet -> {
+            ids[index] = resultSet.getResults().get(0).getInteger(0);
+            return null;
+          });
+        });
+      }
+    }
+    return lookups.map(done -> ids);
+  }
+
+  private void indexBatch(JsonArray operations, List<Integer> updateCounts, int[] createdIds) {
+    for (int i = 0; i < operations.size(); i++) {
+      JsonObject operation = operations.getJsonObject(i);
+      if (updateCounts.get(i) == 0) {
+        continue;
+      }
+      switch (operation.getString("action")) {
+        case "create":
+          if (i < createdIds.length) {
+            searchIndex.put(createdIds[i], operation.getString("name"), operation.getString("markdown"));
+          }
+          break;
+        case "save":
+          searchIndex.update(operation.getInteger("id"), operation.getString("markdown"));
+          break;
+        default:
+          searchIndex.remove(operation.getInteger("id"));
+      }
+    }
+  }
+
+  /*
+   * Pages written on other nodes are read back from the database and re-indexed, one event at a time, so that
+   * the index ends up matching the database whatever order the events of different nodes arrive in.
+   */
+  private synchronized void remotePageEventHandler(Message<JsonObject> message) {
+    JsonObject event = message.body();
+    if (nodeId.equals(event.getString("origin"))) {
+      return;
+    }
+    recentWrites.record(event);
+    remoteIndexUpdates = remoteIndexUpdates.compose(previous -> {
+      Future<Void> reindexed = Future.future();
+      Handler<AsyncResult<Page>> reindex = read -> {
+        if (read.failed()) {
+          LOGGER.error("Could not re-index page after " + event.encode(), read.cause());
+          reindexed.complete();
+        } else if (read.result().isFound()) {
+          Page page = read.result();
+          updateSearchIndex(() -> searchIndex.put(page.getId(), page.getName(), page.getMarkdown()), reindexed::complete);
+        } else if (event.containsKey("id")) {
+          updateSearchIndex(() -> searchIndex.remove(event.getInteger("id")), reindexed::complete);
+        } else {
+          reindexed.complete();
+        }
+      };
+      if (event.containsKey("id")) {
+        readPageContent(event.getInteger("id"), reindex);
+      } else {
+        readPage(event.getString("name"), Integer.MAX_VALUE, true, RequestTrace.NONE, reindex);
+      }
+      return reindexed;
+    });
+  }
+
+  /*
+   * Name and Markdown of a page, by id.
+   */
+  private void readPageContent(int id, Handler<AsyncResult<Page>> resultHandler) {
+    getConnection(car -> {
+      if (car.succeeded()) {
+        SQLConnection connection = car.result();
+        long started = System.nanoTime();
+        connection.queryWithParams(sqlQueries.get(SqlQuery.PAGE_CONTENT), new JsonArray().add(id), fetch -> {
+          queryTimers.get(SqlQuery.PAGE_CONTENT).recordSince(started);
+          release(connection);
+          if (fetch.succeeded()) {
+            List<JsonArray> rows = fetch.result().getResults();
+            resultHandler.handle(Future.succeededFuture(rows.isEmpty() ? Page.notFound(null)
+              : new Page(id, rows.get(0).getString(0), rows.get(0).getString(1), null, 0, null)));
+          } else {
+            errors.get(DB_ERROR).increment();
+            resultHandler.handle(Future.failedFuture(fetch.cause()));
+          }
+        });
+      } else {
+        errors.get(DB_ERROR).increment();
+        resultHandler.handle(Future.failedFuture(car.cause()));
+      }
+    });
+  }
+
+  /*
+   * Index updates are applied in order, on a worker, before the write is acknowledged.
+   */
+  private void updateSearchIndex(Runnable update, Handler<Void> indexedHandler) {
+    vertx.executeBlocking(future -> {
+      update.run();
+      future.complete();
+    }, true, ar -> {
+      if (ar.failed()) {
+        LOGGER.error("Search index update error", ar.cause());
+      }
+      indexedHandler.handle(null);
+    });
+  }
+
+  static String validateImportedPage(Object page) {
+    if (!(page instanceof JsonObject)) {
+      return "not a JSON object";
+    }
+    JsonObject object = (JsonObject) page;
+    return object.getValue("name") instanceof String && object.getValue("markdown") instanceof String ? null : "a page needs a name and markdown";
+  }
+
+  static String validateOperation(Object element) {
+    if (!(element instanceof JsonObject)) {
+      return "not a JSON object";
+    }
+    JsonObject operation = (JsonObject) element;
+    Object action = operation.getValue("action");
+    if (action == null) {
+      return "no action specified";
+    }
+    if (!(action instanceof String)) {
+      return "the action must be a string";
+    }
+    boolean named = operation.getValue("name") instanceof String;
+    boolean identified = operation.getValue("id") instanceof Integer;
+    boolean withMarkdown = operation.getValue("markdown") instanceof String;
+    switch ((String) action) {
+      case "create":
+        return named && withMarkdown ? null : "create needs a name and markdown";
+      case "save":
+        return identified && withMarkdown ? null : "save needs an id and markdown";
+      case "delete":
+        return identified ? null : "delete needs an id";
+      default:
+        return "bad action " + action;
+    }
+  }
+
+  private JsonArray batchParams(JsonObject operation, String html) {
+    switch (operation.getString("action")) {
+      case "create":
+        return new JsonArray().add(operation.getString("name")).add(operation.getString("markdown")).add(html);
+      case "save":
+        return new JsonArray().add(operation.getString("markdown")).add(html).add(operation.getInteger("id"));
+      default:
+        return new JsonArray().add(operation.getInteger("id"));
+    }
+  }
+
+  private JsonObject pageEvent(JsonObject operation) {
+    JsonObject event = new JsonObject().put("action", operation.getString("action"));
+    if (operation.containsKey("name")) {
+      event.put("name", operation.getString("name"));
+    }
+    if (operation.containsKey("id")) {
+      event.put("id", operation.getInteger("id"));
+    }
+    return event;
+  }
+
+  /*
+   * Markdown is rendered on a worker so that large pages do not block the event loop.
+   * When pre-rendering is disabled the HTML column stays empty and pages are rendered on read.
+   */
+  private void renderMarkdown(String markdown, Handler<String> htmlHandler) {
+    if (!prerenderMarkdown) {
+      htmlHandler.handle(null);
+      return;
+    }
+    vertx.<String>executeBlocking(future -> future.complete(Processor.process(markdown)), false, ar -> {
+      if (ar.failed()) {
+        LOGGER.error("Markdown rendering error", ar.cause());
+      }
+      htmlHandler.handle(ar.result());
+    });
+  }
+
+  private void renderMarkdown(JsonArray operations, Handler<List<String>> htmlHandler) {
+    List<String> markdowns = new ArrayList<>();
+    for (int i = 0; i < operations.size(); i++) {
+      markdowns.add(operations.getJsonObject(i).getString("markdown"));
+    }
+    if (!prerenderMarkdown) {
+      htmlHandler.handle(Collections.nCopies(markdowns.size(), null));
+      return;
+    }
+    vertx.<List<String>>executeBlocking(future -> future.complete(markdowns.stream()
+      .map(markdown -> markdown == null ? null : Processor.process(markdown))
+      .collect(Collectors.toList())), false, ar -> {
+      if (ar.failed()) {
+        LOGGER.error("Markdown rendering error", ar.cause());
+        htmlHandler.handle(Collections.nCopies(markdowns.size(), null));
+      } else {
+        htmlHandler.handle(ar.result());
+      }
+    });
+  }
+
+  /*
+   * One-off migration of rows written before pre-rendering existed, in batches of increasing ids.
+   * A row saved in the meantime has a new revision and already carries its HTML, so it is skipped.
+   */
+  private void backfillHtml(int afterId) {
+    getConnection(car -> {
+      if (car.failed()) {
+        LOGGER.error("HTML backfill aborted", car.cause());
+        return;
+      }
+      SQLConnection connection = car.result();
+      JsonArray params = new JsonArray().add(afterId).add(HTML_BACKFILL_BATCH_SIZE);
+      long started = System.nanoTime();
+      connection.queryWithParams(sqlQueries.get(SqlQuery.PAGES_WITHOUT_HTML), params, fetch -> {
+        queryTimers.get(SqlQuery.PAGES_WITHOUT_HTML).recordSince(started);
+        if (fetch.failed()) {
+          release(connection);
+          LOGGER.error("HTML backfill aborted", fetch.cause());
+          return;
+        }
+        List<JsonArray> rows = fetch.result().getResults();
+        if (rows.isEmpty()) {
+          release(connection);
+          return;
+        }
+        vertx.<List<JsonArray>>executeBlocking(future -> future.complete(rows.stream()
+          .map(row -> new JsonArray().add(Processor.process(row.getString(1))).add(row.getInteger(0)).add(row.getInteger(2)))
+          .collect(Collectors.toList())), false, rendered -> {
+          if (rendered.failed()) {
+            release(connection);
+            LOGGER.error("HTML backfill aborted", rendered.cause());
+            return;
+          }
+          long updateStarted = System.nanoTime();
+          connection.batchWithParams(sqlQueries.get(SqlQuery.SAVE_PAGE_HTML), rendered.result(), update -> {
+            queryTimers.get(SqlQuery.SAVE_PAGE_HTML).recordSince(updateStarted);
+            release(connection);
+            if (update.failed()) {
+              LOGGER.error("HTML backfill aborted", update.cause());
+            } else {
+              LOGGER.info("Rendered HTML for " + rows.size() + " existing pages");
+              backfillHtml(rows.get(rows.size() - 1).getInteger(0));
+            }
+          });
+        });
+      });
+    });
+  }
+
+  /*
+   * Revisions are archived whole, in the transaction that writes them. This turns them, oldest first, into deltas
+   * against the revision before, except for every snapshot-interval-th revision of a page, and any that a delta
+   * would not make smaller, which stay whole: rebuilding a revision then never takes more than that many deltas.
+   * Packing a revision twice gives the same result, so nodes sharing a database may pack at the same time.
+   */
+  private void packRevisions() {
+    if (packing) {
+      return;
+    }
+    packing = true;
+    getConnection(car -> {
+      if (car.failed()) {
+        packing = false;
+        LOGGER.error("Revision packing aborted", car.cause());
+        return;
+      }
+      SQLConnection connection = car.result();
+      Future<ResultSet> unpacked = Future.future();
+      long started = System.nanoTime();
+      connection.queryWithParams(sqlQueries.get(SqlQuery.UNPACKED_REVISIONS), new JsonArray().add(REVISION_PACK_BATCH_SIZE), unpacked.completer());
+      unpacked.compose(resultSet -> {
+        queryTimers.get(SqlQuery.UNPACKED_REVISIONS).recordSince(started);
+        Future<Integer> packed = Future.succeededFuture(0);
+        for (JsonArray row : resultSet.getResults()) {
+          packed = packed.compose(count -> packRevision(connection, row.getInteger(0), row.getInteger(1), content(row), row.getString(3))
+            .map(done -> count + 1));
+        }
+        return packed;
+      }).setHandler(ar -> {
+        release(connection, ar.succeeded());
+        packing = false;
+        if (ar.failed()) {
+          LOGGER.error("Revision packing aborted", ar.cause());
+        } else if (ar.result() == REVISION_PACK_BATCH_SIZE) {
+          vertx.runOnContext(next -> packRevisions());
+        }
+      });
+    });
+  }
+
+  private Future<Void> packRevision(SQLConnection connection, int id, int revision, String markdown, String lastModified) {
+    Future<ResultSet> before = Future.future();
+    long started = System.nanoTime();
+    JsonArray params = new JsonArray().add(id).add(revision).add(snapshotInterval);
+    connection.queryWithParams(sqlQueries.get(SqlQuery.REVISIONS_BEFORE), params, before.completer());
+    return before.compose(resultSet -> {
+      queryTimers.get(SqlQuery.REVISIONS_BEFORE).recordSince(started);
+      List<JsonArray> previous = resultSet.getResults();
+      int deltas = 0;
+      while (deltas < previous.size() && "D".equals(previous.get(deltas).getString(1))) {
+        deltas++;
+      }
+      if (previous.isEmpty() || deltas >= snapshotInterval - 1) {
+        return storePackedRevision(connection, id, revision, "S", markdown);
+      }
+      return reconstructRevision(connection, id, previous.get(0).getInteger(0)).compose(base -> {
+        if (base == null) {
+          return storePackedRevision(connection, id, revision, "S", markdown);
+        }
+        Future<String> delta = Future.future();
+        vertx.executeBlocking(future -> future.complete(LineDiff.delta(base.markdown, markdown, DIFF_MAX_DISTANCE)), false, delta.completer());
+        return delta.compose(packed -> packed.length() < markdown.length()
+          ? storePackedRevision(connection, id, revision, "D", packed)
+          : storePackedRevision(connection, id, revision, "S", markdown));
+      });
+    }).map(packed -> {
+      revisionCache.put(id, revision, new RevisionCache.Entry(markdown, lastModified));
+      return null;
+    });
+  }
+
+  private Future<Void> storePackedRevision(SQLConnection connection, int id, int revision, String kind, String content) {
+    Future<UpdateResult> update = Future.future();
+    long started = System.nanoTime();
+    JsonArray params = new JsonArray().add(kind).add(content).add(id).add(revision);
+    connection.updateWithParams(sqlQueries.get(SqlQuery.PACK_REVISION), params, update.completer());
+    return update.map(result -> {
+      queryTimers.get(SqlQuery.PACK_REVISION).recordSince(started);
+      return null;
+    });
+  }
+
+  /*
+   * Runs the statements in order in a single transaction, and gives the result of each one.
+   */
+  private void updateInTransaction(List<SqlQuery> queries, List<JsonArray> params, Handler<AsyncResult<List<UpdateResult>>> resultHandler) {
+    getConnection(car -> {
+      if (car.failed()) {
+        resultHandler.handle(Future.failedFuture(car.cause()));
+        return;
+      }
+      SQLConnection connection = car.result();
+      List<UpdateResult> results = new ArrayList<>();
+      Future<Void> autoCommitOff = Future.future();
+      connection.setAutoCommit(false, autoCommitOff.completer());
+      Future<Void> updates = autoCommitOff;
+      for (int i = 0; i < queries.size(); i++) {
+        SqlQuery query = queries.get(i);
+        JsonArray data = params.get(i);
+        updates = updates.compose(previous -> {
+          Future<UpdateResult> update = Future.future();
+          long started = System.nanoTime();
+          connection.updateWithParams(sqlQueries.get(query), data, update.completer());
+          return update.map(result -> {
+            queryTimers.get(query).recordSince(started);
+            results.add(result);
+            return null;
+          });
+        });
+      }
+      updates.compose(done -> {
+        Future<Void> commit = Future.future();
+        connection.commit(commit.completer());
+        return commit;
+      }).setHandler(outcome -> {
+        if (outcome.succeeded()) {
+          connection.setAutoCommit(true, restored -> {
+            release(connection);
+            resultHandler.handle(Future.succeededFuture(results));
+          });
+        } else {
+          connection.rollback(rollback -> connection.setAutoCommit(true, restored -> release(connection)));
+          resultHandler.handle(Future.failedFuture(outcome.cause()));
+        }
+      });
+    });
+  }
+
+  private void getConnection(Handler<AsyncResult<SQLConnection>> handler) {
+    acquire(dbClient, handler);
+  }
+
+  /*
+   * A connection to the next read pool, round-robin, or to the primary when there are no read pools or the
+   * caller needs to see the latest writes. An idle pinned connection, when there is one, saves the trips to
+   * the pool.
+   */
+  private void getReadConnection(boolean fromPrimary, Handler<AsyncResult<SQLConnection>> handler) {
+    if (!fromPrimary || readClients.isEmpty()) {
+      for (PinnedConnection pinned : pinnedConnections) {
+        if (pinned.busy.compareAndSet(false, true)) {
+          handler.handle(Future.succeededFuture(pinned.connection));
+          return;
+        }
+      }
+    }
+    if (fromPrimary || readClients.isEmpty()) {
+      acquire(dbClient, handler);
+    } else {
+      acquire(readClients.get(Math.floorMod(nextReadClient.getAndIncrement(), readClients.size())), handler);
+    }
+  }
+
+  private void acquire(JDBCClient client, Handler<AsyncResult<SQLConnection>> handler) {
+    long started = System.nanoTime();
+    connectionsPending.increment();
+    client.getConnection(car -> {
+      connectionsPending.decrement();
+      connectionAcquire.recordSince(started);
+      if (car.succeeded()) {
+        connectionsInUse.increment();
+      }
+      handler.handle(car);
+    });
+  }
+
+  private void release(SQLConnection connection) {
+    release(connection, true);
+  }
+
+  /*
+   * A pinned connection goes back to being idle, unless the query failed: it may be broken, so it is unpinned
+   * and closed like a pooled one.
+   */
+  private void release(SQLConnection connection, boolean healthy) {
+    for (PinnedConnection pinned : pinnedConnections) {
+      if (pinned.connection == connection) {
+        if (healthy) {
+          pinned.busy.set(false);
+          return;
+        }
+        pinnedConnections.remove(pinned);
+        connectionsPinned.decrement();
+        break;
+      }
+    }
+    connectionsInUse.decrement();
+    connection.close();
+  }
+
+  /*
+   * Connections kept out of the pool for page reads, taken from the read pools when there are any.
+   */
+  private Future<Void> pinConnections(int count) {
+    Future<Void> pinned = Future.succeededFuture();
+    for (int i = 0; i < count; i++) {
+      JDBCClient client = readClients.isEmpty() ? dbClient : readClients.get(i % readClients.size());
+      pinned = pinned.compose(previous -> {
+        Future<Void> next = Future.future();
+        acquire(client, car -> {
+          if (car.succeeded()) {
+            pinnedConnections.add(new PinnedConnection(car.result()));
+            connectionsPinned.increment();
+          } else {
+            LOGGER.warn("Could not pin a database connection", car.cause());
+          }
+          next.complete();
+        });
+        return next;
+      });
+    }
+    return pinned;
+  }
+
+  /*
+   * Gives the pinned connections back to their pool.
+   */
+  @Override
+  public void close() {
+    for (PinnedConnection pinned : pinnedConnections) {
+      pinnedConnections.remove(pinned);
+      connectionsPinned.decrement();
+      connectionsInUse.decrement();
+      pinned.connection.close();
+    }
+  }
+
+  private JsonArray pageNames(ResultSet resultSet) {
+    JsonArray names = new JsonArray();
+    for (JsonArray row : resultSet.getResults()) {
+      names.add(row.getString(0));
+    }
+    return names;
+  }
+
+  private void publishPageEvent(JsonObject event) {
+    recentWrites.record(event);
+    vertx.eventBus().publish(pageEventsAddress, event.put("origin", nodeId));
+  }
+
+  private static final class PinnedConnection {
+
+    final SQLConnection connection;
+    final AtomicBoolean busy = new AtomicBoolean();
+
+    PinnedConnection(SQLConnection connection) {
+      this.connection = connection;
+    }
+  }
 }
@@ -1,48 +1,246 @@
 package pl.mkarebski.vertx.database;
 
 import io.vertx.core.AbstractVerticle;
+import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.jdbc.JDBCClient;
 import io.vertx.serviceproxy.ProxyHelper;
+import io.vertx.serviceproxy.ServiceException;
+import pl.mkarebski.vertx.metrics.Metrics;
+import pl.mkarebski.vertx.metrics.RequestTrace;
+import pl.mkarebski.vertx.metrics.StartupPhases;
 
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class WikiDatabaseVerticle extends AbstractVerticle {
 
+  public static final String CONFIG_WIKIDB_STORAGE = "wikidb.storage";
+  public static final String CONFIG_WIKIDB_LOG_PATH = "wikidb.log.path";
+  public static final String CONFIG_WIKIDB_LOG_SEGMENT_SIZE = "wikidb.log.segment_size";
+  public static final String CONFIG_WIKIDB_LOG_FSYNC = "wikidb.log.fsync";
+  public static final String CONFIG_WIKIDB_LOG_COMPACTION_THRESHOLD = "wikidb.log.compaction_threshold";
+  public static final String CONFIG_WIKIDB_LOG_COMPACTION_INTERVAL_MS = "wikidb.log.compaction_interval_ms";
   public static final String CONFIG_WIKIDB_JDBC_URL = "wikidb.jdbc.url";
   public static final String CONFIG_WIKIDB_JDBC_DRIVER_CLASS = "wikidb.jdbc.driver_class";
   public static final String CONFIG_WIKIDB_JDBC_MAX_POOL_SIZE = "wikidb.jdbc.max_pool_size";
+  public static final String CONFIG_WIKIDB_JDBC_MIN_POOL_SIZE = "wikidb.jdbc.min_pool_size";
+  public static final String CONFIG_WIKIDB_JDBC_ACQUIRE_TIMEOUT_MS = "wikidb.jdbc.acquire_timeout_ms";
+  public static final String CONFIG_WIKIDB_JDBC_STATEMENT_CACHE_SIZE = "wikidb.jdbc.statement_cache_size";
+  public static final String CONFIG_WIKIDB_JDBC_PINNED_CONNECTIONS = "wikidb.jdbc.pinned_connections";
+  public static final String CONFIG_WIKIDB_JDBC_READ_URLS = "wikidb.jdbc.read_urls";
+  public static final String CONFIG_WIKIDB_JDBC_READ_MAX_POOL_SIZE = "wikidb.jdbc.read_max_pool_size";
+  public static final String CONFIG_WIKIDB_JDBC_READ_YOUR_WRITES_MS = "wikidb.jdbc.read_your_writes_ms";
   public static final String CONFIG_WIKIDB_SQL_QUERIES_RESOURCE_FILE = "wikidb.sqlqueries.resource.file";
   public static final String CONFIG_WIKIDB_QUEUE = "wikidb.queue";
+  public static final String CONFIG_WIKIDB_PAGE_QUEUE = "wikidb.page.queue";
+  public static final String CONFIG_WIKIDB_PAGE_EVENTS = "wikidb.page.events";
+  public static final String CONFIG_WIKIDB_PAGE_INLINE_MAX_CHARS = "wikidb.page.inline_max_chars";
+  public static final String CONFIG_WIKIDB_MARKDOWN_PRERENDER = "wikidb.markdown.prerender";
+  public static final String CONFIG_WIKIDB_MARKDOWN_BACKFILL = "wikidb.markdown.backfill";
+  public static final String CONFIG_WIKIDB_REVISIONS_SNAPSHOT_INTERVAL = "wikidb.revisions.snapshot_interval";
+  public static final String CONFIG_WIKIDB_REVISIONS_PACK_INTERVAL_MS = "wikidb.revisions.pack_interval_ms";
+  public static final String CONFIG_WIKIDB_REVISIONS_CACHE_MAX_CHARS = "wikidb.revisions.cache_max_chars";
+  public static final String CONFIG_WIKIDB_MAX_IN_FLIGHT = "wikidb.max_in_flight";
+  public static final String CONFIG_WIKIDB_GROUP_COMMIT_ENABLED = "wikidb.group_commit.enabled";
+  public static final String CONFIG_WIKIDB_GROUP_COMMIT_WINDOW_MS = "wikidb.group_commit.window_ms";
+  public static final String CONFIG_WIKIDB_GROUP_COMMIT_MAX_OPERATIONS = "wikidb.group_commit.max_operations";
+
+  private static final String WIKIDB_READY = "wikidb.ready";
+  private static final String SHARED_STARTUP = "wiki.startup";
+
+  private WikiDatabaseBackend backend;
 
   @Override
   public void start(Future<Void> startFuture) throws Exception {
 
-    HashMap<SqlQuery, String> sqlQueries = loadSqlQueries();
+    boolean groupCommit = config().getBoolean(CONFIG_WIKIDB_GROUP_COMMIT_ENABLED, false);
+    if (groupCommit && context.isMultiThreadedWorkerContext()) {
+      startFuture.fail(new IllegalStateException("Group commit needs a single-threaded context, it cannot run on a multi-threaded worker"));
+      return;
+    }
+
+    Metrics metrics = Metrics.shared(vertx);
+    metrics.probeEventLoop(vertx);
 
-    JDBCClient dbClient = JDBCClient.createShared(vertx, new JsonObject()
-      .put("url", config().getString(CONFIG_WIKIDB_JDBC_URL, "jdbc:hsqldb:file:db/wiki"))
-      .put("driver_class", config().getString(CONFIG_WIKIDB_JDBC_DRIVER_CLASS, "org.hsqldb.jdbcDriver"))
-      .put("max_pool_size", config().getInteger(CONFIG_WIKIDB_JDBC_MAX_POOL_SIZE, 30)));
+    PageCodec.register(vertx);
 
-    WikiDatabaseService.create(dbClient, sqlQueries, ready -> {
+    StartupPhases phases = StartupPhases.shared(vertx);
+    long started = System.nanoTime();
+    Handler<AsyncResult<WikiDatabaseService>> readyHandler = ready -> {
       if (ready.succeeded()) {
-        ProxyHelper.registerService(WikiDatabaseService.class, vertx, ready.result(), CONFIG_WIKIDB_QUEUE);
+        phases.record("db.start", started);
+        backend = (WikiDatabaseBackend) ready.result();
+        WikiDatabaseService service = backend;
+        if (groupCommit) {
+          service = new GroupCommitWikiDatabaseService(vertx, service,
+            config().getLong(CONFIG_WIKIDB_GROUP_COMMIT_WINDOW_MS, 5L),
+            config().getInteger(CONFIG_WIKIDB_GROUP_COMMIT_MAX_OPERATIONS, 64));
+        }
+        BoundedWikiDatabaseService bounded = new BoundedWikiDatabaseService(metrics, service,
+          config().getInteger(CONFIG_WIKIDB_MAX_IN_FLIGHT, 512));
+        registerPageReader(bounded, backend);
+        ProxyHelper.registerService(WikiDatabaseService.class, vertx, bounded, CONFIG_WIKIDB_QUEUE);
+        vertx.sharedData().getLocalMap(SHARED_STARTUP).put(WIKIDB_READY, true);
+        vertx.eventBus().publish(WIKIDB_READY, null);
         startFuture.complete();
       } else {
         startFuture.fail(ready.cause());
       }
+    };
+
+    String storage = config().getString(CONFIG_WIKIDB_STORAGE, "jdbc");
+    switch (storage) {
+      case "jdbc":
+        createJdbcService(metrics, phases, readyHandler);
+        break;
+      case "log":
+        createLogService(readyHandler);
+        break;
+      default:
+        startFuture.fail(new IllegalArgumentException("Unknown storage " + storage + ", expected jdbc or log"));
+    }
+  }
+
+  /*
+   * Calls the handler once a database verticle of this Vert.x instance is serving, at once if one already is.
+   * Database verticles on other cluster nodes are not waited for.
+   */
+  public static void whenReady(Vertx vertx, Handler<Void> handler) {
+    AtomicBoolean called = new AtomicBoolean();
+    MessageConsumer<Void> consumer = vertx.eventBus().localConsumer(WIKIDB_READY);
+    Handler<Void> once = ready -> {
+      if (called.compareAndSet(false, true)) {
+        consumer.unregister();
+        handler.handle(null);
+      }
+    };
+    consumer.handler(message -> once.handle(null));
+    if (vertx.sharedData().getLocalMap(SHARED_STARTUP).get(WIKIDB_READY) != null) {
+      once.handle(null);
+    }
+  }
+
+  /*
+   * The queries are read on a worker, off the event loop.
+   */
+  private void createJdbcService(Metrics metrics, StartupPhases phases, Handler<AsyncResult<WikiDatabaseService>> readyHandler) {
+    vertx.<HashMap<SqlQuery, String>>executeBlocking(future -> {
+      long started = System.nanoTime();
+      try {
+        HashMap<SqlQuery, String> sqlQueries = loadSqlQueries();
+        phases.record("db.queries", started);
+        future.complete(sqlQueries);
+      } catch (IOException e) {
+        future.fail(e);
+      }
+    }, false, loaded -> {
+      if (loaded.succeeded()) {
+        createJdbcService(metrics, loaded.result(), readyHandler);
+      } else {
+        readyHandler.handle(Future.failedFuture(loaded.cause()));
+      }
+    });
+  }
+
+  private void createJdbcService(Metrics metrics, HashMap<SqlQuery, String> sqlQueries, Handler<AsyncResult<WikiDatabaseService>> readyHandler) {
+    int maxPoolSize = config().getInteger(CONFIG_WIKIDB_JDBC_MAX_POOL_SIZE, 30);
+    JDBCClient dbClient = JDBCClient.createShared(vertx,
+      poolConfig(config().getString(CONFIG_WIKIDB_JDBC_URL, "jdbc:hsqldb:file:db/wiki"), maxPoolSize));
+
+    List<JDBCClient> readClients = new ArrayList<>();
+    JsonArray readUrls = config().getJsonArray(CONFIG_WIKIDB_JDBC_READ_URLS, new JsonArray());
+    for (int i = 0; i < readUrls.size(); i++) {
+      readClients.add(JDBCClient.createShared(vertx,
+        poolConfig(readUrls.getString(i), config().getInteger(CONFIG_WIKIDB_JDBC_READ_MAX_POOL_SIZE, maxPoolSize)), "wikidb.read." + i));
+    }
+
+    metrics.gauge("wiki_db_connections_max", "Size limit of the JDBC connection pool").set(maxPoolSize);
+
+    WikiDatabaseService.create(vertx, dbClient, readClients, sqlQueries, config(), readyHandler);
+  }
+
+  /*
+   * Opening the log replays it, on a worker. Instances of this verticle share the store.
+   */
+  private void createLogService(Handler<AsyncResult<WikiDatabaseService>> readyHandler) {
+    vertx.<PageStore>executeBlocking(future -> future.complete(LogPageStore.open(
+      Paths.get(config().getString(CONFIG_WIKIDB_LOG_PATH, "db/wiki-log")),
+      config().getInteger(CONFIG_WIKIDB_LOG_SEGMENT_SIZE, 64 * 1024 * 1024),
+      config().getBoolean(CONFIG_WIKIDB_LOG_FSYNC, true),
+      config().getDouble(CONFIG_WIKIDB_LOG_COMPACTION_THRESHOLD, 0.5))), opened -> {
+      if (opened.succeeded()) {
+        WikiDatabaseService.create(vertx, opened.result(), config(), readyHandler);
+      } else {
+        readyHandler.handle(Future.failedFuture(opened.cause()));
+      }
     });
   }
 
+  @Override
+  public void stop() throws Exception {
+    if (backend != null) {
+      backend.close();
+    }
+  }
+
   /*
-   * Note: this uses blocking APIs, but data is small...
+   * Every query, parameters or not, is run with queryWithParams (or queryStreamWithParams), which goes through a
+   * prepared statement, so c3p0's per-connection statement cache prepares each query once per physical connection
+   * when it holds at least as many statements as there are queries. Only the schema statements run on startup
+   * are not cached.
    */
+  private JsonObject poolConfig(String url, int maxPoolSize) {
+    JsonObject pool = new JsonObject()
+      .put("provider_class", WikiDataSourceProvider.class.getName())
+      .put("url", url)
+      .put("driver_class", config().getString(CONFIG_WIKIDB_JDBC_DRIVER_CLASS, "org.hsqldb.jdbcDriver"))
+      .put("max_pool_size", maxPoolSize)
+      .put("max_statements_per_connection", config().getInteger(CONFIG_WIKIDB_JDBC_STATEMENT_CACHE_SIZE, 2 * SqlQuery.values().length))
+      .put("acquire_timeout_ms", config().getInteger(CONFIG_WIKIDB_JDBC_ACQUIRE_TIMEOUT_MS, 0));
+    if (config().containsKey(CONFIG_WIKIDB_JDBC_MIN_POOL_SIZE)) {
+      pool.put("min_pool_size", config().getInteger(CONFIG_WIKIDB_JDBC_MIN_POOL_SIZE));
+      pool.put("initial_pool_size", config().getInteger(CONFIG_WIKIDB_JDBC_MIN_POOL_SIZE));
+    }
+    return pool;
+  }
+
+  /*
+   * Page reads skip the service proxy: the page name is sent as is and the Page goes back through PageCodec.
+   * Pages longer than the inline limit come back without their content, which is then read with fetchPageChunk.
+   * A read sent with a trace id gets the stages it went through here back in a reply header.
+   */
+  private void registerPageReader(BoundedWikiDatabaseService bounded, WikiDatabaseBackend service) {
+    int inlineMaxChars = config().getInteger(CONFIG_WIKIDB_PAGE_INLINE_MAX_CHARS, 256 * 1024);
+    vertx.eventBus().<String>consumer(config().getString(CONFIG_WIKIDB_PAGE_QUEUE, "wikidb.page.queue"), message -> {
+      RequestTrace trace = RequestTrace.remote(message.headers().get(RequestTrace.ID_HEADER));
+      bounded.<Page>call(handler -> service.readPage(message.body(), inlineMaxChars, trace, handler), read -> {
+        if (read.succeeded() && trace.enabled()) {
+          message.reply(read.result(), new DeliveryOptions().addHeader(RequestTrace.STAGES_HEADER, trace.encodeStages()));
+        } else if (read.succeeded()) {
+          message.reply(read.result());
+        } else if (read.cause() instanceof ServiceException) {
+          message.fail(((ServiceException) read.cause()).failureCode(), read.cause().getMessage());
+        } else {
+          message.fail(ErrorCodes.DB_ERROR.ordinal(), read.cause().getMessage());
+        }
+      });
+    });
+  }
+
   private HashMap<SqlQuery, String> loadSqlQueries() throws IOException {
 
     String queriesFile = config().getString(CONFIG_WIKIDB_SQL_QUERIES_RESOURCE_FILE);
@@ -59,11 +257,38 @@ public class WikiDatabaseVerticle extends AbstractVerticle {
 
     HashMap<SqlQuery, String> sqlQueries = new HashMap<>();
     sqlQueries.put(SqlQuery.CREATE_PAGES_TABLE, queriesProps.getProperty("sql.create.db"));
+    sqlQueries.put(SqlQuery.PAGES_COLUMNS, queriesProps.getProperty("sql.db.columns"));
+    sqlQueries.put(SqlQuery.ADD_REVISION_COLUMN, queriesProps.getProperty("sql.db.add.revision"));
+    sqlQueries.put(SqlQuery.ADD_MODIFIED_COLUMN, queriesProps.getProperty("sql.db.add.modified"));
+    sqlQueries.put(SqlQuery.ADD_HTML_COLUMN, queriesProps.getProperty("sql.db.add.html"));
     sqlQueries.put(SqlQuery.ALL_PAGES, queriesProps.getProperty("sql.page.get.all"));
+    sqlQueries.put(SqlQuery.FIRST_PAGES, queriesProps.getProperty("sql.page.get.first"));
+    sqlQueries.put(SqlQuery.PAGES_AFTER, queriesProps.getProperty("sql.page.get.after"));
     sqlQueries.put(SqlQuery.GET_PAGE, queriesProps.getProperty("sql.page.get.one"));
     sqlQueries.put(SqlQuery.CREATE_PAGE, queriesProps.getProperty("sql.page.create"));
     sqlQueries.put(SqlQuery.SAVE_PAGE, queriesProps.getProperty("sql.page.update"));
     sqlQueries.put(SqlQuery.DELETE_PAGE, queriesProps.getProperty("sql.page.delete"));
+    sqlQueries.put(SqlQuery.PAGES_WITHOUT_HTML, queriesProps.getProperty("sql.page.html.missing"));
+    sqlQueries.put(SqlQuery.SAVE_PAGE_HTML, queriesProps.getProperty("sql.page.html.update"));
+    sqlQueries.put(SqlQuery.PAGE_ID, queriesProps.getProperty("sql.page.get.id"));
+    sqlQueries.put(SqlQuery.ALL_PAGES_CONTENT, queriesProps.getProperty("sql.page.get.all.content"));
+    sqlQueries.put(SqlQuery.PAGE_CONTENT, queriesProps.getProperty("sql.page.get.content"));
+    sqlQueries.put(SqlQuery.PAGE_CONTENT_CHUNK, queriesProps.getProperty("sql.page.content.chunk"));
+    sqlQueries.put(SqlQuery.PAGE_HTML_CHUNK, queriesProps.getProperty("sql.page.html.chunk"));
+    sqlQueries.put(SqlQuery.EXPORT_FIRST, queriesProps.getProperty("sql.page.export.first"));
+    sqlQueries.put(SqlQuery.EXPORT_AFTER, queriesProps.getProperty("sql.page.export.after"));
+    sqlQueries.put(SqlQuery.IMPORT_PAGE, queriesProps.getProperty("sql.page.import"));
+    sqlQueries.put(SqlQuery.CREATE_REVISIONS_TABLE, queriesProps.getProperty("sql.create.revisions"));
+    sqlQueries.put(SqlQuery.CREATE_REVISIONS_INDEX, queriesProps.getProperty("sql.create.revisions.index"));
+    sqlQueries.put(SqlQuery.ARCHIVE_PAGE, queriesProps.getProperty("sql.revision.archive"));
+    sqlQueries.put(SqlQuery.ARCHIVE_PAGE_BY_NAME, queriesProps.getProperty("sql.revision.archive.name"));
+    sqlQueries.put(SqlQuery.ARCHIVE_ALL_PAGES, queriesProps.getProperty("sql.revision.archive.all"));
+    sqlQueries.put(SqlQuery.DELETE_REVISIONS, queriesProps.getProperty("sql.revision.delete"));
+    sqlQueries.put(SqlQuery.PAGE_REVISIONS, queriesProps.getProperty("sql.revision.list"));
+    sqlQueries.put(SqlQuery.REVISION_CHAIN, queriesProps.getProperty("sql.revision.chain"));
+    sqlQueries.put(SqlQuery.UNPACKED_REVISIONS, queriesProps.getProperty("sql.revision.unpacked"));
+    sqlQueries.put(SqlQuery.REVISIONS_BEFORE, queriesProps.getProperty("sql.revision.before"));
+    sqlQueries.put(SqlQuery.PACK_REVISION, queriesProps.getProperty("sql.revision.pack"));
     return sqlQueries;
   }
 }
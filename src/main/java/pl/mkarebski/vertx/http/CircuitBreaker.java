@@ -0,0 +1,112 @@
+package pl.mkarebski.vertx.http;
+
+import pl.mkarebski.vertx.metrics.Counter;
+
+/*
+ * Opens when at least failureRatio of the requests seen in a window failed (and there were at least minRequests of
+ * them), refuses requests while open, then lets a single trial request through: its outcome closes or re-opens the
+ * breaker. Not thread-safe: each HTTP verticle instance has its own, used from its event loop.
+ */
+final class CircuitBreaker {
+
+  private enum State {
+    CLOSED, OPEN, HALF_OPEN
+  }
+
+  private final double failureRatio;
+  private final int minRequests;
+  private final long windowNanos;
+  private final long openNanos;
+  private final Counter trips;
+
+  private State state = State.CLOSED;
+  private long windowStart;
+  private int requests;
+  private int failures;
+  private long openedAt;
+  private boolean trialInFlight;
+
+  CircuitBreaker(double failureRatio, int minRequests, long windowMillis, long openMillis, Counter trips) {
+    this.failureRatio = failureRatio;
+    this.minRequests = minRequests;
+    this.windowNanos = windowMillis * 1_000_000;
+    this.openNanos = openMillis * 1_000_000;
+    this.trips = trips;
+    this.windowStart = System.nanoTime();
+  }
+
+  /*
+   * Whether a request may go on; every request let through must be followed by success() or failure().
+   */
+  boolean allow(long now) {
+    if (state == State.OPEN && now - openedAt >= openNanos) {
+      state = State.HALF_OPEN;
+      trialInFlight = false;
+    }
+    if (state == State.HALF_OPEN) {
+      if (trialInFlight) {
+        return false;
+      }
+      trialInFlight = true;
+      return true;
+    }
+    return state == State.CLOSED;
+  }
+
+  /*
+   * Time until a trial request will be let through, in whole seconds for Retry-After.
+   */
+  long retryAfterSeconds(long now) {
+    long remaining = state == State.OPEN ? openNanos - (now - openedAt) : 0;
+    return Math.max(1, (remaining + 999_999_999) / 1_000_000_000);
+  }
+
+  void success(long now) {
+    if (state == State.HALF_OPEN) {
+      state = State.CLOSED;
+      resetWindow(now);
+      return;
+    }
+    record(now, false);
+  }
+
+  void failure(long now) {
+    if (state == State.HALF_OPEN) {
+      open(now);
+      return;
+    }
+    record(now, true);
+  }
+
+  boolean isOpen() {
+    return state != State.CLOSED;
+  }
+
+  private void record(long now, boolean failed) {
+    if (state != State.CLOSED) {
+      return;
+    }
+    if (now - windowStart >= windowNanos) {
+      resetWindow(now);
+    }
+    requests++;
+    if (failed) {
+      failures++;
+    }
+    if (requests >= minRequests && failures >= failureRatio * requests) {
+      open(now);
+    }
+  }
+
+  private void open(long now) {
+    state = State.OPEN;
+    openedAt = now;
+    trips.increment();
+  }
+
+  private void resetWindow(long now) {
+    windowStart = now;
+    requests = 0;
+    failures = 0;
+  }
+}
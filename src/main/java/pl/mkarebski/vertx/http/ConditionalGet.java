@@ -0,0 +1,125 @@
+package pl.mkarebski.vertx.http;
+
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerResponse;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+
+/*
+ * Validators (ETag / Last-Modified) and the matching If-None-Match / If-Modified-Since checks.
+ */
+final class ConditionalGet {
+
+  private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.RFC_1123_DATE_TIME.withZone(ZoneOffset.UTC);
+  private static final String GZIP_SUFFIX = "-gz";
+
+  private ConditionalGet() {
+  }
+
+  static String pageEtag(int id, int revision) {
+    return "\"" + id + "." + revision + "\"";
+  }
+
+  /*
+   * The stored gzip copy of a page is not the same bytes as its HTML, so it has an entity tag of its own.
+   */
+  static String gzipEtag(String etag) {
+    return etag.substring(0, etag.length() - 1) + GZIP_SUFFIX + "\"";
+  }
+
+  /*
+   * For a body the server may still compress on the fly: the bytes sent depend on the encoding it picks.
+   */
+  static String weakEtag(String etag) {
+    return "W/" + etag;
+  }
+
+  static String listEtag(List<?> items) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-1");
+      for (Object item : items) {
+        digest.update(String.valueOf(item).getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) '\n');
+      }
+      StringBuilder etag = new StringBuilder("\"");
+      for (byte b : digest.digest()) {
+        etag.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+      }
+      return etag.append('"').toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  static String httpDate(Instant instant) {
+    return HTTP_DATE.format(instant.truncatedTo(ChronoUnit.SECONDS));
+  }
+
+  /*
+   * If-None-Match takes precedence over If-Modified-Since (RFC 7232, section 6).
+   */
+  static boolean isNotModified(HttpServerRequest request, String etag, String lastModified) {
+    String ifNoneMatch = request.getHeader("If-None-Match");
+    if (ifNoneMatch != null) {
+      return etag != null && matches(ifNoneMatch, etag);
+    }
+    String ifModifiedSince = request.getHeader("If-Modified-Since");
+    if (ifModifiedSince != null && lastModified != null) {
+      try {
+        Instant since = Instant.from(HTTP_DATE.parse(ifModifiedSince));
+        return !Instant.from(HTTP_DATE.parse(lastModified)).isAfter(since);
+      } catch (DateTimeParseException e) {
+        return false;
+      }
+    }
+    return false;
+  }
+
+  static void putValidators(HttpServerResponse response, String etag, String lastModified) {
+    response.putHeader("Cache-Control", "no-cache");
+    if (etag != null) {
+      response.putHeader("ETag", etag);
+    }
+    if (lastModified != null) {
+      response.putHeader("Last-Modified", lastModified);
+    }
+  }
+
+  static void notModified(HttpServerResponse response, String etag, String lastModified) {
+    putValidators(response, etag, lastModified);
+    response.setStatusCode(304).end();
+  }
+
+  private static boolean matches(String ifNoneMatch, String etag) {
+    String current = opaqueTag(etag);
+    for (String candidate : ifNoneMatch.split(",")) {
+      candidate = candidate.trim();
+      if (candidate.equals("*") || opaqueTag(candidate).equals(current)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /*
+   * If-None-Match compares entity tags weakly (RFC 7232, section 2.3.2), and any encoding of a page revision is that
+   * revision to a client that has it.
+   */
+  private static String opaqueTag(String etag) {
+    if (etag.startsWith("W/")) {
+      etag = etag.substring(2);
+    }
+    if (etag.endsWith(GZIP_SUFFIX + "\"")) {
+      etag = etag.substring(0, etag.length() - GZIP_SUFFIX.length() - 1) + "\"";
+    }
+    return etag;
+  }
+}
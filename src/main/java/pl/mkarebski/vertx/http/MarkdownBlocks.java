@@ -0,0 +1,91 @@
+package pl.mkarebski.vertx.http;
+
+import com.github.rjeschke.txtmark.Processor;
+
+/*
+ * Renders Markdown that arrives in chunks, one run of complete blocks at a time. Text is only cut after a blank line
+ * and before a line that starts a new top-level block, so indented code and list items stay with what they belong
+ * to. Reference-style links still only resolve within the run they are defined in.
+ */
+final class MarkdownBlocks {
+
+  private final int maxPendingChars;
+  private final StringBuilder pending = new StringBuilder();
+
+  MarkdownBlocks(int maxPendingChars) {
+    this.maxPendingChars = maxPendingChars;
+  }
+
+  /*
+   * HTML of the blocks completed by this chunk, possibly empty.
+   */
+  String append(String chunk) {
+    pending.append(chunk);
+    int cut = lastBlockStart();
+    if (cut < 0 && pending.length() >= maxPendingChars) {
+      cut = pending.lastIndexOf("\n") + 1;
+      if (cut == 0) {
+        cut = pending.length();
+      }
+    }
+    return cut > 0 ? render(cut) : "";
+  }
+
+  /*
+   * HTML of whatever is left.
+   */
+  String finish() {
+    return render(pending.length());
+  }
+
+  private String render(int end) {
+    if (end == 0) {
+      return "";
+    }
+    String blocks = pending.substring(0, end);
+    pending.delete(0, end);
+    return Processor.process(blocks);
+  }
+
+  /*
+   * Start of the last complete line that follows a blank line and starts a block, or -1.
+   */
+  private int lastBlockStart() {
+    int lineEnd = pending.lastIndexOf("\n");
+    while (lineEnd > 0) {
+      int lineStart = pending.lastIndexOf("\n", lineEnd - 1) + 1;
+      if (lineStart > 0 && startsBlock(lineStart, lineEnd)) {
+        int previousStart = pending.lastIndexOf("\n", lineStart - 2) + 1;
+        if (isBlank(previousStart, lineStart - 1)) {
+          return lineStart;
+        }
+      }
+      lineEnd = lineStart - 1;
+    }
+    return -1;
+  }
+
+  private boolean startsBlock(int start, int end) {
+    if (start == end || Character.isWhitespace(pending.charAt(start))) {
+      return false;
+    }
+    char first = pending.charAt(start);
+    if ((first == '-' || first == '*' || first == '+') && start + 1 < end && pending.charAt(start + 1) == ' ') {
+      return false;
+    }
+    int i = start;
+    while (i < end && Character.isDigit(pending.charAt(i))) {
+      i++;
+    }
+    return !(i > start && i + 1 < end && pending.charAt(i) == '.' && pending.charAt(i + 1) == ' ');
+  }
+
+  private boolean isBlank(int start, int end) {
+    for (int i = start; i < end; i++) {
+      if (!Character.isWhitespace(pending.charAt(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
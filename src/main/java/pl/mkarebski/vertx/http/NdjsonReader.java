@@ -0,0 +1,77 @@
+package pl.mkarebski.vertx.http;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Splits a body of newline-delimited JSON objects into objects as it arrives, keeping the unfinished last line until
+ * the rest of it comes in. Lines are split on the newline byte, which never occurs inside a multi-byte UTF-8
+ * character. Blank lines are skipped.
+ */
+final class NdjsonReader {
+
+  private final int maxLineBytes;
+
+  private Buffer pending = Buffer.buffer();
+  private int scanned;
+  private int lines;
+
+  NdjsonReader(int maxLineBytes) {
+    this.maxLineBytes = maxLineBytes;
+  }
+
+  /*
+   * The objects of the lines completed by this data. Throws an IllegalArgumentException when a line is not a JSON
+   * object, or grows longer than the limit.
+   */
+  List<JsonObject> append(Buffer data) {
+    pending.appendBuffer(data);
+    List<JsonObject> objects = new ArrayList<>();
+    int start = 0;
+    for (int i = scanned; i < pending.length(); i++) {
+      if (pending.getByte(i) == '\n') {
+        parse(start, i, objects);
+        start = i + 1;
+      }
+    }
+    if (pending.length() - start > maxLineBytes) {
+      throw new IllegalArgumentException("Line " + (lines + 1) + " is longer than " + maxLineBytes + " bytes");
+    }
+    if (start > 0) {
+      pending = pending.getBuffer(start, pending.length());
+    }
+    scanned = pending.length();
+    return objects;
+  }
+
+  /*
+   * The object of the last line, when the body does not end with a newline.
+   */
+  List<JsonObject> finish() {
+    List<JsonObject> objects = new ArrayList<>();
+    parse(0, pending.length(), objects);
+    pending = Buffer.buffer();
+    scanned = 0;
+    return objects;
+  }
+
+  private void parse(int start, int end, List<JsonObject> objects) {
+    lines++;
+    if (end - start > maxLineBytes) {
+      throw new IllegalArgumentException("Line " + lines + " is longer than " + maxLineBytes + " bytes");
+    }
+    String line = pending.getString(start, end, "UTF-8").trim();
+    if (line.isEmpty()) {
+      return;
+    }
+    try {
+      objects.add(new JsonObject(line));
+    } catch (DecodeException e) {
+      throw new IllegalArgumentException("Line " + lines + " is not a JSON object");
+    }
+  }
+}
@@ -0,0 +1,123 @@
+package pl.mkarebski.vertx.http;
+
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.Shareable;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * LRU cache of rendered pages bounded by the total size of the cached HTML and of its gzip copy.
+ * One instance is shared by all HTTP verticle instances through a local map, hence the locking.
+ */
+class PageCache implements Shareable {
+
+  private static final int ENTRY_OVERHEAD_BYTES = 64;
+
+  private final long maxBytes;
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+  private final HashMap<Integer, String> namesById = new HashMap<>();
+
+  private long usedBytes;
+  private long invalidations;
+  private long hits;
+  private long misses;
+  private long evictions;
+
+  PageCache(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  synchronized Entry get(String name) {
+    Entry entry = entries.get(name);
+    if (entry == null) {
+      misses++;
+    } else {
+      hits++;
+    }
+    return entry;
+  }
+
+  /*
+   * Renders started before an invalidation must not be cached, so callers take a stamp before fetching the page.
+   */
+  synchronized long stamp() {
+    return invalidations;
+  }
+
+  synchronized void put(String name, Entry entry, long stamp) {
+    if (stamp != invalidations || entry.weight() > maxBytes) {
+      return;
+    }
+    remove(name);
+    entries.put(name, entry);
+    namesById.put(entry.id, name);
+    usedBytes += entry.weight();
+
+    Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+    while (usedBytes > maxBytes && eldest.hasNext()) {
+      Map.Entry<String, Entry> evicted = eldest.next();
+      eldest.remove();
+      namesById.remove(evicted.getValue().id);
+      usedBytes -= evicted.getValue().weight();
+      evictions++;
+    }
+  }
+
+  synchronized void invalidate(String name) {
+    invalidations++;
+    remove(name);
+  }
+
+  synchronized void invalidate(int id) {
+    invalidations++;
+    String name = namesById.get(id);
+    if (name != null) {
+      remove(name);
+    }
+  }
+
+  synchronized JsonObject stats() {
+    return new JsonObject()
+      .put("entries", entries.size())
+      .put("usedBytes", usedBytes)
+      .put("maxBytes", maxBytes)
+      .put("hits", hits)
+      .put("misses", misses)
+      .put("evictions", evictions);
+  }
+
+  private void remove(String name) {
+    Entry removed = entries.remove(name);
+    if (removed != null) {
+      namesById.remove(removed.id);
+      usedBytes -= removed.weight();
+    }
+  }
+
+  static final class Entry {
+
+    final int id;
+    final String etag;
+    final String lastModified;
+    final byte[] html;
+    final byte[] gzip;
+
+    /*
+     * gzip is null when compression is off.
+     */
+    Entry(int id, String etag, String lastModified, byte[] html, byte[] gzip) {
+      this.id = id;
+      this.etag = etag;
+      this.lastModified = lastModified;
+      this.html = html;
+      this.gzip = gzip;
+    }
+
+    long weight() {
+      return html.length + (gzip != null ? gzip.length : 0) + ENTRY_OVERHEAD_BYTES;
+    }
+  }
+}
@@ -0,0 +1,46 @@
+package pl.mkarebski.vertx.http;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import pl.mkarebski.vertx.metrics.Counter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.Consumer;
+
+/*
+ * Concurrent calls for the same key share one execution: callers that arrive while a call is in flight wait for its
+ * result instead of starting their own. Not thread-safe: each HTTP verticle instance has its own, used from its
+ * event loop.
+ */
+final class SingleFlight<K, V> {
+
+  private final HashMap<K, List<Handler<AsyncResult<V>>>> inFlight = new HashMap<>();
+  private final Counter coalesced;
+
+  SingleFlight(Counter coalesced) {
+    this.coalesced = coalesced;
+  }
+
+  void run(K key, Consumer<Handler<AsyncResult<V>>> call, Handler<AsyncResult<V>> resultHandler) {
+    List<Handler<AsyncResult<V>>> waiting = inFlight.get(key);
+    if (waiting != null) {
+      coalesced.increment();
+      waiting.add(resultHandler);
+      return;
+    }
+    waiting = new ArrayList<>();
+    waiting.add(resultHandler);
+    inFlight.put(key, waiting);
+    call.accept(result -> {
+      for (Handler<AsyncResult<V>> handler : inFlight.remove(key)) {
+        handler.handle(result);
+      }
+    });
+  }
+
+  int size() {
+    return inFlight.size();
+  }
+}
@@ -0,0 +1,111 @@
+package pl.mkarebski.vertx.http;
+
+import freemarker.cache.ClassTemplateLoader;
+import freemarker.template.Configuration;
+import freemarker.template.DefaultObjectWrapper;
+import freemarker.template.Template;
+import freemarker.template.TemplateException;
+import freemarker.template.TemplateModel;
+import freemarker.template.TemplateModelException;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.Shareable;
+import io.vertx.ext.web.RoutingContext;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * The FreeMarker templates of the wiki, all read and compiled when the HTTP verticles start instead of by the first
+ * request that needs each one, and never reloaded. Templates see the data of the routing context as "context", as
+ * they do with the Vert.x FreeMarker engine. A compiled template can be rendered by many threads at once, so one
+ * instance is shared by all HTTP verticle instances through a local map.
+ */
+final class Templates implements Shareable {
+
+  static final List<String> NAMES = Arrays.asList(
+    "templates/header.ftl",
+    "templates/footer.ftl",
+    "templates/index.ftl",
+    "templates/page.ftl",
+    "templates/page-top.ftl",
+    "templates/page-middle.ftl",
+    "templates/page-bottom.ftl",
+    "templates/search.ftl");
+
+  private final Map<String, Template> compiled;
+
+  private Templates(Map<String, Template> compiled) {
+    this.compiled = compiled;
+  }
+
+  /*
+   * Blocking: reads the templates from the class path. Included templates are compiled too, and stay in the
+   * configuration's cache for the templates that include them.
+   */
+  static Templates compile(List<String> names) {
+    Configuration configuration = new Configuration(Configuration.VERSION_2_3_23);
+    configuration.setTemplateLoader(new ClassTemplateLoader(Templates.class, "/"));
+    configuration.setDefaultEncoding("UTF-8");
+    configuration.setTemplateUpdateDelayMilliseconds(Long.MAX_VALUE);
+    configuration.setObjectWrapper(new JsonObjectWrapper());
+    Map<String, Template> compiled = new HashMap<>();
+    try {
+      for (String name : names) {
+        compiled.put(name, configuration.getTemplate(name));
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return new Templates(compiled);
+  }
+
+  void render(RoutingContext context, String name, Handler<AsyncResult<Buffer>> handler) {
+    try {
+      handler.handle(Future.succeededFuture(render(name, context.data())));
+    } catch (IOException | TemplateException | RuntimeException e) {
+      handler.handle(Future.failedFuture(e));
+    }
+  }
+
+  Buffer render(String name, Map<String, Object> data) throws IOException, TemplateException {
+    Template template = compiled.get(name);
+    if (template == null) {
+      throw new IllegalArgumentException("Template " + name + " was not compiled at startup");
+    }
+    StringWriter out = new StringWriter();
+    template.process(Collections.singletonMap("context", data), out);
+    return Buffer.buffer(out.toString());
+  }
+
+  /*
+   * JSON values put in the context are seen as the maps and lists they hold.
+   */
+  private static final class JsonObjectWrapper extends DefaultObjectWrapper {
+
+    JsonObjectWrapper() {
+      super(Configuration.VERSION_2_3_23);
+    }
+
+    @Override
+    public TemplateModel wrap(Object object) throws TemplateModelException {
+      if (object instanceof JsonObject) {
+        return super.wrap(((JsonObject) object).getMap());
+      }
+      if (object instanceof JsonArray) {
+        return super.wrap(((JsonArray) object).getList());
+      }
+      return super.wrap(object);
+    }
+  }
+}
@@ -1,26 +1,97 @@
 package pl.mkarebski.vertx.http;
 
 import com.github.rjeschke.txtmark.Processor;
+import freemarker.template.TemplateException;
 import io.vertx.core.AbstractVerticle;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.eventbus.ReplyFailure;
 import io.vertx.core.http.HttpServer;
+import io.vertx.core.http.HttpServerOptions;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.Json;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
 import io.vertx.ext.web.Router;
 import io.vertx.ext.web.RoutingContext;
 import io.vertx.ext.web.handler.BodyHandler;
-import io.vertx.ext.web.templ.FreeMarkerTemplateEngine;
+import pl.mkarebski.vertx.database.ErrorCodes;
+import pl.mkarebski.vertx.database.Page;
+import pl.mkarebski.vertx.database.PageClient;
 import pl.mkarebski.vertx.database.WikiDatabaseService;
+import pl.mkarebski.vertx.database.WikiDatabaseVerticle;
+import pl.mkarebski.vertx.metrics.Counter;
+import pl.mkarebski.vertx.metrics.Gauge;
+import pl.mkarebski.vertx.metrics.Metrics;
+import pl.mkarebski.vertx.metrics.RequestTrace;
+import pl.mkarebski.vertx.metrics.StartupPhases;
+import pl.mkarebski.vertx.metrics.Timer;
 
-import java.util.Date;
+import java.io.IOException;
+import java.time.OffsetDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 public class WikiHttpServerVerticle extends AbstractVerticle {
 
   public static final String CONFIG_WIKIDB_QUEUE = "wikidb.queue";
+  public static final String CONFIG_WIKIDB_PAGE_QUEUE = "wikidb.page.queue";
+  public static final String CONFIG_WIKIDB_PAGE_EVENTS = "wikidb.page.events";
   public static final String CONFIG_HTTP_SERVER_PORT = "http.server.port";
+  public static final String CONFIG_HTTP_SERVER_IDLE_TIMEOUT_S = "http.server.idle_timeout_s";
+  public static final String CONFIG_HTTP_SERVER_TCP_KEEP_ALIVE = "http.server.tcp_keep_alive";
+  public static final String CONFIG_HTTP_SERVER_TCP_NO_DELAY = "http.server.tcp_no_delay";
+  public static final String CONFIG_HTTP_SERVER_RECEIVE_BUFFER_SIZE = "http.server.receive_buffer_size";
+  public static final String CONFIG_HTTP_SERVER_SEND_BUFFER_SIZE = "http.server.send_buffer_size";
+  public static final String CONFIG_HTTP_SERVER_ACCEPT_BACKLOG = "http.server.accept_backlog";
+  public static final String CONFIG_HTTP_SERVER_H2_MAX_CONCURRENT_STREAMS = "http.server.h2.max_concurrent_streams";
+  public static final String CONFIG_HTTP_SERVER_H2_CONNECTION_WINDOW_SIZE = "http.server.h2.connection_window_size";
+  public static final String CONFIG_HTTP_MAX_IN_FLIGHT = "http.max_in_flight";
+  public static final String CONFIG_HTTP_DB_TIMEOUT_MS = "http.db_timeout_ms";
+  public static final String CONFIG_HTTP_CIRCUIT_BREAKER_ENABLED = "http.circuit_breaker.enabled";
+  public static final String CONFIG_HTTP_CIRCUIT_BREAKER_FAILURE_RATIO = "http.circuit_breaker.failure_ratio";
+  public static final String CONFIG_HTTP_CIRCUIT_BREAKER_MIN_REQUESTS = "http.circuit_breaker.min_requests";
+  public static final String CONFIG_HTTP_CIRCUIT_BREAKER_WINDOW_MS = "http.circuit_breaker.window_ms";
+  public static final String CONFIG_HTTP_CIRCUIT_BREAKER_OPEN_MS = "http.circuit_breaker.open_ms";
+  public static final String CONFIG_HTTP_COMPRESSION_ENABLED = "http.compression.enabled";
+  public static final String CONFIG_HTTP_COMPRESSION_LEVEL = "http.compression.level";
+  public static final String CONFIG_HTTP_PAGE_CACHE_MAX_BYTES = "http.page_cache.max_bytes";
+  public static final String CONFIG_HTTP_INDEX_PAGE_SIZE = "http.index.page_size";
+  public static final String CONFIG_HTTP_PAGE_STREAM_CHUNK_CHARS = "http.page_stream.chunk_chars";
+  public static final String CONFIG_HTTP_EXPORT_BATCH_SIZE = "http.export.batch_size";
+  public static final String CONFIG_HTTP_IMPORT_BATCH_SIZE = "http.import.batch_size";
+  public static final String CONFIG_HTTP_IMPORT_BATCH_CHARS = "http.import.batch_chars";
+  public static final String CONFIG_HTTP_IMPORT_MAX_LINE_BYTES = "http.import.max_line_bytes";
+  public static final String CONFIG_HTTP_STARTUP_WAIT_FOR_DATABASE = "http.startup.wait_for_database";
+  public static final String CONFIG_HTTP_STARTUP_WARMUP_ITERATIONS = "http.startup.warmup_iterations";
+  public static final String CONFIG_HTTP_TRACE_ENABLED = "http.trace.enabled";
+  public static final String CONFIG_HTTP_TRACE_SLOW_MS = "http.trace.slow_ms";
+  public static final String CONFIG_HTTP_TRACE_SLOW_SAMPLE_RATE = "http.trace.slow_sample_rate";
+
+  private static final int SEARCH_DEFAULT_LIMIT = 20;
+  private static final int SEARCH_MAX_LIMIT = 100;
+
+  private static final String SHARED_PAGE_CACHE = "wiki.http.page_cache";
+  private static final String SHARED_TEMPLATES = "wiki.http.templates";
+  private static final String WARMUP_LOCK = "wiki.http.warmup";
+
+  private static final String TRACE = "requestTrace";
 
   private static final Logger log = LoggerFactory.getLogger(WikiHttpServerVerticle.class);
 
@@ -29,41 +100,254 @@ public class WikiHttpServerVerticle extends AbstractVerticle {
       "\n" +
       "Feel-free to write in Markdown!\n";
 
-  private final FreeMarkerTemplateEngine templateEngine = FreeMarkerTemplateEngine.create();
+  private static final String EMPTY_PAGE_HTML = Processor.process(EMPTY_PAGE_MARKDOWN);
+
+  private static final String WARMUP_MARKDOWN =
+    "# Warm-up\n" +
+      "\n" +
+      "Some *emphasis*, some **strong** text, `code` and a [link](/wiki/Home).\n" +
+      "\n" +
+      "## Lists\n" +
+      "\n" +
+      "* one\n" +
+      "* two\n" +
+      "\n" +
+      "1. first\n" +
+      "2. second\n" +
+      "\n" +
+      "> A quote\n" +
+      "\n" +
+      "    indented code\n";
+
+  private Templates templates;
 
   private String wikiDbQueue = "wikidb.queue";
 
   private WikiDatabaseService dbService;
 
+  private PageClient pageClient;
+
+  private PageCache pageCache;
+
+  private boolean compression;
+
+  private int indexPageSize;
+
+  private int pageStreamChunkChars;
+
+  private int exportBatchSize;
+
+  private int importBatchSize;
+
+  private int importBatchChars;
+
+  private int importMaxLineBytes;
+
+  private Metrics metrics;
+
+  private Counter pagesStreamed;
+
+  private Counter precompressedResponses;
+
+  private SingleFlight<String, FetchedPage> pageFetches;
+
+  private SingleFlight<String, byte[]> pageRenders;
+
+  private Gauge requestsInFlight;
+
+  private int maxInFlight;
+
+  private int inFlight;
+
+  private CircuitBreaker circuitBreaker;
+
+  private Counter requestsShed;
+
+  private boolean databaseReady = true;
+
+  private boolean tracing;
+
+  private long slowRequestNanos;
+
+  private double slowRequestSampleRate;
+
+  private Counter slowRequests;
+
   @Override
   public void start(Future<Void> startFuture) throws Exception {
 
     wikiDbQueue = config().getString(CONFIG_WIKIDB_QUEUE, "wikidb.queue");
 
-    dbService = WikiDatabaseService.createProxy(vertx, wikiDbQueue);
+    DeliveryOptions deadline = new DeliveryOptions().setSendTimeout(config().getLong(CONFIG_HTTP_DB_TIMEOUT_MS, 10_000L));
+    dbService = WikiDatabaseService.createMeteredProxy(vertx, wikiDbQueue, deadline);
+    pageClient = PageClient.create(vertx, config().getString(CONFIG_WIKIDB_PAGE_QUEUE, "wikidb.page.queue"), deadline);
+
+    metrics = Metrics.shared(vertx);
+    requestsInFlight = metrics.gauge("wiki_http_requests_in_flight", "HTTP requests being handled");
+    requestsShed = metrics.counter("wiki_http_requests_shed_total", "HTTP requests turned away with a 503 before being handled");
+    maxInFlight = config().getInteger(CONFIG_HTTP_MAX_IN_FLIGHT, 1024);
+    if (config().getBoolean(CONFIG_HTTP_CIRCUIT_BREAKER_ENABLED, true)) {
+      circuitBreaker = new CircuitBreaker(
+        config().getDouble(CONFIG_HTTP_CIRCUIT_BREAKER_FAILURE_RATIO, 0.5),
+        config().getInteger(CONFIG_HTTP_CIRCUIT_BREAKER_MIN_REQUESTS, 20),
+        config().getLong(CONFIG_HTTP_CIRCUIT_BREAKER_WINDOW_MS, 10_000L),
+        config().getLong(CONFIG_HTTP_CIRCUIT_BREAKER_OPEN_MS, 5_000L),
+        metrics.counter("wiki_http_circuit_breaker_trips_total", "Times the circuit breaker opened"));
+    }
+    pagesStreamed = metrics.counter("wiki_http_pages_streamed_total", "Pages too large to cache, written as they are read");
+    precompressedResponses = metrics.counter("wiki_http_precompressed_responses_total", "Cached pages sent as stored gzip bytes");
+    pageFetches = new SingleFlight<>(metrics.counter("wiki_http_page_fetches_coalesced_total",
+      "Page requests served by a fetch already in flight for the same page"));
+    pageRenders = new SingleFlight<>(metrics.counter("wiki_http_page_renders_coalesced_total",
+      "Page requests served by a render already in flight for the same page"));
+    metrics.probeEventLoop(vertx);
+
+    tracing = config().getBoolean(CONFIG_HTTP_TRACE_ENABLED, false);
+    slowRequestNanos = TimeUnit.MILLISECONDS.toNanos(config().getLong(CONFIG_HTTP_TRACE_SLOW_MS, 500L));
+    slowRequestSampleRate = config().getDouble(CONFIG_HTTP_TRACE_SLOW_SAMPLE_RATE, 1.0);
+    slowRequests = metrics.counter("wiki_http_slow_requests_total", "Traced requests that took longer than the slow request threshold");
+
+    long pageCacheMaxBytes = config().getLong(CONFIG_HTTP_PAGE_CACHE_MAX_BYTES, 32L * 1024 * 1024);
+    pageCache = vertx.sharedData().<String, PageCache>getLocalMap(SHARED_PAGE_CACHE)
+      .computeIfAbsent("pages", key -> new PageCache(pageCacheMaxBytes));
+    vertx.eventBus().<JsonObject>consumer(
+      config().getString(CONFIG_WIKIDB_PAGE_EVENTS, "wikidb.page.events"),
+      this::pageEventHandler);
 
-    HttpServer server = vertx.createHttpServer();
+    indexPageSize = config().getInteger(CONFIG_HTTP_INDEX_PAGE_SIZE, 100);
+    pageStreamChunkChars = config().getInteger(CONFIG_HTTP_PAGE_STREAM_CHUNK_CHARS, 64 * 1024);
+    exportBatchSize = config().getInteger(CONFIG_HTTP_EXPORT_BATCH_SIZE, 100);
+    importBatchSize = config().getInteger(CONFIG_HTTP_IMPORT_BATCH_SIZE, 100);
+    importBatchChars = config().getInteger(CONFIG_HTTP_IMPORT_BATCH_CHARS, 4 * 1024 * 1024);
+    importMaxLineBytes = config().getInteger(CONFIG_HTTP_IMPORT_MAX_LINE_BYTES, 16 * 1024 * 1024);
+
+    compression = config().getBoolean(CONFIG_HTTP_COMPRESSION_ENABLED, true);
+    HttpServer server = vertx.createHttpServer(serverOptions());
 
     Router router = Router.router(vertx);
-    router.get("/").handler(this::indexHandler);
-    router.get("/wiki/:page").handler(this::pageRenderingHandler);
+    router.get("/").handler(metered("/", this::indexHandler));
+    router.get("/pages").handler(metered("/pages", this::pageListHandler));
+    router.get("/wiki/:page").handler(metered("/wiki/:page", this::pageRenderingHandler));
+    router.get("/wiki/:page/revisions").handler(metered("/wiki/:page/revisions", this::revisionListHandler));
+    router.get("/wiki/:page/revisions/:revision").handler(metered("/wiki/:page/revisions/:revision", this::revisionHandler));
+    router.get("/wiki/:page/diff").handler(metered("/wiki/:page/diff", this::revisionDiffHandler));
+    router.get("/search").handler(metered("/search", this::searchHandler));
+    router.get("/export").handler(metered("/export", this::exportHandler));
+    router.post("/import").handler(metered("/import", this::importHandler));
     router.post().handler(BodyHandler.create());
-    router.post("/save").handler(this::pageUpdateHandler);
-    router.post("/create").handler(this::pageCreateHandler);
-    router.post("/delete").handler(this::pageDeletionHandler);
-
-    int portNumber = config().getInteger(CONFIG_HTTP_SERVER_PORT, 8080);
-    server
-      .requestHandler(router::accept)
-      .listen(portNumber, asyncResult -> {
-        if (asyncResult.succeeded()) {
-          log.info("HTTP server running on port " + portNumber);
-          startFuture.complete();
-        } else {
-          log.error("Could not start a HTTP server", asyncResult.cause());
-          startFuture.fail(asyncResult.cause());
+    router.post("/save").handler(metered("/save", this::pageUpdateHandler));
+    router.post("/create").handler(metered("/create", this::pageCreateHandler));
+    router.post("/delete").handler(metered("/delete", this::pageDeletionHandler));
+    router.post("/batch").handler(metered("/batch", this::batchHandler));
+    router.get("/cache/stats").handler(this::pageCacheStatsHandler);
+    router.get("/metrics").handler(this::metricsHandler);
+    router.route().failureHandler(this::failureHandler);
+
+    if (config().getBoolean(CONFIG_HTTP_STARTUP_WAIT_FOR_DATABASE, false)) {
+      databaseReady = false;
+      WikiDatabaseVerticle.whenReady(vertx, ready -> databaseReady = true);
+    }
+
+    StartupPhases phases = StartupPhases.shared(vertx);
+    int warmupIterations = config().getInteger(CONFIG_HTTP_STARTUP_WARMUP_ITERATIONS, 0);
+    vertx.<Templates>executeBlocking(future -> {
+      long started = System.nanoTime();
+      Templates compiled = vertx.sharedData().<String, Templates>getLocalMap(SHARED_TEMPLATES)
+        .computeIfAbsent("templates", key -> Templates.compile(Templates.NAMES));
+      phases.record("http.templates", started);
+      if (warmupIterations > 0 && vertx.sharedData().getLocalMap(WARMUP_LOCK).putIfAbsent("warmup", true) == null) {
+        long warmupStarted = System.nanoTime();
+        try {
+          warmUp(compiled, warmupIterations);
+        } catch (IOException | TemplateException e) {
+          future.fail(e);
+          return;
         }
-      });
+        log.info("Warmed up the render path in " + phases.record("http.warmup", warmupStarted) + " ms");
+      }
+      future.complete(compiled);
+    }, false, compiled -> {
+      if (compiled.failed()) {
+        log.error("Could not compile the templates", compiled.cause());
+        startFuture.fail(compiled.cause());
+        return;
+      }
+      templates = compiled.result();
+
+      int portNumber = config().getInteger(CONFIG_HTTP_SERVER_PORT, 8080);
+      long listenStarted = System.nanoTime();
+      server
+        .requestHandler(router::accept)
+        .listen(portNumber, asyncResult -> {
+          if (asyncResult.succeeded()) {
+            phases.record("http.listen", listenStarted);
+            log.info("HTTP server running on port " + portNumber);
+            startFuture.complete();
+          } else {
+            log.error("Could not start a HTTP server", asyncResult.cause());
+            startFuture.fail(asyncResult.cause());
+          }
+        });
+    });
+  }
+
+  /*
+   * Renders a sample page and index the way requests do, Markdown and compression included, so that this code is
+   * JIT-compiled before the first requests come in rather than while they wait. Done once per node.
+   */
+  private void warmUp(Templates compiled, int iterations) throws IOException, TemplateException {
+    Map<String, Object> page = new HashMap<>();
+    page.put("title", "Warm-up");
+    page.put("id", 0);
+    page.put("newPage", "no");
+    page.put("rawContent", WARMUP_MARKDOWN);
+    page.put("timestamp", "never");
+
+    List<String> names = new ArrayList<>();
+    for (int i = 0; i < indexPageSize; i++) {
+      names.add(String.format("Page-%06d", i));
+    }
+    Map<String, Object> index = new HashMap<>();
+    index.put("title", "Wiki home");
+    index.put("pages", names);
+
+    for (int i = 0; i < iterations; i++) {
+      page.put("content", Processor.process(WARMUP_MARKDOWN));
+      byte[] html = compiled.render("templates/page.ftl", page).getBytes();
+      compiled.render("templates/index.ftl", index);
+      if (compression) {
+        ContentEncoding.gzip(html);
+      }
+    }
+  }
+
+  /*
+   * Keys left out of the configuration keep the Vert.x and OS defaults. HTTP/2 over clear text (h2c, by upgrade or
+   * prior knowledge) is always accepted next to HTTP/1.1.
+   */
+  private HttpServerOptions serverOptions() {
+    HttpServerOptions options = new HttpServerOptions()
+      .setCompressionSupported(compression)
+      .setCompressionLevel(config().getInteger(CONFIG_HTTP_COMPRESSION_LEVEL, 6))
+      .setIdleTimeout(config().getInteger(CONFIG_HTTP_SERVER_IDLE_TIMEOUT_S, 0))
+      .setTcpKeepAlive(config().getBoolean(CONFIG_HTTP_SERVER_TCP_KEEP_ALIVE, false))
+      .setTcpNoDelay(config().getBoolean(CONFIG_HTTP_SERVER_TCP_NO_DELAY, true));
+    if (config().containsKey(CONFIG_HTTP_SERVER_RECEIVE_BUFFER_SIZE)) {
+      options.setReceiveBufferSize(config().getInteger(CONFIG_HTTP_SERVER_RECEIVE_BUFFER_SIZE));
+    }
+    if (config().containsKey(CONFIG_HTTP_SERVER_SEND_BUFFER_SIZE)) {
+      options.setSendBufferSize(config().getInteger(CONFIG_HTTP_SERVER_SEND_BUFFER_SIZE));
+    }
+    if (config().containsKey(CONFIG_HTTP_SERVER_ACCEPT_BACKLOG)) {
+      options.setAcceptBacklog(config().getInteger(CONFIG_HTTP_SERVER_ACCEPT_BACKLOG));
+    }
+    if (config().containsKey(CONFIG_HTTP_SERVER_H2_MAX_CONCURRENT_STREAMS)) {
+      options.getInitialSettings().setMaxConcurrentStreams(config().getLong(CONFIG_HTTP_SERVER_H2_MAX_CONCURRENT_STREAMS));
+    }
+    if (config().containsKey(CONFIG_HTTP_SERVER_H2_CONNECTION_WINDOW_SIZE)) {
+      options.setHttp2ConnectionWindowSize(config().getInteger(CONFIG_HTTP_SERVER_H2_CONNECTION_WINDOW_SIZE));
+    }
+    return options;
   }
 
   @Override
@@ -72,12 +356,34 @@ public class WikiHttpServerVerticle extends AbstractVerticle {
   }
 
   private void indexHandler(RoutingContext context) {
-    dbService.fetchAllPages(reply -> {
+    String after = context.request().getParam("after");
+    RequestTrace trace = trace(context);
+    long fetching = System.nanoTime();
+    dbService.fetchPagesPage(after, indexPageSize + 1, reply -> {
+      trace.stage("db.call", fetching);
       if (reply.succeeded()) {
+        List<?> pages = reply.result().getList();
+        String etag = responseEtag(ConditionalGet.listEtag(pages));
+        if (ConditionalGet.isNotModified(context.request(), etag, null)) {
+          varyOnEncoding(context.response());
+          ConditionalGet.notModified(context.response(), etag, null);
+          return;
+        }
         context.put("title", "Wiki home");
-        context.put("pages", reply.result().getList());
-        templateEngine.render(context, "templates/index.ftl", ar -> {
+        if (pages.size() > indexPageSize) {
+          pages = pages.subList(0, indexPageSize);
+          context.put("nextAfter", pages.get(indexPageSize - 1));
+        }
+        if (after != null) {
+          context.put("paged", true);
+        }
+        context.put("pages", pages);
+        long rendering = System.nanoTime();
+        templates.render(context, "templates/index.ftl", ar -> {
+          trace.stage("template", rendering);
           if (ar.succeeded()) {
+            ConditionalGet.putValidators(context.response(), etag, null);
+            varyOnEncoding(context.response());
             context.response().putHeader("Content-Type", "text/html");
             context.response().end(ar.result());
           } else {
@@ -90,32 +396,390 @@ public class WikiHttpServerVerticle extends AbstractVerticle {
     });
   }
 
+  /*
+   * Plain-text list of every page name, written batch by batch as the database returns them
+   * and paused while the client is not keeping up.
+   */
+  private void pageListHandler(RoutingContext context) {
+    HttpServerResponse response = context.response();
+    response.setChunked(true);
+    response.putHeader("Content-Type", "text/plain; charset=utf-8");
+    writePageList(response, null);
+  }
+
+  private void writePageList(HttpServerResponse response, String after) {
+    dbService.fetchPagesPage(after, indexPageSize, reply -> {
+      if (response.closed()) {
+        return;
+      }
+      if (reply.failed()) {
+        log.error("Could not list pages", reply.cause());
+        response.close();
+        return;
+      }
+      JsonArray pages = reply.result();
+      Buffer chunk = Buffer.buffer();
+      for (int i = 0; i < pages.size(); i++) {
+        chunk.appendString(pages.getString(i)).appendString("\n");
+      }
+      response.write(chunk);
+      if (pages.size() < indexPageSize) {
+        response.end();
+        return;
+      }
+      String last = pages.getString(pages.size() - 1);
+      if (response.writeQueueFull()) {
+        response.drainHandler(v -> {
+          response.drainHandler(null);
+          writePageList(response, last);
+        });
+      } else {
+        writePageList(response, last);
+      }
+    });
+  }
+
   private void pageRenderingHandler(RoutingContext context) {
     String requestedPage = context.request().getParam("page");
-    dbService.fetchPage(requestedPage, reply -> {
-      if (reply.succeeded()) {
 
-        JsonObject payLoad = reply.result();
-        boolean found = payLoad.getBoolean("found");
-        String rawContent = payLoad.getString("rawContent", EMPTY_PAGE_MARKDOWN);
-        context.put("title", requestedPage);
-        context.put("id", payLoad.getInteger("id", -1));
-        context.put("newPage", found ? "no" : "yes");
-        context.put("rawContent", rawContent);
-        context.put("content", Processor.process(rawContent));
-        context.put("timestamp", new Date().toString());
-
-        templateEngine.render(context, "templates/page.ftl", ar -> {
-          if (ar.succeeded()) {
-            context.response().putHeader("Content-Type", "text/html");
-            context.response().end(ar.result());
-          } else {
-            context.fail(ar.cause());
-          }
+    PageCache.Entry cached = pageCache.get(requestedPage);
+    if (cached != null) {
+      HttpServerResponse response = context.response();
+      boolean precompressed = cached.gzip != null && ContentEncoding.acceptsGzip(context.request());
+      String etag = precompressed ? ConditionalGet.gzipEtag(cached.etag) : responseEtag(cached.etag);
+      varyOnEncoding(response);
+      if (ConditionalGet.isNotModified(context.request(), etag, cached.lastModified)) {
+        ConditionalGet.notModified(response, etag, cached.lastModified);
+        return;
+      }
+      ConditionalGet.putValidators(response, etag, cached.lastModified);
+      response.putHeader("Content-Type", "text/html");
+      // a response that already has a Content-Encoding is not compressed again by the server
+      if (precompressed) {
+        precompressedResponses.increment();
+        response.putHeader("Content-Encoding", "gzip");
+        response.end(Buffer.buffer(cached.gzip));
+      } else {
+        response.end(Buffer.buffer(cached.html));
+      }
+      return;
+    }
+
+    // a request made after an invalidation does not join a fetch started before it
+    long cacheStamp = pageCache.stamp();
+    String flight = cacheStamp + ":" + requestedPage;
+    pageFetches.run(flight, done -> fetchPage(context, requestedPage, done), fetched -> {
+      if (fetched.failed()) {
+        context.fail(fetched.cause());
+        return;
+      }
+      FetchedPage page = fetched.result();
+      String etag = responseEtag(page.etag);
+      varyOnEncoding(context.response());
+      if (page.page.isFound()) {
+        // checked before rendering: a client that has the page costs a database read and nothing more
+        if (ConditionalGet.isNotModified(context.request(), etag, page.lastModified)) {
+          ConditionalGet.notModified(context.response(), etag, page.lastModified);
+          return;
+        }
+        if (page.page.isStreamed()) {
+          streamPage(context, page.page, etag, page.lastModified);
+          return;
+        }
+      }
+      pageRenders.run(flight, done -> renderPage(context, requestedPage, page, cacheStamp, done), rendered -> {
+        if (rendered.failed()) {
+          context.fail(rendered.cause());
+          return;
+        }
+        if (page.page.isFound()) {
+          ConditionalGet.putValidators(context.response(), etag, page.lastModified);
+        }
+        context.response().putHeader("Content-Type", "text/html");
+        context.response().end(Buffer.buffer(rendered.result()));
+      });
+    });
+  }
+
+  /*
+   * With compression on, the server may compress a body on the fly, so its ETag is weak, and every response to a
+   * request whose Accept-Encoding could change that (304s included) says so in Vary.
+   */
+  private String responseEtag(String etag) {
+    return compression && etag != null ? ConditionalGet.weakEtag(etag) : etag;
+  }
+
+  private void varyOnEncoding(HttpServerResponse response) {
+    if (compression) {
+      response.putHeader("Vary", "Accept-Encoding");
+    }
+  }
+
+  /*
+   * Fetches a page once for all the concurrent requests of it, with the first request's trace.
+   */
+  private void fetchPage(RoutingContext context, String requestedPage, Handler<AsyncResult<FetchedPage>> done) {
+    pageClient.fetchPage(requestedPage, trace(context), reply -> {
+      if (reply.failed()) {
+        done.handle(Future.failedFuture(reply.cause()));
+        return;
+      }
+      Page page = reply.result();
+      if (!page.isFound()) {
+        done.handle(Future.succeededFuture(new FetchedPage(page, null, null)));
+        return;
+      }
+      String etag = ConditionalGet.pageEtag(page.getId(), page.getRevision());
+      String lastModified = ConditionalGet.httpDate(OffsetDateTime.parse(page.getLastModified()).toInstant());
+      done.handle(Future.succeededFuture(new FetchedPage(page, etag, lastModified)));
+    });
+  }
+
+  /*
+   * Renders a fetched page once for all the concurrent requests of it that still need it, with the first request's
+   * context; the page is cached here too. Streamed pages are not rendered: each request streams its own copy.
+   */
+  private void renderPage(RoutingContext context, String requestedPage, FetchedPage fetched, long cacheStamp, Handler<AsyncResult<byte[]>> done) {
+    RequestTrace trace = trace(context);
+    Page page = fetched.page;
+    boolean found = page.isFound();
+    String rawContent = found ? page.getMarkdown() : EMPTY_PAGE_MARKDOWN;
+    String content = found ? page.getHtml() : EMPTY_PAGE_HTML;
+    if (content == null) {
+      long processing = System.nanoTime();
+      content = Processor.process(rawContent);
+      trace.stage("markdown", processing);
+    }
+    context.put("title", requestedPage);
+    context.put("id", page.getId());
+    context.put("newPage", found ? "no" : "yes");
+    context.put("rawContent", rawContent);
+    context.put("content", content);
+    context.put("timestamp", found ? fetched.lastModified : "never");
+
+    long rendering = System.nanoTime();
+    templates.render(context, "templates/page.ftl", ar -> {
+      trace.stage("template", rendering);
+      if (ar.succeeded()) {
+        byte[] html = ar.result().getBytes();
+        if (found) {
+          cachePage(requestedPage, page.getId(), fetched.etag, fetched.lastModified, html, cacheStamp);
+        }
+        done.handle(Future.succeededFuture(html));
+      } else {
+        done.handle(Future.failedFuture(ar.cause()));
+      }
+    });
+  }
+
+  /*
+   * With compression on, the page is gzipped once, off the event loop, and cached with both bodies.
+   */
+  private void cachePage(String name, int id, String etag, String lastModified, byte[] html, long cacheStamp) {
+    if (!compression) {
+      pageCache.put(name, new PageCache.Entry(id, etag, lastModified, html, null), cacheStamp);
+      return;
+    }
+    vertx.<byte[]>executeBlocking(future -> future.complete(ContentEncoding.gzip(html)), false, ar -> {
+      if (ar.succeeded()) {
+        pageCache.put(name, new PageCache.Entry(id, etag, lastModified, html, ar.result()), cacheStamp);
+      } else {
+        log.error("Could not compress page " + name, ar.cause());
+      }
+    });
+  }
+
+  /*
+   * A page too large to be read in one message is written as it is read, and not cached: the top of the page, its
+   * HTML (or its Markdown rendered block by block when there is no pre-rendered HTML yet), the editor with the
+   * Markdown, then the bottom of the page. Chunks are not read while the client is not keeping up.
+   */
+  private void streamPage(RoutingContext context, Page page, String etag, String lastModified) {
+    pagesStreamed.increment();
+    context.put("title", page.getName());
+    context.put("id", page.getId());
+    context.put("newPage", "no");
+    context.put("timestamp", lastModified);
+
+    HttpServerResponse response = context.response();
+    boolean html = page.getHtmlLength() >= 0;
+    MarkdownBlocks blocks = new MarkdownBlocks(4 * pageStreamChunkChars);
+    renderFragment(context, "templates/page-top.ftl")
+      .compose(top -> {
+        response.setChunked(true);
+        ConditionalGet.putValidators(response, etag, lastModified);
+        response.putHeader("Content-Type", "text/html");
+        response.write(top);
+        return writePageChunks(response, page, html, html ? chunk -> chunk : blocks::append);
+      })
+      .compose(content -> {
+        if (!html) {
+          response.write(blocks.finish());
+        }
+        return renderFragment(context, "templates/page-middle.ftl");
+      })
+      .compose(middle -> {
+        response.write(middle);
+        return writePageChunks(response, page, false, chunk -> chunk);
+      })
+      .compose(editor -> renderFragment(context, "templates/page-bottom.ftl"))
+      .setHandler(ar -> {
+        if (response.closed()) {
+          return;
+        }
+        if (ar.succeeded()) {
+          response.end(ar.result());
+        } else if (!response.headWritten()) {
+          context.fail(ar.cause());
+        } else {
+          log.error("Could not stream page " + page.getName(), ar.cause());
+          response.close();
+        }
+      });
+  }
+
+  private Future<Void> writePageChunks(HttpServerResponse response, Page page, boolean html, Function<String, String> render) {
+    Future<Void> written = Future.future();
+    writePageChunks(response, page, html, 0, render, written);
+    return written;
+  }
+
+  private void writePageChunks(HttpServerResponse response, Page page, boolean html, int offset, Function<String, String> render, Future<Void> written) {
+    if (offset >= (html ? page.getHtmlLength() : page.getLength())) {
+      written.complete();
+      return;
+    }
+    dbService.fetchPageChunk(page.getId(), page.getRevision(), html, offset, pageStreamChunkChars, reply -> {
+      if (response.closed()) {
+        return;
+      }
+      if (reply.failed()) {
+        written.fail(reply.cause());
+        return;
+      }
+      String chunk = reply.result();
+      if (chunk.isEmpty()) {
+        written.complete();
+        return;
+      }
+      // a character outside the BMP split across two chunks is sent whole with the next one
+      if (chunk.length() > 1 && Character.isHighSurrogate(chunk.charAt(chunk.length() - 1))) {
+        chunk = chunk.substring(0, chunk.length() - 1);
+      }
+      String rendered = render.apply(chunk);
+      if (!rendered.isEmpty()) {
+        response.write(rendered);
+      }
+      int next = offset + chunk.length();
+      if (response.writeQueueFull()) {
+        response.drainHandler(v -> {
+          response.drainHandler(null);
+          writePageChunks(response, page, html, next, render, written);
         });
+      } else {
+        writePageChunks(response, page, html, next, render, written);
+      }
+    });
+  }
+
+  private Future<Buffer> renderFragment(RoutingContext context, String templateFileName) {
+    Future<Buffer> rendered = Future.future();
+    templates.render(context, templateFileName, rendered.completer());
+    return rendered;
+  }
+
+  private void searchHandler(RoutingContext context) {
+    String query = context.request().getParam("q");
+    int limit = SEARCH_DEFAULT_LIMIT;
+    try {
+      if (context.request().getParam("limit") != null) {
+        limit = Math.max(1, Math.min(SEARCH_MAX_LIMIT, Integer.parseInt(context.request().getParam("limit"))));
+      }
+    } catch (NumberFormatException e) {
+      context.response().setStatusCode(400).end("limit must be a number");
+      return;
+    }
+
+    dbService.searchPages(query, limit, reply -> {
+      if (reply.failed()) {
+        context.fail(reply.cause());
+        return;
+      }
+      String accept = context.request().getHeader("Accept");
+      if (accept != null && accept.contains("application/json")) {
+        context.response().putHeader("Content-Type", "application/json");
+        context.response().end(reply.result().encode());
+        return;
+      }
+      context.put("title", "Search");
+      context.put("query", query == null ? "" : query);
+      context.put("results", reply.result().getList());
+      templates.render(context, "templates/search.ftl", ar -> {
+        if (ar.succeeded()) {
+          context.response().putHeader("Content-Type", "text/html");
+          context.response().end(ar.result());
+        } else {
+          context.fail(ar.cause());
+        }
+      });
+    });
+  }
 
+  private void revisionListHandler(RoutingContext context) {
+    dbService.fetchPageRevisions(context.request().getParam("page"), reply -> {
+      if (reply.failed()) {
+        context.fail(reply.cause());
+      } else if (reply.result().isEmpty()) {
+        context.response().setStatusCode(404).end();
       } else {
+        context.response().putHeader("Content-Type", "application/json");
+        context.response().end(reply.result().encode());
+      }
+    });
+  }
+
+  private void revisionHandler(RoutingContext context) {
+    int revision;
+    try {
+      revision = Integer.parseInt(context.request().getParam("revision"));
+    } catch (NumberFormatException e) {
+      context.response().setStatusCode(400).end("revision must be a number");
+      return;
+    }
+    dbService.fetchPageRevision(context.request().getParam("page"), revision, reply -> {
+      if (reply.failed()) {
+        context.fail(reply.cause());
+      } else if (!reply.result().getBoolean("found")) {
+        context.response().setStatusCode(404).end();
+      } else {
+        reply.result().remove("found");
+        context.response().putHeader("Content-Type", "application/json");
+        context.response().end(reply.result().encode());
+      }
+    });
+  }
+
+  /*
+   * GET /wiki/:page/diff?from=...&to=... gives the changes between two revisions as a unified diff.
+   */
+  private void revisionDiffHandler(RoutingContext context) {
+    int from;
+    int to;
+    try {
+      from = Integer.parseInt(context.request().getParam("from"));
+      to = Integer.parseInt(context.request().getParam("to"));
+    } catch (NumberFormatException e) {
+      context.response().setStatusCode(400).end("from and to must be revision numbers");
+      return;
+    }
+    dbService.diffPageRevisions(context.request().getParam("page"), from, to, reply -> {
+      if (reply.failed()) {
         context.fail(reply.cause());
+      } else if (!reply.result().getBoolean("found")) {
+        context.response().setStatusCode(404).end();
+      } else {
+        context.response().putHeader("Content-Type", "text/x-diff; charset=utf-8");
+        context.response().end(reply.result().getString("diff"));
       }
     });
   }
@@ -125,6 +789,7 @@ public class WikiHttpServerVerticle extends AbstractVerticle {
 
     Handler<AsyncResult<Void>> handler = reply -> {
       if (reply.succeeded()) {
+        pageCache.invalidate(title);
         context.response().setStatusCode(303);
         context.response().putHeader("Location", "/wiki/" + title);
         context.response().end();
@@ -163,4 +828,348 @@ public class WikiHttpServerVerticle extends AbstractVerticle {
       }
     });
   }
+
+  private void batchHandler(RoutingContext context) {
+    JsonArray operations;
+    try {
+      operations = context.getBodyAsJsonArray();
+    } catch (DecodeException e) {
+      context.response().setStatusCode(400).end("Expected a JSON array of operations");
+      return;
+    }
+    dbService.applyBatch(operations, reply -> {
+      if (reply.succeeded()) {
+        context.response().putHeader("Content-Type", "application/json");
+        context.response().end(reply.result().encode());
+      } else if (reply.cause() instanceof ReplyException
+        && ((ReplyException) reply.cause()).failureCode() == ErrorCodes.BAD_ACTION.ordinal()) {
+        context.response().setStatusCode(400).end(reply.cause().getMessage());
+      } else {
+        context.fail(reply.cause());
+      }
+    });
+  }
+
+  /*
+   * Every page as a line of JSON, {"name": ..., "markdown": ...}, in name order. Pages are read a batch at a time,
+   * and the next batch only once the client has taken the previous one; a page too large for a batch is written in
+   * chunks as they are read. A page saved while its chunks are being written cuts the export short.
+   */
+  private void exportHandler(RoutingContext context) {
+    HttpServerResponse response = context.response();
+    response.setChunked(true);
+    response.putHeader("Content-Type", "application/x-ndjson");
+    response.putHeader("Content-Disposition", "attachment; filename=\"wiki.ndjson\"");
+    writeExport(response, null);
+  }
+
+  private void writeExport(HttpServerResponse response, String after) {
+    dbService.exportPages(after, exportBatchSize, pageStreamChunkChars, reply -> {
+      if (response.closed()) {
+        return;
+      }
+      JsonArray pages = reply.succeeded() ? reply.result() : null;
+      Future<Void> written = reply.succeeded() ? writeExportedPages(response, pages, 0) : Future.failedFuture(reply.cause());
+      written.setHandler(ar -> {
+        if (response.closed()) {
+          return;
+        }
+        if (ar.failed()) {
+          log.error("Could not export pages", ar.cause());
+          response.close();
+          return;
+        }
+        if (pages.size() < exportBatchSize) {
+          response.end();
+          return;
+        }
+        String last = pages.getJsonObject(pages.size() - 1).getString("name");
+        if (response.writeQueueFull()) {
+          response.drainHandler(v -> {
+            response.drainHandler(null);
+            writeExport(response, last);
+          });
+        } else {
+          writeExport(response, last);
+        }
+      });
+    });
+  }
+
+  private Future<Void> writeExportedPages(HttpServerResponse response, JsonArray pages, int from) {
+    Buffer lines = Buffer.buffer();
+    int index = from;
+    while (index < pages.size() && pages.getJsonObject(index).containsKey("markdown")) {
+      JsonObject page = pages.getJsonObject(index++);
+      lines.appendString(new JsonObject().put("name", page.getString("name")).put("markdown", page.getString("markdown")).encode());
+      lines.appendString("\n");
+    }
+    if (lines.length() > 0) {
+      response.write(lines);
+    }
+    if (index == pages.size()) {
+      return Future.succeededFuture();
+    }
+    JsonObject large = pages.getJsonObject(index);
+    int next = index + 1;
+    Page page = Page.streamed(large.getInteger("id"), large.getString("name"), large.getInteger("length"), -1, large.getInteger("revision"), null);
+    response.write("{\"name\":" + Json.encode(page.getName()) + ",\"markdown\":\"");
+    return writePageChunks(response, page, false, WikiHttpServerVerticle::jsonStringContent).compose(content -> {
+      response.write("\"}\n");
+      return writeExportedPages(response, pages, next);
+    });
+  }
+
+  private static String jsonStringContent(String chunk) {
+    String quoted = Json.encode(chunk);
+    return quoted.substring(1, quoted.length() - 1);
+  }
+
+  /*
+   * Lines of {"name": ..., "markdown": ...} are read as they arrive and imported a batch at a time, each batch in a
+   * transaction, with the request paused while a batch is being written. Pages are created or replaced by name.
+   * Batches imported before a bad line stay imported.
+   */
+  private void importHandler(RoutingContext context) {
+    new PageImport(context).start();
+  }
+
+  private void pageCacheStatsHandler(RoutingContext context) {
+    context.response().putHeader("Content-Type", "application/json");
+    context.response().end(pageCache.stats().encodePrettily());
+  }
+
+  private void metricsHandler(RoutingContext context) {
+    context.response().putHeader("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+    context.response().end(metrics.scrape());
+  }
+
+  /*
+   * Times a route from the moment it is dispatched until its response is ended or the connection is closed.
+   * Requests made before the database has started, when this instance waits for it, beyond the in-flight limit of
+   * this instance, or while the circuit breaker is open, are answered with a 503 at once; 5xx responses, but for
+   * 501s, count as failures for the breaker. With tracing on, each request gets a trace that its handler records
+   * stages in.
+   */
+  private Handler<RoutingContext> metered(String route, Handler<RoutingContext> handler) {
+    Timer latency = metrics.timer("wiki_http_request_seconds", "HTTP request latency by route", "route", route);
+    Counter serverErrors = metrics.counter("wiki_http_server_errors_total", "HTTP responses with a 5xx status by route", "route", route);
+    return context -> {
+      long started = System.nanoTime();
+      if (!databaseReady) {
+        requestsShed.increment();
+        unavailable(context.response(), 1);
+        return;
+      }
+      if (maxInFlight > 0 && inFlight >= maxInFlight) {
+        requestsShed.increment();
+        unavailable(context.response(), 1);
+        return;
+      }
+      if (circuitBreaker != null && !circuitBreaker.allow(started)) {
+        requestsShed.increment();
+        unavailable(context.response(), circuitBreaker.retryAfterSeconds(started));
+        return;
+      }
+      inFlight++;
+      requestsInFlight.increment();
+      RequestTrace trace = tracing ? RequestTrace.start(route) : RequestTrace.NONE;
+      if (trace.enabled()) {
+        context.put(TRACE, trace);
+      }
+      context.response().endHandler(ended -> {
+        inFlight--;
+        requestsInFlight.decrement();
+        latency.recordSince(started);
+        int status = context.response().getStatusCode();
+        if (trace.enabled()) {
+          finishTrace(trace, status);
+        }
+        if (status >= 500) {
+          serverErrors.increment();
+        }
+        if (circuitBreaker != null) {
+          if (status >= 500 && status != 501) {
+            circuitBreaker.failure(System.nanoTime());
+          } else {
+            circuitBreaker.success(System.nanoTime());
+          }
+        }
+      });
+      handler.handle(context);
+    };
+  }
+
+  /*
+   * Slow requests are logged with their stages, all of them or the sampled share of them.
+   */
+  private void finishTrace(RequestTrace trace, int status) {
+    long elapsed = trace.elapsedNanos();
+    trace.finish(status, elapsed);
+    if (elapsed >= slowRequestNanos) {
+      slowRequests.increment();
+      if (slowRequestSampleRate >= 1.0 || ThreadLocalRandom.current().nextDouble() < slowRequestSampleRate) {
+        log.warn("Slow request, " + trace.describe(status, elapsed));
+      }
+    }
+  }
+
+  /*
+   * The trace of the request, or one that records nothing when tracing is off.
+   */
+  private static RequestTrace trace(RoutingContext context) {
+    RequestTrace trace = context.get(TRACE);
+    return trace != null ? trace : RequestTrace.NONE;
+  }
+
+  /*
+   * Database calls refused for overload or past their deadline get a 503, calls the storage does not support a 501,
+   * anything else a 500.
+   */
+  private void failureHandler(RoutingContext context) {
+    Throwable failure = context.failure();
+    if (failure instanceof ReplyException) {
+      ReplyException reply = (ReplyException) failure;
+      if (reply.failureType() == ReplyFailure.TIMEOUT || reply.failureCode() == ErrorCodes.OVERLOADED.ordinal()) {
+        unavailable(context.response(), 1);
+        return;
+      }
+      if (reply.failureCode() == ErrorCodes.NOT_SUPPORTED.ordinal()) {
+        context.response().setStatusCode(501).end(reply.getMessage());
+        return;
+      }
+    }
+    if (context.statusCode() != -1) {
+      context.response().setStatusCode(context.statusCode()).end();
+      return;
+    }
+    log.error("Request failed: " + context.request().path(), failure);
+    context.response().setStatusCode(500).end();
+  }
+
+  private void unavailable(HttpServerResponse response, long retryAfterSeconds) {
+    response.setStatusCode(503);
+    response.putHeader("Retry-After", String.valueOf(retryAfterSeconds));
+    response.end();
+  }
+
+  private void pageEventHandler(Message<JsonObject> message) {
+    JsonObject event = message.body();
+    if (event.containsKey("name")) {
+      pageCache.invalidate(event.getString("name"));
+    }
+    if (event.containsKey("id")) {
+      pageCache.invalidate(event.getInteger("id"));
+    }
+  }
+
+  private final class PageImport {
+
+    private final RoutingContext context;
+    private final HttpServerRequest request;
+    private final NdjsonReader reader = new NdjsonReader(importMaxLineBytes);
+    private final ArrayDeque<JsonObject> pending = new ArrayDeque<>();
+    private int pendingChars;
+    private int imported;
+    private boolean writing;
+    private boolean ended;
+    private boolean done;
+
+    PageImport(RoutingContext context) {
+      this.context = context;
+      this.request = context.request();
+    }
+
+    void start() {
+      request.handler(data -> read(() -> reader.append(data)));
+      request.endHandler(end -> {
+        ended = true;
+        read(reader::finish);
+      });
+      request.exceptionHandler(e -> {
+        log.error("Import interrupted after " + imported + " pages", e);
+        done = true;
+      });
+    }
+
+    private void read(Supplier<List<JsonObject>> lines) {
+      if (done) {
+        return;
+      }
+      try {
+        for (JsonObject page : lines.get()) {
+          pending.add(page);
+          pendingChars += markdownLength(page);
+        }
+      } catch (IllegalArgumentException e) {
+        badRequest(e.getMessage());
+        return;
+      }
+      next();
+    }
+
+    private void next() {
+      if (writing || done) {
+        return;
+      }
+      if (pending.size() >= importBatchSize || pendingChars >= importBatchChars || ended && !pending.isEmpty()) {
+        JsonArray batch = new JsonArray();
+        int batchChars = 0;
+        while (!pending.isEmpty() && batch.size() < importBatchSize && (batch.isEmpty() || batchChars < importBatchChars)) {
+          JsonObject page = pending.poll();
+          batchChars += markdownLength(page);
+          batch.add(page);
+        }
+        pendingChars -= batchChars;
+        writing = true;
+        request.pause();
+        dbService.importPages(batch, reply -> {
+          writing = false;
+          if (reply.succeeded()) {
+            imported += reply.result();
+            if (!ended) {
+              request.resume();
+            }
+            next();
+          } else if (reply.cause() instanceof ReplyException
+            && ((ReplyException) reply.cause()).failureCode() == ErrorCodes.BAD_ACTION.ordinal()) {
+            badRequest(reply.cause().getMessage());
+          } else {
+            done = true;
+            context.fail(reply.cause());
+          }
+        });
+      } else if (ended) {
+        done = true;
+        context.response().putHeader("Content-Type", "application/json");
+        context.response().end(new JsonObject().put("imported", imported).encode());
+      }
+    }
+
+    private void badRequest(String message) {
+      done = true;
+      context.response().setStatusCode(400).end(message + " (" + imported + " pages imported before it)");
+    }
+
+    private int markdownLength(JsonObject page) {
+      Object markdown = page.getValue("markdown");
+      return markdown instanceof String ? ((String) markdown).length() : 0;
+    }
+  }
+
+  /*
+   * etag and lastModified are null when the page does not exist.
+   */
+  private static final class FetchedPage {
+
+    final Page page;
+    final String etag;
+    final String lastModified;
+
+    FetchedPage(Page page, String etag, String lastModified) {
+      this.page = page;
+      this.etag = etag;
+      this.lastModified = lastModified;
+    }
+  }
 }
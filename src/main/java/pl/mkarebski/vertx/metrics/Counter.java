@@ -0,0 +1,28 @@
+package pl.mkarebski.vertx.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+public final class Counter implements Metrics.Metric {
+
+  private final LongAdder value = new LongAdder();
+
+  Counter() {
+  }
+
+  public void increment() {
+    value.increment();
+  }
+
+  public long count() {
+    return value.sum();
+  }
+
+  @Override
+  public void write(StringBuilder out, String name, String labels) {
+    out.append(name);
+    if (!labels.isEmpty()) {
+      out.append('{').append(labels).append('}');
+    }
+    out.append(' ').append(value.sum()).append('\n');
+  }
+}
@@ -0,0 +1,30 @@
+package pl.mkarebski.vertx.metrics;
+
+import io.vertx.core.Vertx;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * A periodic timer on an event loop fires late by however long the loop was busy or blocked.
+ */
+final class EventLoopProbe {
+
+  private static final long INTERVAL_MILLIS = 100;
+  private static final long INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(INTERVAL_MILLIS);
+
+  private final Timer delay;
+  private long expected;
+
+  EventLoopProbe(Timer delay) {
+    this.delay = delay;
+  }
+
+  void start(Vertx vertx) {
+    expected = System.nanoTime() + INTERVAL_NANOS;
+    vertx.setPeriodic(INTERVAL_MILLIS, id -> {
+      long now = System.nanoTime();
+      delay.record(Math.max(0, now - expected));
+      expected = now + INTERVAL_NANOS;
+    });
+  }
+}
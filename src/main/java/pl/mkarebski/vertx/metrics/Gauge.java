@@ -0,0 +1,36 @@
+package pl.mkarebski.vertx.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+public final class Gauge implements Metrics.Metric {
+
+  private final AtomicLong value = new AtomicLong();
+
+  Gauge() {
+  }
+
+  public void increment() {
+    value.incrementAndGet();
+  }
+
+  public void decrement() {
+    value.decrementAndGet();
+  }
+
+  public void set(long newValue) {
+    value.set(newValue);
+  }
+
+  public long value() {
+    return value.get();
+  }
+
+  @Override
+  public void write(StringBuilder out, String name, String labels) {
+    out.append(name);
+    if (!labels.isEmpty()) {
+      out.append('{').append(labels).append('}');
+    }
+    out.append(' ').append(value.get()).append('\n');
+  }
+}
@@ -0,0 +1,121 @@
+package pl.mkarebski.vertx.metrics;
+
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+import io.vertx.core.shareddata.Shareable;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Supplier;
+
+/*
+ * Registry of counters, gauges and timers rendered in the Prometheus text exposition format.
+ *
+ * One registry is shared by all verticles of a Vert.x instance through a local map. Metrics are looked up once,
+ * when a verticle starts, and kept in fields: recording is then a LongAdder update and allocates nothing.
+ */
+public final class Metrics implements Shareable {
+
+  private static final String SHARED_METRICS = "wiki.metrics";
+
+  private final ConcurrentSkipListMap<String, Family> families = new ConcurrentSkipListMap<>();
+  private final Set<String> probedThreads = ConcurrentHashMap.newKeySet();
+
+  public static Metrics shared(Vertx vertx) {
+    return vertx.sharedData().<String, Metrics>getLocalMap(SHARED_METRICS).computeIfAbsent("registry", key -> new Metrics());
+  }
+
+  /*
+   * Labels are given as name / value pairs, e.g. timer("wiki_db_query_seconds", "...", "query", "GET_PAGE").
+   */
+  public Timer timer(String name, String help, String... labels) {
+    return register(name, help, "histogram", Timer.class, Timer::new, labels);
+  }
+
+  public Counter counter(String name, String help, String... labels) {
+    return register(name, help, "counter", Counter.class, Counter::new, labels);
+  }
+
+  public Gauge gauge(String name, String help, String... labels) {
+    return register(name, help, "gauge", Gauge.class, Gauge::new, labels);
+  }
+
+  /*
+   * Samples how late a periodic timer fires on the calling event loop, i.e. how long that loop was blocked.
+   * Meant to be called from a verticle's start method; a thread that is already probed is not probed twice,
+   * and worker verticles are not probed at all.
+   */
+  public void probeEventLoop(Vertx vertx) {
+    String thread = Thread.currentThread().getName();
+    if (Context.isOnEventLoopThread() && probedThreads.add(thread)) {
+      new EventLoopProbe(timer("wiki_event_loop_delay_seconds",
+        "How late periodic timers fire on each event loop", "thread", thread)).start(vertx);
+    }
+  }
+
+  public String scrape() {
+    StringBuilder out = new StringBuilder(4096);
+    for (Family family : families.values()) {
+      out.append("# HELP ").append(family.name).append(' ').append(family.help).append('\n');
+      out.append("# TYPE ").append(family.name).append(' ').append(family.type).append('\n');
+      for (Map.Entry<String, Metric> child : family.children.entrySet()) {
+        child.getValue().write(out, family.name, child.getKey());
+      }
+    }
+    return out.toString();
+  }
+
+  private <T extends Metric> T register(String name, String help, String type, Class<T> kind, Supplier<T> factory, String... labels) {
+    if (labels.length % 2 != 0) {
+      throw new IllegalArgumentException("Labels must be name / value pairs: " + name);
+    }
+    Family family = families.computeIfAbsent(name, key -> new Family(name, help, type));
+    if (!family.type.equals(type)) {
+      throw new IllegalArgumentException(name + " is already registered as a " + family.type);
+    }
+    return kind.cast(family.children.computeIfAbsent(labelText(labels), key -> factory.get()));
+  }
+
+  private static String labelText(String... labels) {
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < labels.length; i += 2) {
+      if (i > 0) {
+        text.append(',');
+      }
+      text.append(labels[i]).append("=\"");
+      String value = labels[i + 1];
+      for (int c = 0; c < value.length(); c++) {
+        char ch = value.charAt(c);
+        if (ch == '\\' || ch == '"') {
+          text.append('\\').append(ch);
+        } else if (ch == '\n') {
+          text.append("\\n");
+        } else {
+          text.append(ch);
+        }
+      }
+      text.append('"');
+    }
+    return text.toString();
+  }
+
+  interface Metric {
+    void write(StringBuilder out, String name, String labels);
+  }
+
+  private static final class Family {
+
+    final String name;
+    final String help;
+    final String type;
+    final ConcurrentSkipListMap<String, Metric> children = new ConcurrentSkipListMap<>();
+
+    Family(String name, String help, String type) {
+      this.name = name;
+      this.help = help;
+      this.type = type;
+    }
+  }
+}
@@ -0,0 +1,172 @@
+package pl.mkarebski.vertx.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * How long each stage of one request took: the event-bus hop to the database, the wait for a connection, the query,
+ * the Markdown and template rendering. The HTTP verticle starts one per request and hands it to what the request
+ * calls. Its id goes to the database verticle in an event-bus header, and the stages recorded there come back in a
+ * reply header as "name=nanos,name=nanos". Clocks of cluster nodes cannot be compared, so only durations travel.
+ *
+ * A trace belongs to the request's event loop and is not thread-safe. NONE records nothing, so that code on the
+ * request path does not need to know whether tracing is on.
+ */
+public final class RequestTrace {
+
+  public static final String ID_HEADER = "wiki-trace-id";
+  public static final String STAGES_HEADER = "wiki-trace-stages";
+
+  public static final RequestTrace NONE = new RequestTrace(null, null, 0);
+
+  private static final boolean FLIGHT_RECORDER = flightRecorderAvailable();
+
+  public static final class Stage {
+
+    public final String name;
+    public final long nanos;
+
+    Stage(String name, long nanos) {
+      this.name = name;
+      this.nanos = nanos;
+    }
+  }
+
+  private final String id;
+  private final String route;
+  private final long started;
+  private final List<Stage> stages = new ArrayList<>(8);
+
+  private RequestTrace(String id, String route, long started) {
+    this.id = id;
+    this.route = route;
+    this.started = started;
+  }
+
+  public static RequestTrace start(String route) {
+    return new RequestTrace(Long.toHexString(ThreadLocalRandom.current().nextLong()), route, System.nanoTime());
+  }
+
+  /*
+   * The part of a trace recorded on the other side of the event bus, under the id it was sent with.
+   */
+  public static RequestTrace remote(String id) {
+    return id != null ? new RequestTrace(id, null, System.nanoTime()) : NONE;
+  }
+
+  public boolean enabled() {
+    return id != null;
+  }
+
+  public String id() {
+    return id;
+  }
+
+  public String route() {
+    return route;
+  }
+
+  /*
+   * Records a stage that started at the given System.nanoTime() and ends now, and gives its duration.
+   */
+  public long stage(String name, long startedNanos) {
+    if (id == null) {
+      return 0;
+    }
+    long nanos = System.nanoTime() - startedNanos;
+    stages.add(new Stage(name, nanos));
+    return nanos;
+  }
+
+  public void add(String name, long nanos) {
+    if (id != null) {
+      stages.add(new Stage(name, nanos));
+    }
+  }
+
+  public List<Stage> stages() {
+    return stages;
+  }
+
+  public long elapsedNanos() {
+    return System.nanoTime() - started;
+  }
+
+  public String encodeStages() {
+    StringBuilder encoded = new StringBuilder();
+    for (Stage stage : stages) {
+      if (encoded.length() > 0) {
+        encoded.append(',');
+      }
+      encoded.append(stage.name).append('=').append(stage.nanos);
+    }
+    return encoded.toString();
+  }
+
+  /*
+   * Adds the stages of a reply header and gives how long they took altogether. Malformed entries are skipped.
+   */
+  public long addEncoded(String encoded) {
+    if (id == null || encoded == null || encoded.isEmpty()) {
+      return 0;
+    }
+    long total = 0;
+    for (String entry : encoded.split(",")) {
+      int separator = entry.indexOf('=');
+      if (separator <= 0) {
+        continue;
+      }
+      try {
+        long nanos = Long.parseLong(entry.substring(separator + 1));
+        stages.add(new Stage(entry.substring(0, separator), nanos));
+        total += nanos;
+      } catch (NumberFormatException e) {
+        // a stage of a newer or older node is not worth failing the request for
+      }
+    }
+    return total;
+  }
+
+  /*
+   * Ends the request: when the flight recorder is there, a RequestEvent and one StageEvent per stage are committed,
+   * each only if a recording has it enabled.
+   */
+  public void finish(int status, long elapsedNanos) {
+    if (id != null && FLIGHT_RECORDER) {
+      TraceEvents.commit(this, status, elapsedNanos);
+    }
+  }
+
+  /*
+   * One line for the slow-request log, e.g. "trace 3f9c0a /wiki/:page 200 in 812.4 ms: eventbus=0.3 ms, ...".
+   */
+  public String describe(int status, long elapsedNanos) {
+    StringBuilder line = new StringBuilder();
+    line.append("trace ").append(id).append(' ').append(route).append(' ').append(status)
+      .append(" in ").append(millis(elapsedNanos)).append(" ms");
+    for (int i = 0; i < stages.size(); i++) {
+      Stage stage = stages.get(i);
+      line.append(i == 0 ? ": " : ", ").append(stage.name).append('=').append(millis(stage.nanos)).append(" ms");
+    }
+    return line.toString();
+  }
+
+  private static String millis(long nanos) {
+    return String.format(Locale.ROOT, "%.1f", nanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+  }
+
+  /*
+   * The jdk.jfr API is in Java 11 and in Java 8 builds since 8u262; without it, traces only go to the log.
+   */
+  private static boolean flightRecorderAvailable() {
+    try {
+      Class.forName("jdk.jfr.Event");
+      return true;
+    } catch (ClassNotFoundException | LinkageError e) {
+      return false;
+    }
+  }
+}
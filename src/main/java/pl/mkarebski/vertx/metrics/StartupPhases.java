@@ -0,0 +1,62 @@
+package pl.mkarebski.vertx.metrics;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.shareddata.Shareable;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * How long each phase of starting a node took, e.g. "db.storage" or "http.templates". Instances of a verticle go
+ * through the same phases at the same time, so a phase keeps the longest of its durations: that is how long the
+ * node waited for it. Each phase is also exported as a gauge.
+ *
+ * One registry is shared by all verticles of a Vert.x instance through a local map.
+ */
+public final class StartupPhases implements Shareable {
+
+  private static final String SHARED_STARTUP_PHASES = "wiki.startup.phases";
+
+  private final Metrics metrics;
+  private final TreeMap<String, Long> millis = new TreeMap<>();
+
+  private StartupPhases(Metrics metrics) {
+    this.metrics = metrics;
+  }
+
+  public static StartupPhases shared(Vertx vertx) {
+    Metrics metrics = Metrics.shared(vertx);
+    return vertx.sharedData().<String, StartupPhases>getLocalMap(SHARED_STARTUP_PHASES)
+      .computeIfAbsent("phases", key -> new StartupPhases(metrics));
+  }
+
+  /*
+   * Records a phase that started at the given System.nanoTime() and ends now.
+   */
+  public synchronized long record(String phase, long startedNanos) {
+    long duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedNanos);
+    long longest = millis.merge(phase, duration, Math::max);
+    metrics.gauge("wiki_startup_phase_milliseconds", "How long each phase of starting the node took", "phase", phase)
+      .set(longest);
+    return duration;
+  }
+
+  public synchronized Map<String, Long> millis() {
+    return new TreeMap<>(millis);
+  }
+
+  /*
+   * One line for the log, e.g. "db.queries=4ms, db.storage=310ms, ...".
+   */
+  public synchronized String summary() {
+    StringBuilder summary = new StringBuilder();
+    for (Map.Entry<String, Long> phase : millis.entrySet()) {
+      if (summary.length() > 0) {
+        summary.append(", ");
+      }
+      summary.append(phase.getKey()).append('=').append(phase.getValue()).append("ms");
+    }
+    return summary.toString();
+  }
+}
@@ -0,0 +1,73 @@
+package pl.mkarebski.vertx.metrics;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Latency histogram with fixed buckets from 100 microseconds to 10 seconds, exported as a Prometheus histogram so that
+ * percentiles can be computed (and aggregated across instances) with histogram_quantile().
+ */
+public final class Timer implements Metrics.Metric {
+
+  private static final double[] BUCKET_SECONDS = {
+    0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10
+  };
+
+  private static final long[] BUCKET_NANOS = new long[BUCKET_SECONDS.length];
+  private static final String[] BUCKET_LABELS = new String[BUCKET_SECONDS.length + 1];
+
+  static {
+    for (int i = 0; i < BUCKET_SECONDS.length; i++) {
+      BUCKET_NANOS[i] = (long) (BUCKET_SECONDS[i] * TimeUnit.SECONDS.toNanos(1));
+      BUCKET_LABELS[i] = BigDecimal.valueOf(BUCKET_SECONDS[i]).stripTrailingZeros().toPlainString();
+    }
+    BUCKET_LABELS[BUCKET_SECONDS.length] = "+Inf";
+  }
+
+  private final LongAdder[] buckets = new LongAdder[BUCKET_NANOS.length + 1];
+  private final LongAdder sumNanos = new LongAdder();
+
+  Timer() {
+    for (int i = 0; i < buckets.length; i++) {
+      buckets[i] = new LongAdder();
+    }
+  }
+
+  public void record(long nanos) {
+    int bucket = 0;
+    while (bucket < BUCKET_NANOS.length && nanos > BUCKET_NANOS[bucket]) {
+      bucket++;
+    }
+    buckets[bucket].increment();
+    sumNanos.add(nanos);
+  }
+
+  public void recordSince(long startNanos) {
+    record(System.nanoTime() - startNanos);
+  }
+
+  public long count() {
+    long count = 0;
+    for (LongAdder bucket : buckets) {
+      count += bucket.sum();
+    }
+    return count;
+  }
+
+  @Override
+  public void write(StringBuilder out, String name, String labels) {
+    String separator = labels.isEmpty() ? "" : ",";
+    long cumulative = 0;
+    for (int i = 0; i < buckets.length; i++) {
+      cumulative += buckets[i].sum();
+      out.append(name).append("_bucket{").append(labels).append(separator).append("le=\"")
+        .append(BUCKET_LABELS[i])
+        .append("\"} ").append(cumulative).append('\n');
+    }
+    String braces = labels.isEmpty() ? "" : "{" + labels + "}";
+    out.append(name).append("_sum").append(braces).append(' ')
+      .append(sumNanos.sum() / (double) TimeUnit.SECONDS.toNanos(1)).append('\n');
+    out.append(name).append("_count").append(braces).append(' ').append(cumulative).append('\n');
+  }
+}
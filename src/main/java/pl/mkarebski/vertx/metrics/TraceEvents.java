@@ -0,0 +1,80 @@
+package pl.mkarebski.vertx.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/*
+ * Java Flight Recorder events of request traces. Only loaded once RequestTrace has found the jdk.jfr API, so the
+ * wiki still runs on a JVM without it. The events are enabled by default and cost nothing while no recording runs,
+ * e.g. start one with -XX:StartFlightRecording or jcmd <pid> JFR.start, then filter on the "Wiki" category.
+ */
+final class TraceEvents {
+
+  @Name("pl.mkarebski.vertx.Request")
+  @Label("Wiki Request")
+  @Category("Wiki")
+  @Description("An HTTP request, with the trace id its stages share")
+  static final class RequestEvent extends Event {
+
+    @Label("Trace Id")
+    String traceId;
+
+    @Label("Route")
+    String route;
+
+    @Label("Status")
+    int status;
+
+    @Label("Elapsed")
+    @Timespan(Timespan.NANOSECONDS)
+    long elapsed;
+  }
+
+  @Name("pl.mkarebski.vertx.RequestStage")
+  @Label("Wiki Request Stage")
+  @Category("Wiki")
+  @Description("How long one stage of an HTTP request took")
+  static final class StageEvent extends Event {
+
+    @Label("Trace Id")
+    String traceId;
+
+    @Label("Route")
+    String route;
+
+    @Label("Stage")
+    String stage;
+
+    @Label("Elapsed")
+    @Timespan(Timespan.NANOSECONDS)
+    long elapsed;
+  }
+
+  private TraceEvents() {
+  }
+
+  static void commit(RequestTrace trace, int status, long elapsedNanos) {
+    RequestEvent request = new RequestEvent();
+    if (!request.isEnabled()) {
+      return;
+    }
+    request.traceId = trace.id();
+    request.route = trace.route();
+    request.status = status;
+    request.elapsed = elapsedNanos;
+    request.commit();
+
+    for (RequestTrace.Stage stage : trace.stages()) {
+      StageEvent event = new StageEvent();
+      event.traceId = trace.id();
+      event.route = trace.route();
+      event.stage = stage.name;
+      event.elapsed = stage.nanos;
+      event.commit();
+    }
+  }
+}
@@ -10,6 +10,12 @@
         </div>
         <button type="submit" class="btn btn-primary">Create</button>
       </form>
+      <form class="form-inline mt-1" action="/search" method="get">
+        <div class="form-group">
+          <input type="search" class="form-control" id="q" name="q" placeholder="Search">
+        </div>
+        <button type="submit" class="btn btn-outline-primary">Search</button>
+      </form>
     </div>
     <h1 class="display-4">${context.title}</h1>
   </div>
@@ -22,6 +28,14 @@
         <li><a href="/wiki/${page}">${page}</a></li>
       </#items>
     </ul>
+    <nav>
+    <#if context.paged??>
+      <a class="btn btn-outline-primary" href="/" role="button">First</a>
+    </#if>
+    <#if context.nextAfter??>
+      <a class="btn btn-outline-primary" href="/?after=${context.nextAfter?url('UTF-8')}" role="button">Next</a>
+    </#if>
+    </nav>
   <#else>
     <p>The wiki is currently empty!</p>
   </#list>
@@ -0,0 +1,17 @@
+        </textarea><#lt>
+      </div>
+      <button type="submit" class="btn btn-primary">Save</button>
+    <#if context.id != -1>
+      <button type="submit" formaction="/delete" class="btn btn-danger float-xs-right">Delete</button>
+    </#if>
+    </form>
+  </div>
+
+  <div class="col-md-12 mt-1">
+    <hr class="mt-1">
+    <p class="small">Last modified: ${context.timestamp}</p>
+  </div>
+
+</div>
+
+<#include "footer.ftl">
@@ -0,0 +1,9 @@
+  </div>
+
+  <div class="col-md-12 collapsable collapse clearfix" id="editor">
+    <form action="/save" method="post">
+      <div class="form-group">
+        <input type="hidden" name="id" value="${context.id}">
+        <input type="hidden" name="title" value="${context.title}">
+        <input type="hidden" name="newPage" value="${context.newPage}">
+        <textarea class="form-control" id="markdown" name="markdown" rows="15"><#rt>
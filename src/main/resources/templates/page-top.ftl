@@ -0,0 +1,18 @@
+<#include "header.ftl">
+
+<div class="row">
+
+  <div class="col-md-12 mt-1">
+      <span class="float-xs-right">
+        <a class="btn btn-outline-primary" href="/" role="button" aria-pressed="true">Home</a>
+        <button class="btn btn-outline-warning" type="button" data-toggle="collapse"
+                data-target="#editor" aria-expanded="false" aria-controls="editor">Edit</button>
+      </span>
+    <h1 class="display-4">
+      <span class="text-muted">{</span>
+    ${context.title}
+      <span class="text-muted">}</span>
+    </h1>
+  </div>
+
+  <div class="col-md-12 mt-1 clearfix">
@@ -0,0 +1,129 @@
+package pl.mkarebski.vertx;
+
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Vertx;
+import io.vertx.core.VertxOptions;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientRequest;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import io.vertx.test.fakecluster.FakeClusterManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import pl.mkarebski.vertx.database.WikiDatabaseVerticle;
+import pl.mkarebski.vertx.http.WikiHttpServerVerticle;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+
+/*
+ * Two clustered nodes in one JVM, each running HTTP and database verticles over the same database: a write
+ * made through either node must show up on the other one, in its page cache and in its search index.
+ */
+@RunWith(VertxUnitRunner.class)
+public class ClusteredWikiTest {
+
+  private static final int[] PORTS = {18091, 18092};
+  private static final Pattern PAGE_ID = Pattern.compile("name=\"id\" value=\"(\\d+)\"");
+
+  private final List<Vertx> nodes = new ArrayList<>();
+  private HttpClient client;
+
+  @Before
+  public void startNodes(TestContext context) {
+    for (int port : PORTS) {
+      JsonObject conf = new JsonObject()
+        .put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_URL, "jdbc:hsqldb:mem:clustertest;shutdown=true")
+        .put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_MAX_POOL_SIZE, 4)
+        .put(MainVerticle.CONFIG_MAIN_HTTP_INSTANCES, 1)
+        .put(WikiHttpServerVerticle.CONFIG_HTTP_SERVER_PORT, port);
+      VertxOptions options = new VertxOptions().setClusterManager(new FakeClusterManager()).setClusterHost("127.0.0.1");
+
+      Async started = context.async();
+      Vertx.clusteredVertx(options, context.asyncAssertSuccess(vertx -> {
+        nodes.add(vertx);
+        vertx.deployVerticle(MainVerticle.class.getName(), new DeploymentOptions().setConfig(conf),
+          context.asyncAssertSuccess(id -> started.complete()));
+      }));
+      started.awaitSuccess(10000);
+    }
+    client = nodes.get(0).createHttpClient();
+  }
+
+  @After
+  public void stopNodes(TestContext context) {
+    for (Vertx node : nodes) {
+      node.close(context.asyncAssertSuccess());
+    }
+    FakeClusterManager.reset();
+  }
+
+  @Test
+  public void shouldSeeWritesMadeThroughAnotherNode() throws Exception {
+    request(HttpMethod.POST, 0, "/save", "title=Shared&newPage=yes&markdown=first+version");
+    String page = request(HttpMethod.GET, 1, "/wiki/Shared", null);
+    assertThat(page, containsString("first version"));
+    assertThat(request(HttpMethod.GET, 1, "/wiki/Shared", null), is(page));
+
+    Matcher id = PAGE_ID.matcher(page);
+    assertThat(id.find(), is(true));
+    request(HttpMethod.POST, 0, "/save", "title=Shared&newPage=no&id=" + id.group(1) + "&markdown=second+version");
+    eventually(() -> request(HttpMethod.GET, 1, "/wiki/Shared", null).contains("second version"));
+    eventually(() -> searchFindsSharedOnEveryNode("second") && !searchFindsSharedOnEveryNode("first"));
+
+    assertThat(request(HttpMethod.GET, 0, "/wiki/Shared", null), containsString("second version"));
+    request(HttpMethod.POST, 1, "/delete", "id=" + id.group(1));
+    eventually(() -> request(HttpMethod.GET, 0, "/wiki/Shared", null).contains("A new page"));
+    eventually(() -> !searchFindsSharedOnEveryNode("second"));
+  }
+
+  /*
+   * Database service calls go round-robin to the nodes, so a few searches in a row reach every index.
+   */
+  private boolean searchFindsSharedOnEveryNode(String word) throws Exception {
+    for (int i = 0; i < 2 * PORTS.length; i++) {
+      JsonArray results = new JsonArray(request(HttpMethod.GET, 0, "/search?q=" + word, null));
+      if (results.isEmpty()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void eventually(Callable<Boolean> condition) throws Exception {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (!condition.call()) {
+      assertThat("condition still false after 5 seconds", System.currentTimeMillis() < deadline, is(true));
+      Thread.sleep(20);
+    }
+  }
+
+  private String request(HttpMethod method, int node, String path, String form) throws Exception {
+    CompletableFuture<String> body = new CompletableFuture<>();
+    HttpClientRequest request = client.request(method, PORTS[node], "localhost", path, response ->
+      response.bodyHandler(buffer -> body.complete(buffer.toString())));
+    request.exceptionHandler(body::completeExceptionally);
+    request.putHeader("Accept", path.startsWith("/search") ? "application/json" : "text/html");
+    if (form != null) {
+      request.putHeader("Content-Type", "application/x-www-form-urlencoded").end(form);
+    } else {
+      request.end();
+    }
+    return body.get(5, TimeUnit.SECONDS);
+  }
+}
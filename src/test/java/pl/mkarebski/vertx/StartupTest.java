@@ -0,0 +1,119 @@
+package pl.mkarebski.vertx;
+
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientResponse;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import pl.mkarebski.vertx.database.WikiDatabaseVerticle;
+import pl.mkarebski.vertx.http.WikiHttpServerVerticle;
+import pl.mkarebski.vertx.metrics.StartupPhases;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.hasKey;
+import static org.hamcrest.Matchers.is;
+
+@RunWith(VertxUnitRunner.class)
+public class StartupTest {
+
+  private static final int PORT = 18093;
+
+  private Vertx vertx;
+  private HttpClient client;
+
+  @Before
+  public void prepare() {
+    vertx = Vertx.vertx();
+    client = vertx.createHttpClient();
+  }
+
+  @After
+  public void finish(TestContext context) {
+    vertx.close(context.asyncAssertSuccess());
+  }
+
+  @Test
+  public void shouldReportEveryPhaseOfAParallelStart(TestContext context) throws Exception {
+    JsonObject conf = config("startup")
+      .put(MainVerticle.CONFIG_MAIN_STARTUP_PARALLEL, true)
+      .put(MainVerticle.CONFIG_MAIN_HTTP_INSTANCES, 2)
+      .put(WikiHttpServerVerticle.CONFIG_HTTP_STARTUP_WARMUP_ITERATIONS, 20);
+
+    Async deployed = context.async();
+    vertx.deployVerticle(MainVerticle.class.getName(), new DeploymentOptions().setConfig(conf),
+      context.asyncAssertSuccess(id -> deployed.complete()));
+    deployed.awaitSuccess(10000);
+
+    Map<String, Long> millis = StartupPhases.shared(vertx).millis();
+    for (String phase : new String[]{"db.queries", "db.start", "http.templates", "http.warmup", "http.listen", "deploy.db", "deploy.http", "total"}) {
+      assertThat(millis, hasKey(phase));
+    }
+    assertThat(millis.get("total"), is(greaterThanOrEqualTo(millis.get("deploy.db"))));
+    assertThat(millis.get("total"), is(greaterThanOrEqualTo(millis.get("deploy.http"))));
+    assertThat(millis.get("deploy.http"), is(greaterThanOrEqualTo(millis.get("http.templates"))));
+
+    eventually(() -> status("/") == 200);
+  }
+
+  @Test
+  public void shouldTurnRequestsAwayUntilTheDatabaseHasStarted(TestContext context) throws Exception {
+    JsonObject conf = config("waiting")
+      .put(WikiHttpServerVerticle.CONFIG_HTTP_STARTUP_WAIT_FOR_DATABASE, true);
+
+    Async httpDeployed = context.async();
+    vertx.deployVerticle(WikiHttpServerVerticle.class.getName(), new DeploymentOptions().setConfig(conf),
+      context.asyncAssertSuccess(id -> httpDeployed.complete()));
+    httpDeployed.awaitSuccess(5000);
+
+    HttpClientResponse unavailable = response("/");
+    assertThat(unavailable.statusCode(), is(503));
+    assertThat(unavailable.getHeader("Retry-After"), is("1"));
+
+    Async dbDeployed = context.async();
+    vertx.deployVerticle(WikiDatabaseVerticle.class.getName(), new DeploymentOptions().setConfig(conf),
+      context.asyncAssertSuccess(id -> dbDeployed.complete()));
+    dbDeployed.awaitSuccess(5000);
+
+    eventually(() -> status("/") == 200);
+  }
+
+  private static JsonObject config(String database) {
+    return new JsonObject()
+      .put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_URL, "jdbc:hsqldb:mem:" + database + ";shutdown=true")
+      .put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_MAX_POOL_SIZE, 4)
+      .put(WikiHttpServerVerticle.CONFIG_HTTP_SERVER_PORT, PORT);
+  }
+
+  private void eventually(Callable<Boolean> condition) throws Exception {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (!condition.call()) {
+      assertThat("condition still false after 5 seconds", System.currentTimeMillis() < deadline, is(true));
+      Thread.sleep(20);
+    }
+  }
+
+  private int status(String path) throws Exception {
+    return response(path).statusCode();
+  }
+
+  private HttpClientResponse response(String path) throws Exception {
+    CompletableFuture<HttpClientResponse> response = new CompletableFuture<>();
+    client.get(PORT, "localhost", path, received -> received.bodyHandler(body -> response.complete(received)))
+      .exceptionHandler(response::completeExceptionally)
+      .end();
+    return response.get(5, TimeUnit.SECONDS);
+  }
+}
@@ -2,6 +2,8 @@ package pl.mkarebski.vertx.database;
 
 import io.vertx.core.DeploymentOptions;
 import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.unit.Async;
 import io.vertx.ext.unit.TestContext;
@@ -20,26 +22,32 @@ import static org.hamcrest.Matchers.*;
 @RunWith(VertxUnitRunner.class)
 public class DatabaseCrudTest {
 
-  private Vertx vertx;
-  private WikiDatabaseService dbService;
+  protected Vertx vertx;
+  protected WikiDatabaseService dbService;
 
   @Before
   public void prepare(TestContext context) throws InterruptedException {
     vertx = Vertx.vertx();
 
-    JsonObject conf = new JsonObject()
-      .put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_URL, "jdbc:hsqldb:mem:testdb;shutdown=true")
-      .put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_MAX_POOL_SIZE, 4);
-
     vertx.deployVerticle(
-      new WikiDatabaseVerticle(),
-      new DeploymentOptions().setConfig(conf),
+      WikiDatabaseVerticle.class.getName(),
+      deploymentOptions().setConfig(config()),
       context.asyncAssertSuccess(id ->
         dbService = WikiDatabaseService.createProxy(vertx, WikiDatabaseVerticle.CONFIG_WIKIDB_QUEUE)
       )
     );
   }
 
+  protected DeploymentOptions deploymentOptions() {
+    return new DeploymentOptions();
+  }
+
+  protected JsonObject config() {
+    return new JsonObject()
+      .put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_URL, "jdbc:hsqldb:mem:testdb;shutdown=true")
+      .put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_MAX_POOL_SIZE, 4);
+  }
+
   @Test
   public void shouldPassWithHappyPath(TestContext context) {
     Async async = context.async();
@@ -51,6 +59,9 @@ public class DatabaseCrudTest {
         assertThat(fetchPageResult.getBoolean("found"), is(true));
         assertThat(fetchPageResult.containsKey("id"), is(true));
         assertThat(fetchPageResult.getString("rawContent"), is("Some content"));
+        assertThat(fetchPageResult.getInteger("revision"), is(1));
+        assertThat(fetchPageResult.getString("lastModified"), is(notNullValue()));
+        assertThat(fetchPageResult.getString("htmlContent"), is("<p>Some content</p>\n"));
 
         dbService.savePage(fetchPageResult.getInteger("id"), "Yo!", context.asyncAssertSuccess(updateResult -> {
 
@@ -61,6 +72,8 @@ public class DatabaseCrudTest {
             dbService.fetchPage("Test", context.asyncAssertSuccess(getPageResult -> {
               assertThat(getPageResult, is(notNullValue()));
               assertThat(getPageResult.getString("rawContent"), is("Yo!"));
+              assertThat(getPageResult.getInteger("revision"), is(2));
+              assertThat(getPageResult.getString("htmlContent"), is("<p>Yo!</p>\n"));
 
               dbService.deletePage(fetchPageResult.getInteger("id"), deletePage -> {
                   assertThat(deletePage, is(notNullValue()));
@@ -79,6 +92,184 @@ public class DatabaseCrudTest {
     async.awaitSuccess(2000);
   }
 
+  @Test
+  public void shouldPageThroughPageNamesInOrder(TestContext context) {
+    Async async = context.async();
+
+    dbService.createPage("B", "b", context.asyncAssertSuccess(b ->
+      dbService.createPage("C", "c", context.asyncAssertSuccess(c ->
+        dbService.createPage("A", "a", context.asyncAssertSuccess(a ->
+
+          dbService.fetchPagesPage(null, 2, context.asyncAssertSuccess(first -> {
+            assertThat(first, is(new JsonArray().add("A").add("B")));
+
+            dbService.fetchPagesPage("B", 2, context.asyncAssertSuccess(second -> {
+              assertThat(second, is(new JsonArray().add("C")));
+              async.complete();
+            }));
+          }))
+        ))
+      ))
+    ));
+    async.awaitSuccess(2000);
+  }
+
+  @Test
+  public void shouldApplyMixedBatchInOneTransaction(TestContext context) {
+    Async async = context.async();
+
+    dbService.createPage("Existing", "old", context.asyncAssertSuccess(created ->
+      dbService.fetchPage("Existing", context.asyncAssertSuccess(existing -> {
+        JsonArray operations = new JsonArray()
+          .add(new JsonObject().put("action", "create").put("name", "First").put("markdown", "one"))
+          .add(new JsonObject().put("action", "create").put("name", "Second").put("markdown", "two"))
+          .add(new JsonObject().put("action", "save").put("id", existing.getInteger("id")).put("markdown", "new"))
+          .add(new JsonObject().put("action", "delete").put("id", 12345));
+
+        dbService.applyBatch(operations, context.asyncAssertSuccess(results -> {
+          assertThat(results.size(), is(4));
+          assertThat(results.getJsonObject(0).getBoolean("success"), is(true));
+          assertThat(results.getJsonObject(2).getBoolean("success"), is(true));
+          assertThat(results.getJsonObject(3).getBoolean("success"), is(false));
+
+          dbService.fetchPage("Existing", context.asyncAssertSuccess(saved -> {
+            assertThat(saved.getString("rawContent"), is("new"));
+
+            dbService.applyBatch(new JsonArray().add(new JsonObject().put("action", "rename")), context.asyncAssertFailure(bad ->
+              dbService.fetchAllPages(context.asyncAssertSuccess(all -> {
+                assertThat(all, is(new JsonArray().add("Existing").add("First").add("Second")));
+                async.complete();
+              }))
+            ));
+          }));
+        }));
+      }))
+    ));
+    async.awaitSuccess(2000);
+  }
+
+  @Test
+  public void shouldRefuseMalformedBatchOperations(TestContext context) {
+    Async async = context.async();
+
+    JsonArray notAnObject = new JsonArray()
+      .add(new JsonObject().put("action", "create").put("name", "Fine").put("markdown", "fine"))
+      .add("create");
+    JsonArray textId = new JsonArray()
+      .add(new JsonObject().put("action", "delete").put("id", "7"));
+
+    dbService.applyBatch(notAnObject, context.asyncAssertFailure(first -> {
+      assertThat(((ReplyException) first).failureCode(), is(ErrorCodes.BAD_ACTION.ordinal()));
+      assertThat(first.getMessage(), is("Operation 1: not a JSON object"));
+
+      dbService.applyBatch(textId, context.asyncAssertFailure(second -> {
+        assertThat(((ReplyException) second).failureCode(), is(ErrorCodes.BAD_ACTION.ordinal()));
+        assertThat(second.getMessage(), is("Operation 0: delete needs an id"));
+
+        dbService.fetchAllPages(context.asyncAssertSuccess(all -> {
+          assertThat(all.isEmpty(), is(true));
+          async.complete();
+        }));
+      }));
+    }));
+    async.awaitSuccess(2000);
+  }
+
+  @Test
+  public void shouldReadPagesThroughThePageAddress(TestContext context) {
+    Async async = context.async();
+    PageClient pages = PageClient.create(vertx, WikiDatabaseVerticle.CONFIG_WIKIDB_PAGE_QUEUE);
+
+    dbService.createPage("Fast", "*fast*", context.asyncAssertSuccess(created ->
+      pages.fetchPage("Fast", context.asyncAssertSuccess(page ->
+        dbService.fetchPage("Fast", context.asyncAssertSuccess(json -> {
+          assertThat(page.isFound(), is(true));
+          assertThat(page.getName(), is("Fast"));
+          assertThat(page.getHtml(), is("<p><em>fast</em></p>\n"));
+          assertThat(page.toJson(), is(json));
+
+          pages.fetchPage("Slow", context.asyncAssertSuccess(missing -> {
+            assertThat(missing.isFound(), is(false));
+            async.complete();
+          }));
+        }))
+      ))
+    ));
+    async.awaitSuccess(2000);
+  }
+
+  @Test
+  public void shouldKeepSearchResultsInSyncWithWrites(TestContext context) {
+    Async async = context.async();
+
+    dbService.createPage("Event loop", "The event loop runs verticles", context.asyncAssertSuccess(created ->
+      dbService.applyBatch(new JsonArray()
+        .add(new JsonObject().put("action", "create").put("name", "Recipes").put("markdown", "Pasta with tomatoes")),
+        context.asyncAssertSuccess(batch ->
+          dbService.searchPages("verticles pasta", 10, context.asyncAssertSuccess(both -> {
+            assertThat(both.size(), is(2));
+
+            dbService.fetchPage("Event loop", context.asyncAssertSuccess(page ->
+              dbService.savePage(page.getInteger("id"), "Nothing to see here", context.asyncAssertSuccess(saved ->
+                dbService.searchPages("Verticles", 10, context.asyncAssertSuccess(none -> {
+                  assertThat(none.isEmpty(), is(true));
+
+                  dbService.deletePage(page.getInteger("id"), context.asyncAssertSuccess(deleted ->
+                    dbService.searchPages("loop tomatoes", 10, context.asyncAssertSuccess(remaining -> {
+                      assertThat(remaining.size(), is(1));
+                      assertThat(remaining.getJsonObject(0).getString("name"), is("Recipes"));
+                      async.complete();
+                    }))
+                  ));
+                }))
+              ))
+            ));
+          }))
+        )
+      )
+    ));
+    async.awaitSuccess(2000);
+  }
+
+  @Test
+  public void shouldImportPagesByNameAndExportThemInOrder(TestContext context) {
+    Async async = context.async();
+
+    dbService.createPage("Existing", "Old content", context.asyncAssertSuccess(created ->
+      dbService.importPages(new JsonArray()
+        .add(new JsonObject().put("name", "Existing").put("markdown", "Imported content"))
+        .add(new JsonObject().put("name", "New").put("markdown", "Imported page longer than the limit")),
+        context.asyncAssertSuccess(imported -> {
+          assertThat(imported, is(2));
+
+          dbService.exportPages(null, 1, 16, context.asyncAssertSuccess(first -> {
+            assertThat(first.size(), is(1));
+            assertThat(first.getJsonObject(0).getString("name"), is("Existing"));
+            assertThat(first.getJsonObject(0).getString("markdown"), is("Imported content"));
+            assertThat(first.getJsonObject(0).getInteger("revision"), is(2));
+
+            dbService.exportPages("Existing", 10, 16, context.asyncAssertSuccess(rest -> {
+              assertThat(rest.size(), is(1));
+              assertThat(rest.getJsonObject(0).getString("name"), is("New"));
+              assertThat(rest.getJsonObject(0).containsKey("markdown"), is(false));
+              assertThat(rest.getJsonObject(0).getInteger("length"), is(35));
+
+              dbService.searchPages("imported", 10, context.asyncAssertSuccess(found -> {
+                assertThat(found.size(), is(2));
+
+                dbService.importPages(new JsonArray().add(new JsonObject().put("name", "No content")), context.asyncAssertFailure(bad -> {
+                  assertThat(((ReplyException) bad).failureCode(), is(ErrorCodes.BAD_ACTION.ordinal()));
+                  async.complete();
+                }));
+              }));
+            }));
+          }));
+        })
+      )
+    ));
+    async.awaitSuccess(2000);
+  }
+
   @After
   public void finish(TestContext context) {
     vertx.close(context.asyncAssertSuccess());
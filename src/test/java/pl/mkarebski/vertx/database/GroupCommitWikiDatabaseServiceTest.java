@@ -0,0 +1,91 @@
+package pl.mkarebski.vertx.database;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+@RunWith(VertxUnitRunner.class)
+public class GroupCommitWikiDatabaseServiceTest {
+
+  private Vertx vertx;
+  private List<JsonArray> batches;
+  private WikiDatabaseService groupCommit;
+
+  @Before
+  public void prepare() {
+    vertx = Vertx.vertx();
+    batches = new ArrayList<>();
+    groupCommit = new GroupCommitWikiDatabaseService(vertx, recordingDelegate(), 50, 3);
+  }
+
+  @Test
+  public void shouldCollapseSavesOfTheSamePageIntoOneGroupCommit(TestContext context) {
+    Async async = context.async(3);
+
+    vertx.runOnContext(v -> {
+      groupCommit.savePage(1, "first", context.asyncAssertSuccess(r -> async.countDown()));
+      groupCommit.savePage(2, "other", context.asyncAssertSuccess(r -> async.countDown()));
+      groupCommit.savePage(1, "latest", context.asyncAssertSuccess(r -> async.countDown()));
+    });
+
+    async.awaitSuccess(2000);
+    assertThat(batches.size(), is(1));
+    assertThat(batches.get(0), is(new JsonArray()
+      .add(new JsonObject().put("action", "save").put("id", 1).put("markdown", "latest"))
+      .add(new JsonObject().put("action", "save").put("id", 2).put("markdown", "other"))));
+  }
+
+  @Test
+  public void shouldFlushEarlyWhenEnoughPagesArePending(TestContext context) {
+    Async async = context.async(4);
+
+    vertx.runOnContext(v -> {
+      for (int id = 1; id <= 4; id++) {
+        groupCommit.savePage(id, "page " + id, context.asyncAssertSuccess(r -> async.countDown()));
+      }
+    });
+
+    async.awaitSuccess(2000);
+    assertThat(batches.size(), is(2));
+    assertThat(batches.get(0).size(), is(3));
+    assertThat(batches.get(1).size(), is(1));
+  }
+
+  @After
+  public void finish(TestContext context) {
+    vertx.close(context.asyncAssertSuccess());
+  }
+
+  @SuppressWarnings("unchecked")
+  private WikiDatabaseService recordingDelegate() {
+    return (WikiDatabaseService) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{WikiDatabaseService.class},
+      (proxy, method, args) -> {
+        if (!method.getName().equals("applyBatch")) {
+          throw new UnsupportedOperationException(method.getName());
+        }
+        JsonArray operations = (JsonArray) args[0];
+        batches.add(operations);
+        JsonArray results = new JsonArray();
+        operations.forEach(operation -> results.add(new JsonObject().put("action", "save").put("success", true)));
+        ((Handler<AsyncResult<JsonArray>>) args[1]).handle(Future.succeededFuture(results));
+        return proxy;
+      });
+  }
+}
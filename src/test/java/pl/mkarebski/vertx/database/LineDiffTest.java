@@ -0,0 +1,90 @@
+package pl.mkarebski.vertx.database;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class LineDiffTest {
+
+  private static final String[] LINES = {"# Title", "Some text", "", "* item", "Other text"};
+
+  @Test
+  public void shouldRebuildTheNewTextFromTheDelta() {
+    Random random = new Random(42);
+    for (int i = 0; i < 5000; i++) {
+      String from = randomText(random);
+      String to = randomText(random);
+      for (int maxDistance : new int[]{0, 2, 1000}) {
+        assertThat(from + " -> " + to, LineDiff.apply(from, LineDiff.delta(from, to, maxDistance)), is(to));
+      }
+    }
+  }
+
+  @Test
+  public void shouldFindTheShortestEditScript() {
+    Random random = new Random(7);
+    for (int i = 0; i < 2000; i++) {
+      String[] from = LineDiff.lines(randomText(random));
+      String[] to = LineDiff.lines(randomText(random));
+      int changed = 0;
+      for (LineDiff.Edit edit : LineDiff.diff(from, to, 1000)) {
+        changed += edit.op == '=' ? 0 : edit.count;
+      }
+      assertThat(changed, is(from.length + to.length - 2 * longestCommonSubsequence(from, to)));
+    }
+  }
+
+  @Test
+  public void shouldKeepADeltaOfALocalEditSmall() {
+    StringBuilder page = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      page.append("Line number ").append(i).append('\n');
+    }
+    String edited = page.toString().replace("Line number 500\n", "Line number five hundred\n");
+
+    assertThat(LineDiff.delta(page.toString(), edited, 1000), is("=500\n-1\n+Line number five hundred\n=500"));
+  }
+
+  @Test
+  public void shouldShowChangesAsAUnifiedDiff() {
+    String from = "a\nb\nc\nd\ne\nf\ng\nh\ni\nj";
+    String to = "a\nB\nc\nd\ne\nf\ng\nh\ni\nj\nk";
+
+    assertThat(LineDiff.unified(from, to, "Page@1", "Page@2", 1, 1000), is(
+      "--- Page@1\n" +
+        "+++ Page@2\n" +
+        "@@ -1,3 +1,3 @@\n" +
+        " a\n" +
+        "-b\n" +
+        "+B\n" +
+        " c\n" +
+        "@@ -10,1 +10,2 @@\n" +
+        " j\n" +
+        "+k\n"));
+  }
+
+  private static String randomText(Random random) {
+    StringBuilder text = new StringBuilder();
+    int lines = random.nextInt(10);
+    for (int i = 0; i < lines; i++) {
+      if (i > 0) {
+        text.append('\n');
+      }
+      text.append(LINES[random.nextInt(LINES.length)]);
+    }
+    return text.toString();
+  }
+
+  private static int longestCommonSubsequence(String[] a, String[] b) {
+    int[][] lengths = new int[a.length + 1][b.length + 1];
+    for (int i = 1; i <= a.length; i++) {
+      for (int j = 1; j <= b.length; j++) {
+        lengths[i][j] = a[i - 1].equals(b[j - 1]) ? lengths[i - 1][j - 1] + 1 : Math.max(lengths[i - 1][j], lengths[i][j - 1]);
+      }
+    }
+    return lengths[a.length][b.length];
+  }
+}
@@ -0,0 +1,216 @@
+package pl.mkarebski.vertx.database;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.nullValue;
+
+public class LogPageStoreTest {
+
+  private static final int HEADER = 37;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private Path directory;
+  private LogPageStore store;
+
+  @Before
+  public void open() throws IOException {
+    directory = folder.newFolder("log").toPath();
+    store = LogPageStore.open(directory, 4096, true, 0.5);
+  }
+
+  @After
+  public void close() {
+    store.close();
+  }
+
+  @Test
+  public void shouldReadBackWhatWasWrittenAfterReopening() {
+    int home = store.create("Home", "# Home", "<h1>Home</h1>\n");
+    int about = store.create("About", "about", null);
+    int draft = store.create("Draft", "draft", null);
+    assertThat(store.save(home, "# Welcome", "<h1>Welcome</h1>\n"), is(true));
+    assertThat(store.delete(draft), is(true));
+    assertThat(store.delete(draft), is(false));
+
+    reopen();
+
+    assertThat(store.names(null, 10), contains("About", "Home"));
+    Page page = store.read("Home", 1024);
+    assertThat(page.getId(), is(home));
+    assertThat(page.getMarkdown(), is("# Welcome"));
+    assertThat(page.getHtml(), is("<h1>Welcome</h1>\n"));
+    assertThat(page.getRevision(), is(2));
+    assertThat(store.read("About", 1024).getHtml(), is(nullValue()));
+    assertThat(store.read("Draft", 1024).isFound(), is(false));
+    assertThat(store.create("Draft", "again", null), is(draft + 1));
+    assertThat(store.read("About", 1024).getId(), is(about));
+  }
+
+  @Test
+  public void shouldReadChunksOfTheCurrentRevisionOnly() {
+    int id = store.create("Large", "0123456789", "<p>0123456789</p>\n");
+    Page page = store.read("Large", 4);
+
+    assertThat(page.isStreamed(), is(true));
+    assertThat(page.getLength(), is(10));
+    assertThat(store.chunk(id, 1, false, 8, 5), is("89"));
+    assertThat(store.chunk(id, 1, true, 0, 3), is("<p>"));
+    assertThat(store.chunk(id, 1, false, 20, 5), is(""));
+
+    store.save(id, "changed", null);
+    assertThat(store.chunk(id, 1, false, 0, 5), is(nullValue()));
+    assertThat(store.chunk(id, 2, true, 0, 5), is(""));
+  }
+
+  @Test
+  public void shouldApplyBatchesAllOrNothing() {
+    int existing = store.create("Existing", "old", null);
+    JsonArray operations = new JsonArray()
+      .add(new JsonObject().put("action", "create").put("name", "First").put("markdown", "one"))
+      .add(new JsonObject().put("action", "save").put("id", existing).put("markdown", "new"))
+      .add(new JsonObject().put("action", "delete").put("id", existing))
+      .add(new JsonObject().put("action", "save").put("id", existing).put("markdown", "too late"));
+
+    int[] ids = store.apply(operations, Arrays.asList(null, null, null, null));
+    assertThat(ids[0], is(existing + 1));
+    assertThat(ids[1], is(existing));
+    assertThat(ids[2], is(existing));
+    assertThat(ids[3], is(-1));
+
+    JsonArray duplicate = new JsonArray()
+      .add(new JsonObject().put("action", "create").put("name", "Second").put("markdown", "two"))
+      .add(new JsonObject().put("action", "create").put("name", "First").put("markdown", "again"));
+    try {
+      store.apply(duplicate, Arrays.asList(null, null));
+    } catch (IllegalArgumentException expected) {
+      reopen();
+      assertThat(store.names(null, 10), contains("First"));
+      return;
+    }
+    throw new AssertionError("A batch creating an existing page should fail");
+  }
+
+  @Test
+  public void shouldPutPagesByName() {
+    int existing = store.create("Existing", "old", null);
+    JsonArray puts = new JsonArray()
+      .add(new JsonObject().put("action", "put").put("name", "Existing").put("markdown", "new"))
+      .add(new JsonObject().put("action", "put").put("name", "Added").put("markdown", "added"))
+      .add(new JsonObject().put("action", "put").put("name", "Added").put("markdown", "added again"));
+
+    int[] ids = store.apply(puts, Arrays.asList(null, null, null));
+    assertThat(ids[0], is(existing));
+    assertThat(ids[1], is(existing + 1));
+    assertThat(ids[2], is(existing + 1));
+
+    reopen();
+    assertThat(store.read("Existing", 1024).getMarkdown(), is("new"));
+    assertThat(store.read("Existing", 1024).getRevision(), is(2));
+    assertThat(store.read("Added", 1024).getMarkdown(), is("added again"));
+    assertThat(store.read("Added", 1024).getRevision(), is(2));
+  }
+
+  @Test
+  public void shouldDropADamagedRecordOnRecovery() throws IOException {
+    store.create("A", "a", null);
+    store.create("B", "b", null);
+    store.close();
+    int firstLength = HEADER + 2 * 2;
+    corrupt(firstSegment(), firstLength + HEADER + 1);
+
+    store = LogPageStore.open(directory, 4096, true, 0.5);
+    assertThat(store.names(null, 10), contains("A"));
+    store.create("C", "c", null);
+
+    reopen();
+    assertThat(store.names(null, 10), contains("A", "C"));
+  }
+
+  @Test
+  public void shouldDropAnUnfinishedBatchOnRecovery() throws IOException {
+    store.create("A", "a", null);
+    store.apply(new JsonArray()
+      .add(new JsonObject().put("action", "create").put("name", "B").put("markdown", "b"))
+      .add(new JsonObject().put("action", "create").put("name", "C").put("markdown", "c")), Arrays.asList(null, null));
+    store.close();
+    int recordLength = HEADER + 2 * 2;
+    try (RandomAccessFile file = new RandomAccessFile(firstSegment().toFile(), "rw")) {
+      file.seek(2 * recordLength);
+      file.writeInt(0);
+    }
+
+    store = LogPageStore.open(directory, 4096, true, 0.5);
+    assertThat(store.names(null, 10), contains("A"));
+    store.create("D", "d", null);
+
+    reopen();
+    assertThat(store.names(null, 10), contains("A", "D"));
+  }
+
+  @Test
+  public void shouldCompactSegmentsOfDeadRecords() throws IOException {
+    int kept = store.create("Kept", "kept", null);
+    int deleted = store.create("Deleted", "deleted", null);
+    int edited = store.create("Edited", "revision 1", null);
+    for (int revision = 2; revision <= 200; revision++) {
+      store.save(edited, "revision " + revision, null);
+    }
+    store.delete(deleted);
+    long before = segmentCount();
+
+    store.maintain();
+
+    assertThat(segmentCount(), is(lessThan(before)));
+    assertThat(store.read("Kept", 1024).getMarkdown(), is("kept"));
+    reopen();
+    assertThat(store.names(null, 10), contains("Edited", "Kept"));
+    assertThat(store.read("Edited", 1024).getMarkdown(), is("revision 200"));
+    assertThat(store.read("Edited", 1024).getRevision(), is(200));
+    assertThat(store.read("Kept", 1024).getId(), is(kept));
+  }
+
+  private void reopen() {
+    store.close();
+    store = LogPageStore.open(directory, 4096, true, 0.5);
+  }
+
+  private Path firstSegment() throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      return files.filter(file -> file.getFileName().toString().startsWith("segment-")).sorted().findFirst().get();
+    }
+  }
+
+  private long segmentCount() throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      return files.filter(file -> file.getFileName().toString().startsWith("segment-")).count();
+    }
+  }
+
+  private static void corrupt(Path segment, int position) throws IOException {
+    try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+      file.seek(position);
+      int value = file.read();
+      file.seek(position);
+      file.write(value ^ 0xff);
+    }
+  }
+}
@@ -0,0 +1,29 @@
+package pl.mkarebski.vertx.database;
+
+import io.vertx.core.json.JsonObject;
+import org.junit.Rule;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/*
+ * Same scenarios with pages kept in the append-only log store instead of HSQLDB.
+ */
+public class LogStoreDatabaseCrudTest extends DatabaseCrudTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Override
+  protected JsonObject config() {
+    try {
+      return super.config()
+        .put(WikiDatabaseVerticle.CONFIG_WIKIDB_STORAGE, "log")
+        .put(WikiDatabaseVerticle.CONFIG_WIKIDB_LOG_PATH, folder.newFolder("log").getPath())
+        .put(WikiDatabaseVerticle.CONFIG_WIKIDB_LOG_SEGMENT_SIZE, 64 * 1024);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
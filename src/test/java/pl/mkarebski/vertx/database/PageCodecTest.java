@@ -0,0 +1,55 @@
+package pl.mkarebski.vertx.database;
+
+import io.vertx.core.buffer.Buffer;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+
+public class PageCodecTest {
+
+  private final PageCodec codec = new PageCodec();
+
+  @Test
+  public void shouldRoundTripPagesOverTheWire() {
+    Page page = new Page(42, "Zo\u00e9", "# Caf\u00e9 \u2615", null, 7, "2017-06-01T10:00:00Z");
+    Buffer buffer = Buffer.buffer().appendString("header");
+    codec.encodeToWire(buffer, page);
+
+    Page decoded = codec.decodeFromWire("header".length(), buffer);
+    assertThat(decoded.isFound(), is(true));
+    assertThat(decoded.getId(), is(42));
+    assertThat(decoded.getName(), is("Zo\u00e9"));
+    assertThat(decoded.getMarkdown(), is("# Caf\u00e9 \u2615"));
+    assertThat(decoded.getHtml(), is(nullValue()));
+    assertThat(decoded.getRevision(), is(7));
+    assertThat(decoded.getLastModified(), is("2017-06-01T10:00:00Z"));
+    assertThat(decoded.toJson(), is(page.toJson()));
+  }
+
+  @Test
+  public void shouldRoundTripStreamedPagesWithoutTheirContent() {
+    Page page = Page.streamed(42, "Changelog", 1_000_000, -1, 3, "2017-06-01T10:00:00Z");
+    Buffer buffer = Buffer.buffer();
+    codec.encodeToWire(buffer, page);
+
+    Page decoded = codec.decodeFromWire(0, buffer);
+    assertThat(decoded.isStreamed(), is(true));
+    assertThat(decoded.getMarkdown(), is(nullValue()));
+    assertThat(decoded.getLength(), is(1_000_000));
+    assertThat(decoded.getHtmlLength(), is(-1));
+    assertThat(decoded.getRevision(), is(3));
+  }
+
+  @Test
+  public void shouldPassLocalPagesByReference() {
+    Page missing = Page.notFound("Missing");
+    assertThat(codec.transform(missing), is(sameInstance(missing)));
+
+    Buffer buffer = Buffer.buffer();
+    codec.encodeToWire(buffer, missing);
+    assertThat(codec.decodeFromWire(0, buffer).isFound(), is(false));
+  }
+}
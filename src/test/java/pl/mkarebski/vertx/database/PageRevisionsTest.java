@@ -0,0 +1,144 @@
+package pl.mkarebski.vertx.database;
+
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+@RunWith(VertxUnitRunner.class)
+public class PageRevisionsTest {
+
+  private static final String URL = "jdbc:hsqldb:mem:revisions";
+  private static final int REVISIONS = 10;
+
+  private Vertx vertx;
+  private WikiDatabaseService dbService;
+  private Connection connection;
+
+  @Before
+  public void prepare(TestContext context) throws SQLException {
+    vertx = Vertx.vertx();
+    connection = DriverManager.getConnection(URL);
+
+    JsonObject conf = new JsonObject()
+      .put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_URL, URL)
+      .put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_MAX_POOL_SIZE, 4)
+      .put(WikiDatabaseVerticle.CONFIG_WIKIDB_REVISIONS_SNAPSHOT_INTERVAL, 4)
+      .put(WikiDatabaseVerticle.CONFIG_WIKIDB_REVISIONS_PACK_INTERVAL_MS, 50);
+    vertx.deployVerticle(WikiDatabaseVerticle.class.getName(), new DeploymentOptions().setConfig(conf), context.asyncAssertSuccess(id ->
+      dbService = WikiDatabaseService.createProxy(vertx, WikiDatabaseVerticle.CONFIG_WIKIDB_QUEUE)));
+  }
+
+  @Test
+  public void shouldKeepEveryRevisionAsDeltasBetweenSnapshots(TestContext context) throws Exception {
+    Async saved = context.async();
+    dbService.createPage("History", markdown(1), context.asyncAssertSuccess(created ->
+      dbService.fetchPage("History", context.asyncAssertSuccess(page -> {
+        Future<Void> saves = Future.succeededFuture();
+        for (int revision = 2; revision <= REVISIONS; revision++) {
+          int next = revision;
+          saves = saves.compose(previous -> {
+            Future<Void> save = Future.future();
+            dbService.savePage(page.getInteger("id"), markdown(next), save.completer());
+            return save;
+          });
+        }
+        saves.setHandler(context.asyncAssertSuccess(done -> saved.complete()));
+      }))));
+    saved.awaitSuccess(5000);
+
+    waitUntilPacked();
+    assertThat(kinds(), is("SDDDSDDDSD"));
+
+    Async async = context.async();
+    dbService.fetchPageRevisions("History", context.asyncAssertSuccess(revisions -> {
+      assertThat(revisions.size(), is(REVISIONS));
+      assertThat(revisions.getJsonObject(0).getInteger("revision"), is(REVISIONS));
+      assertThat(revisions.getJsonObject(0).getString("lastModified"), is(notNullValue()));
+
+      dbService.fetchPageRevision("History", 7, context.asyncAssertSuccess(seventh -> {
+        assertThat(seventh.getBoolean("found"), is(true));
+        assertThat(seventh.getString("markdown"), is(markdown(7)));
+
+        dbService.diffPageRevisions("History", 2, 3, context.asyncAssertSuccess(diff -> {
+          assertThat(diff.getString("diff"), containsString("-Edit 2\n+Edit 3\n"));
+
+          dbService.fetchPageRevision("History", REVISIONS + 1, context.asyncAssertSuccess(missing -> {
+            assertThat(missing.getBoolean("found"), is(false));
+            async.complete();
+          }));
+        }));
+      }));
+    }));
+    async.awaitSuccess(5000);
+  }
+
+  @Test
+  public void shouldDropTheHistoryOfADeletedPage(TestContext context) throws Exception {
+    Async async = context.async();
+    dbService.createPage("Gone", "first", context.asyncAssertSuccess(created ->
+      dbService.fetchPage("Gone", context.asyncAssertSuccess(page ->
+        dbService.savePage(page.getInteger("id"), "second", context.asyncAssertSuccess(saved ->
+          dbService.deletePage(page.getInteger("id"), context.asyncAssertSuccess(deleted ->
+            dbService.fetchPageRevisions("Gone", context.asyncAssertSuccess(revisions -> {
+              assertThat(revisions.isEmpty(), is(true));
+              async.complete();
+            }))))))))));
+    async.awaitSuccess(5000);
+
+    assertThat(kinds(), is(""));
+  }
+
+  private void waitUntilPacked() throws Exception {
+    for (int attempt = 0; attempt < 100 && kinds().contains("F"); attempt++) {
+      Thread.sleep(50);
+    }
+  }
+
+  private String kinds() throws SQLException {
+    StringBuilder kinds = new StringBuilder();
+    try (Statement statement = connection.createStatement();
+         ResultSet rows = statement.executeQuery("select Kind from Revisions order by PageId, Revision")) {
+      while (rows.next()) {
+        kinds.append(rows.getString(1));
+      }
+    }
+    return kinds.toString();
+  }
+
+  /*
+   * Long enough that a one-line delta is smaller than the whole page.
+   */
+  private static String markdown(int revision) {
+    StringBuilder markdown = new StringBuilder("# History\n\n");
+    for (int line = 0; line < 20; line++) {
+      markdown.append("Unchanged line ").append(line).append('\n');
+    }
+    return markdown.append("Edit ").append(revision).append('\n').toString();
+  }
+
+  @After
+  public void finish(TestContext context) throws SQLException {
+    vertx.close(context.asyncAssertSuccess());
+    try (Statement statement = connection.createStatement()) {
+      statement.execute("shutdown");
+    }
+    connection.close();
+  }
+}
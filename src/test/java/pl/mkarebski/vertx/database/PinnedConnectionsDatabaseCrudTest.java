@@ -0,0 +1,30 @@
+package pl.mkarebski.vertx.database;
+
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.TestContext;
+import org.junit.Test;
+import pl.mkarebski.vertx.metrics.Metrics;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+
+/*
+ * Same scenarios with page reads going through pinned connections, a small statement cache and a bounded wait
+ * for pooled connections.
+ */
+public class PinnedConnectionsDatabaseCrudTest extends DatabaseCrudTest {
+
+  @Override
+  protected JsonObject config() {
+    return super.config()
+      .put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_PINNED_CONNECTIONS, 2)
+      .put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_MIN_POOL_SIZE, 1)
+      .put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_STATEMENT_CACHE_SIZE, 8)
+      .put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_ACQUIRE_TIMEOUT_MS, 2000);
+  }
+
+  @Test
+  public void shouldKeepPinnedConnectionsOpen(TestContext context) {
+    assertThat(Metrics.shared(vertx).scrape(), containsString("wiki_db_connections_pinned 2\n"));
+  }
+}
@@ -0,0 +1,160 @@
+package pl.mkarebski.vertx.database;
+
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+/*
+ * The replicas are separate in-memory databases that never receive the primary's writes, so which database
+ * answered a read shows in the content returned. Every test gets databases of its own.
+ */
+@RunWith(VertxUnitRunner.class)
+public class ReadReplicaTest {
+
+  private static final AtomicInteger TESTS = new AtomicInteger();
+  private static final long READ_YOUR_WRITES_MS = 300;
+
+  private Vertx vertx;
+  private WikiDatabaseService dbService;
+  private String[] replicaUrls;
+
+  @Before
+  public void prepare(TestContext context) throws Exception {
+    vertx = Vertx.vertx();
+
+    int test = TESTS.incrementAndGet();
+    replicaUrls = new String[]{"jdbc:hsqldb:mem:replica1_" + test, "jdbc:hsqldb:mem:replica2_" + test};
+    JsonObject conf = new JsonObject()
+      .put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_URL, "jdbc:hsqldb:mem:primary_" + test + ";shutdown=true")
+      .put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_MAX_POOL_SIZE, 4)
+      .put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_READ_URLS, new JsonArray().add(replicaUrls[0]).add(replicaUrls[1]))
+      .put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_READ_YOUR_WRITES_MS, READ_YOUR_WRITES_MS);
+
+    Async seeded = context.async();
+    vertx.deployVerticle(WikiDatabaseVerticle.class.getName(), new DeploymentOptions().setConfig(conf), context.asyncAssertSuccess(id -> {
+      dbService = WikiDatabaseService.createProxy(vertx, WikiDatabaseVerticle.CONFIG_WIKIDB_QUEUE);
+      dbService.createPage("Replicated", "primary", context.asyncAssertSuccess(created ->
+        dbService.fetchPage("Replicated", context.asyncAssertSuccess(page -> {
+          assertThat(page.getString("rawContent"), is("primary"));
+          vertx.executeBlocking(future -> {
+            try {
+              for (int i = 0; i < replicaUrls.length; i++) {
+                seedReplica(replicaUrls[i], page.getInteger("id"), "replica " + (i + 1));
+              }
+              future.complete();
+            } catch (Exception e) {
+              future.fail(e);
+            }
+          }, context.asyncAssertSuccess(done -> seeded.complete()));
+        }))
+      ));
+    }));
+    seeded.awaitSuccess(5000);
+  }
+
+  @Test
+  public void shouldSpreadReadsOverTheReplicas(TestContext context) {
+    Async async = context.async();
+    Set<String> contents = new HashSet<>();
+
+    vertx.setTimer(READ_YOUR_WRITES_MS + 100, waited ->
+      dbService.fetchPage("Replicated", context.asyncAssertSuccess(first -> {
+        contents.add(first.getString("rawContent"));
+        dbService.fetchPage("Replicated", context.asyncAssertSuccess(second -> {
+          contents.add(second.getString("rawContent"));
+          assertThat(contents, containsInAnyOrder("replica 1", "replica 2"));
+
+          dbService.fetchAllPages(context.asyncAssertSuccess(names -> {
+            assertThat(names, is(new JsonArray().add("Replicated")));
+            async.complete();
+          }));
+        }));
+      }))
+    );
+    async.awaitSuccess(5000);
+  }
+
+  @Test
+  public void shouldReadRecentWritesFromThePrimary(TestContext context) {
+    Async async = context.async();
+
+    vertx.setTimer(READ_YOUR_WRITES_MS + 100, waited ->
+      dbService.fetchPage("Replicated", context.asyncAssertSuccess(replicated -> {
+        assertThat(replicated.getString("rawContent"), startsWith("replica"));
+
+        dbService.savePage(replicated.getInteger("id"), "saved", context.asyncAssertSuccess(saved ->
+          dbService.fetchPage("Replicated", context.asyncAssertSuccess(afterSave -> {
+            assertThat(afterSave.getString("rawContent"), is("saved"));
+
+            dbService.createPage("Fresh", "new", context.asyncAssertSuccess(created ->
+              dbService.fetchPage("Fresh", context.asyncAssertSuccess(fresh -> {
+                assertThat(fresh.getBoolean("found"), is(true));
+
+                dbService.fetchAllPages(context.asyncAssertSuccess(names -> {
+                  assertThat(names, is(new JsonArray().add("Fresh").add("Replicated")));
+
+                  vertx.setTimer(READ_YOUR_WRITES_MS + 100, expired ->
+                    dbService.fetchPage("Replicated", context.asyncAssertSuccess(stale -> {
+                      assertThat(stale.getString("rawContent"), startsWith("replica"));
+                      async.complete();
+                    }))
+                  );
+                }));
+              }))
+            ));
+          }))
+        ));
+      }))
+    );
+    async.awaitSuccess(5000);
+  }
+
+  @After
+  public void finish(TestContext context) throws SQLException {
+    Async closed = context.async();
+    vertx.close(context.asyncAssertSuccess(done -> closed.complete()));
+    closed.awaitSuccess(5000);
+    for (String url : replicaUrls) {
+      try (Connection connection = DriverManager.getConnection(url)) {
+        connection.createStatement().execute("shutdown");
+      }
+    }
+  }
+
+  private static void seedReplica(String url, int id, String content) throws Exception {
+    Properties queries = new Properties();
+    try (InputStream in = ReadReplicaTest.class.getResourceAsStream("/db-queries.properties")) {
+      queries.load(in);
+    }
+    try (Connection connection = DriverManager.getConnection(url)) {
+      connection.createStatement().execute(queries.getProperty("sql.create.db"));
+      try (PreparedStatement insert = connection.prepareStatement("insert into Pages (Id, Name, Content) values (?, ?, ?)")) {
+        insert.setInt(1, id);
+        insert.setString(2, "Replicated");
+        insert.setString(3, content);
+        insert.executeUpdate();
+      }
+    }
+  }
+}
@@ -0,0 +1,115 @@
+package pl.mkarebski.vertx.database;
+
+import io.vertx.core.json.JsonArray;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class SearchIndexTest {
+
+  @Test
+  public void shouldRankNameMatchesAndRarerTermsFirst() {
+    SearchIndex index = new SearchIndex();
+    index.put(1, "Deployment", "How to deploy a verticle");
+    index.put(2, "Verticles", "What a verticle is");
+    index.put(3, "Notes", "verticle verticle and deployment notes");
+
+    JsonArray results = index.search("Deployment", 10);
+    assertThat(results.size(), is(2));
+    assertThat(results.getJsonObject(0).getString("name"), is("Deployment"));
+
+    assertThat(index.search("verticle", 2).size(), is(2));
+    assertThat(index.search("missing", 10).isEmpty(), is(true));
+  }
+
+  @Test
+  public void shouldForgetTheTermsOfUpdatedAndRemovedPages() {
+    SearchIndex index = new SearchIndex();
+    index.put(2000, "Large id", "first version");
+    index.update(2000, "second version");
+
+    assertThat(index.search("first", 10).isEmpty(), is(true));
+    assertThat(index.search("second", 10).getJsonObject(0).getString("name"), is("Large id"));
+
+    index.remove(2000);
+    assertThat(index.search("second", 10).isEmpty(), is(true));
+    assertThat(index.size(), is(0));
+  }
+
+  @Test
+  public void shouldNotAddBackAPageRemovedWhileItsUpdateWasTokenized() throws InterruptedException {
+    SearchIndex index = new SearchIndex();
+    index.put(7, "Deleted", "first version");
+
+    // the update has tokenized its content and waits for the lock while the page is removed
+    index.lock.writeLock().lock();
+    Thread update = new Thread(() -> index.update(7, "second version"));
+    try {
+      update.start();
+      while (!index.lock.hasQueuedThread(update)) {
+        Thread.sleep(1);
+      }
+      index.remove(7);
+    } finally {
+      index.lock.writeLock().unlock();
+    }
+    update.join(5000);
+
+    assertThat(update.isAlive(), is(false));
+    assertThat(index.size(), is(0));
+    assertThat(index.search("second deleted", 10).isEmpty(), is(true));
+  }
+
+  @Test
+  public void shouldKeepPagesInSlotsAsManyAsThePages() {
+    SearchIndex index = new SearchIndex();
+    index.put(1_000_000, "Far", "far away");
+    index.put(2_000_000, "Further", "further away");
+    index.remove(1_000_000);
+    index.put(3_000_000, "Furthest", "furthest away");
+
+    assertThat(index.capacity(), is(2));
+    assertThat(index.size(), is(2));
+    assertThat(index.search("away", 10).size(), is(2));
+    assertThat(index.search("far", 10).isEmpty(), is(true));
+    assertThat(index.search("furthest", 10).getJsonObject(0).getString("name"), is("Furthest"));
+
+    // enough pages for the id table to grow, then every other one deleted and replaced
+    for (int i = 0; i < 200; i++) {
+      index.put(i * 1024, "Page " + i, "numbered page" + (i % 2 == 0 ? " even" : ""));
+    }
+    for (int i = 0; i < 200; i += 2) {
+      index.remove(i * 1024);
+    }
+    for (int i = 0; i < 100; i++) {
+      index.put(-1 - i, "Replacement " + i, "replacement page");
+    }
+    assertThat(index.capacity(), is(202));
+    assertThat(index.size(), is(202));
+    assertThat(index.search("even", 10).isEmpty(), is(true));
+    assertThat(index.search("numbered", 200).size(), is(100));
+    assertThat(index.search("replacement", 200).size(), is(100));
+
+    index.update(1024, "renamed content");
+    assertThat(index.search("renamed", 10).getJsonObject(0).getString("name"), is("Page 1"));
+  }
+
+  @Test
+  public void shouldLetAnotherBuildStartOnceOneIsAbandoned() {
+    SearchIndex index = new SearchIndex();
+    assertThat(index.claimBuild(), is(true));
+    assertThat(index.claimBuild(), is(false));
+    index.put(7, "Half", "half built");
+
+    index.abandonBuild();
+    assertThat(index.needsBuild(), is(true));
+    assertThat(index.size(), is(0));
+    assertThat(index.search("half", 10).isEmpty(), is(true));
+
+    assertThat(index.claimBuild(), is(true));
+    index.put(7, "Whole", "whole build");
+    assertThat(index.needsBuild(), is(false));
+    assertThat(index.search("whole", 10).getJsonObject(0).getString("name"), is("Whole"));
+  }
+}
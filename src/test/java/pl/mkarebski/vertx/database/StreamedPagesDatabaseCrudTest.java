@@ -0,0 +1,54 @@
+package pl.mkarebski.vertx.database;
+
+import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+/*
+ * Same scenarios with every page longer than 16 characters left out of page reads, to be read in chunks.
+ */
+public class StreamedPagesDatabaseCrudTest extends DatabaseCrudTest {
+
+  @Override
+  protected JsonObject config() {
+    return super.config()
+      .put(WikiDatabaseVerticle.CONFIG_WIKIDB_PAGE_INLINE_MAX_CHARS, 16);
+  }
+
+  @Test
+  public void shouldReadLargePagesInChunks(TestContext context) {
+    Async async = context.async();
+    PageClient pages = PageClient.create(vertx, WikiDatabaseVerticle.CONFIG_WIKIDB_PAGE_QUEUE);
+
+    dbService.createPage("Large", "A page longer than the inline limit", context.asyncAssertSuccess(created ->
+      pages.fetchPage("Large", context.asyncAssertSuccess(page -> {
+        assertThat(page.isStreamed(), is(true));
+        assertThat(page.getMarkdown(), is(nullValue()));
+        assertThat(page.getLength(), is(35));
+        assertThat(page.getHtmlLength(), is("<p>A page longer than the inline limit</p>\n".length()));
+
+        dbService.fetchPageChunk(page.getId(), page.getRevision(), false, 30, 10, context.asyncAssertSuccess(markdown -> {
+          assertThat(markdown, is("limit"));
+
+          dbService.fetchPageChunk(page.getId(), page.getRevision(), true, 0, 9, context.asyncAssertSuccess(html -> {
+            assertThat(html, is("<p>A page"));
+
+            dbService.savePage(page.getId(), "Changed", context.asyncAssertSuccess(saved ->
+              dbService.fetchPageChunk(page.getId(), page.getRevision(), false, 0, 10, context.asyncAssertFailure(stale -> {
+                assertThat(((ReplyException) stale).failureCode(), is(ErrorCodes.STALE_REVISION.ordinal()));
+                async.complete();
+              }))
+            ));
+          }));
+        }));
+      }))
+    ));
+    async.awaitSuccess(2000);
+  }
+}
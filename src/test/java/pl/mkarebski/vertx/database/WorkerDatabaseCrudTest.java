@@ -0,0 +1,14 @@
+package pl.mkarebski.vertx.database;
+
+import io.vertx.core.DeploymentOptions;
+
+/*
+ * Same scenarios with several service instances consuming the queue from a multi-threaded worker.
+ */
+public class WorkerDatabaseCrudTest extends DatabaseCrudTest {
+
+  @Override
+  protected DeploymentOptions deploymentOptions() {
+    return new DeploymentOptions().setInstances(3).setWorker(true).setMultiThreaded(true);
+  }
+}
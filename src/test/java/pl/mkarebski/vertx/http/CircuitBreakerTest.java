@@ -0,0 +1,92 @@
+package pl.mkarebski.vertx.http;
+
+import org.junit.Test;
+import pl.mkarebski.vertx.metrics.Counter;
+import pl.mkarebski.vertx.metrics.Metrics;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class CircuitBreakerTest {
+
+  private static final long SECOND = 1_000_000_000L;
+
+  private final Counter trips = new Metrics().counter("wiki_test_trips_total", "Test counter");
+  private final CircuitBreaker breaker = new CircuitBreaker(0.5, 4, 10_000, 5_000, trips);
+
+  @Test
+  public void shouldStayClosedBelowTheMinimumNumberOfRequests() {
+    long now = System.nanoTime();
+    for (int i = 0; i < 3; i++) {
+      assertThat(breaker.allow(now), is(true));
+      breaker.failure(now);
+    }
+    assertThat(breaker.isOpen(), is(false));
+    assertThat(trips.count(), is(0L));
+  }
+
+  @Test
+  public void shouldOpenWhenTheFailureRatioIsReached() {
+    long now = System.nanoTime();
+    breaker.success(now);
+    breaker.failure(now);
+    breaker.success(now);
+    breaker.failure(now);
+
+    assertThat(breaker.isOpen(), is(true));
+    assertThat(breaker.allow(now), is(false));
+    assertThat(breaker.retryAfterSeconds(now), is(5L));
+    assertThat(breaker.retryAfterSeconds(now + 4 * SECOND + 1), is(1L));
+    assertThat(trips.count(), is(1L));
+  }
+
+  @Test
+  public void shouldForgetFailuresFromAnEarlierWindow() {
+    long now = System.nanoTime();
+    breaker.failure(now);
+    breaker.failure(now);
+    breaker.failure(now);
+    now += 11 * SECOND;
+    breaker.failure(now);
+    breaker.success(now);
+    breaker.success(now);
+    breaker.success(now);
+
+    assertThat(breaker.isOpen(), is(false));
+  }
+
+  @Test
+  public void shouldLetOneTrialRequestThroughAfterTheOpenPeriod() {
+    long now = System.nanoTime();
+    open(now);
+    now += 5 * SECOND;
+
+    assertThat(breaker.allow(now), is(true));
+    assertThat(breaker.allow(now), is(false));
+    breaker.success(now);
+
+    assertThat(breaker.isOpen(), is(false));
+    assertThat(breaker.allow(now), is(true));
+  }
+
+  @Test
+  public void shouldReopenWhenTheTrialRequestFails() {
+    long now = System.nanoTime();
+    open(now);
+    now += 5 * SECOND;
+
+    assertThat(breaker.allow(now), is(true));
+    breaker.failure(now);
+
+    assertThat(breaker.allow(now), is(false));
+    assertThat(breaker.retryAfterSeconds(now), is(5L));
+    assertThat(trips.count(), is(2L));
+  }
+
+  private void open(long now) {
+    for (int i = 0; i < 4; i++) {
+      breaker.failure(now);
+    }
+    assertThat(breaker.isOpen(), is(true));
+  }
+}
@@ -0,0 +1,48 @@
+package pl.mkarebski.vertx.http;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+public class ContentEncodingTest {
+
+  @Test
+  public void shouldReadAcceptEncodingQualities() {
+    assertThat(ContentEncoding.acceptsGzip("gzip, deflate, br"), is(true));
+    assertThat(ContentEncoding.acceptsGzip("deflate;q=1.0, GZIP;q=0.5"), is(true));
+    assertThat(ContentEncoding.acceptsGzip("gzip;q=0, *"), is(false));
+    assertThat(ContentEncoding.acceptsGzip("br, *;q=0.1"), is(true));
+    assertThat(ContentEncoding.acceptsGzip("identity"), is(false));
+    assertThat(ContentEncoding.acceptsGzip((String) null), is(false));
+  }
+
+  @Test
+  public void shouldGzipBodiesThatDecompressToTheSameBytes() throws IOException {
+    StringBuilder html = new StringBuilder();
+    for (int i = 0; i < 500; i++) {
+      html.append("<p>Paragraph ").append(i).append(" of a rendered page</p>\n");
+    }
+    byte[] body = html.toString().getBytes(StandardCharsets.UTF_8);
+
+    byte[] gzip = ContentEncoding.gzip(body);
+    assertThat(gzip.length, is(lessThan(body.length / 4)));
+
+    ByteArrayOutputStream inflated = new ByteArrayOutputStream();
+    try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(gzip))) {
+      byte[] buffer = new byte[4096];
+      for (int n; (n = in.read(buffer)) > 0; ) {
+        inflated.write(buffer, 0, n);
+      }
+    }
+    assertThat(inflated.toByteArray(), is(body));
+  }
+}
@@ -0,0 +1,41 @@
+package pl.mkarebski.vertx.http;
+
+import com.github.rjeschke.txtmark.Processor;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class MarkdownBlocksTest {
+
+  @Test
+  public void shouldRenderLikeTheWholeDocumentWhateverTheChunking() {
+    String markdown = "# Changelog\n\n" +
+      "## 1.1\n\n" +
+      "* fixed the cache\n\n" +
+      "* faster saves\n\n" +
+      "Some *notes*\non two lines.\n\n" +
+      "    code\n\n" +
+      "    more code\n\n" +
+      "1. one\n\n" +
+      "2. two\n\n" +
+      "The end.\n";
+
+    for (int size = 1; size <= markdown.length(); size++) {
+      MarkdownBlocks blocks = new MarkdownBlocks(1024);
+      StringBuilder html = new StringBuilder();
+      for (int i = 0; i < markdown.length(); i += size) {
+        html.append(blocks.append(markdown.substring(i, Math.min(markdown.length(), i + size))));
+      }
+      html.append(blocks.finish());
+      assertThat("chunks of " + size, html.toString().replace("\n", ""), is(Processor.process(markdown).replace("\n", "")));
+    }
+  }
+
+  @Test
+  public void shouldNotHoldMoreThanTheLimitWithoutBlankLines() {
+    MarkdownBlocks blocks = new MarkdownBlocks(16);
+    assertThat(blocks.append("no blank lines\nin this"), is("<p>no blank lines</p>\n"));
+    assertThat(blocks.finish(), is("<p>in this</p>\n"));
+  }
+}
@@ -0,0 +1,47 @@
+package pl.mkarebski.vertx.http;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class NdjsonReaderTest {
+
+  @Test
+  public void shouldReadTheSameObjectsWhateverTheChunking() {
+    byte[] body = "{\"name\":\"Za\u017c\u00f3\u0142\u0107\",\"markdown\":\"g\u0119\u015bl\u0105\"}\n\r\n{\"name\":\"B\",\"markdown\":\"b\"}\r\n{\"name\":\"C\",\"markdown\":\"\\n\"}"
+      .getBytes(StandardCharsets.UTF_8);
+
+    for (int size = 1; size <= body.length; size++) {
+      NdjsonReader reader = new NdjsonReader(1024);
+      List<JsonObject> objects = new ArrayList<>();
+      for (int i = 0; i < body.length; i += size) {
+        objects.addAll(reader.append(Buffer.buffer().appendBytes(body, i, Math.min(size, body.length - i))));
+      }
+      objects.addAll(reader.finish());
+      assertThat("chunks of " + size, objects.size(), is(3));
+      assertThat(objects.get(0).getString("name"), is("Za\u017c\u00f3\u0142\u0107"));
+      assertThat(objects.get(0).getString("markdown"), is("g\u0119\u015bl\u0105"));
+      assertThat(objects.get(2).getString("markdown"), is("\n"));
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldRefuseALineLongerThanTheLimitBeforeItEnds() {
+    NdjsonReader reader = new NdjsonReader(16);
+    reader.append(Buffer.buffer("{\"name\":\"A\"}\n"));
+    reader.append(Buffer.buffer("{\"name\":\"a long"));
+    reader.append(Buffer.buffer(" name\""));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldRefuseALineThatIsNotAnObject() {
+    new NdjsonReader(1024).append(Buffer.buffer("[1, 2]\n"));
+  }
+}
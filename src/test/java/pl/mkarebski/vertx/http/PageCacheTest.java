@@ -0,0 +1,78 @@
+package pl.mkarebski.vertx.http;
+
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+
+public class PageCacheTest {
+
+  /*
+   * Every entry weighs 100 bytes: 36 of HTML and the fixed overhead of 64.
+   */
+  private static final int ENTRY_BYTES = 100;
+
+  @Test
+  public void shouldEvictTheLeastRecentlyReadPagesFirst() {
+    PageCache cache = new PageCache(3 * ENTRY_BYTES);
+    cache.put("A", entry(1), cache.stamp());
+    cache.put("B", entry(2), cache.stamp());
+    cache.put("C", entry(3), cache.stamp());
+
+    assertThat(cache.get("A"), is(notNullValue()));
+    cache.put("D", entry(4), cache.stamp());
+
+    assertThat(cache.get("B"), is(nullValue()));
+    assertThat(cache.get("A"), is(notNullValue()));
+    assertThat(cache.get("C"), is(notNullValue()));
+    assertThat(cache.get("D"), is(notNullValue()));
+    assertThat(cache.stats().getLong("evictions"), is(1L));
+  }
+
+  @Test
+  public void shouldKeepTheCachedBytesWithinTheBudget() {
+    PageCache cache = new PageCache(2 * ENTRY_BYTES + ENTRY_BYTES / 2);
+    cache.put("A", entry(1), cache.stamp());
+    cache.put("B", new PageCache.Entry(2, "\"2.1\"", null, new byte[36], new byte[10]), cache.stamp());
+    assertThat(cache.stats().getLong("usedBytes"), is(2L * ENTRY_BYTES + 10));
+
+    cache.put("C", entry(3), cache.stamp());
+    assertThat(cache.stats().getInteger("entries"), is(2));
+    assertThat(cache.stats().getLong("usedBytes"), is(2L * ENTRY_BYTES + 10));
+    assertThat(cache.get("A"), is(nullValue()));
+
+    cache.put("Huge", new PageCache.Entry(4, "\"4.1\"", null, new byte[3 * ENTRY_BYTES], null), cache.stamp());
+    assertThat(cache.get("Huge"), is(nullValue()));
+    assertThat(cache.stats().getInteger("entries"), is(2));
+
+    cache.put("C", entry(3), cache.stamp());
+    assertThat(cache.stats().getLong("usedBytes"), is(2L * ENTRY_BYTES + 10));
+  }
+
+  @Test
+  public void shouldNotCachePagesReadBeforeAnInvalidation() {
+    PageCache cache = new PageCache(10 * ENTRY_BYTES);
+    long before = cache.stamp();
+    cache.put("A", entry(1), before);
+
+    cache.invalidate("B");
+    cache.put("B", entry(2), before);
+    assertThat(cache.get("B"), is(nullValue()));
+    assertThat(cache.get("A"), is(notNullValue()));
+
+    cache.put("B", entry(2), cache.stamp());
+    cache.invalidate(1);
+    assertThat(cache.get("A"), is(nullValue()));
+    assertThat(cache.get("B"), is(notNullValue()));
+
+    cache.invalidate("B");
+    assertThat(cache.get("B"), is(nullValue()));
+    assertThat(cache.stats().getLong("usedBytes"), is(0L));
+  }
+
+  private static PageCache.Entry entry(int id) {
+    return new PageCache.Entry(id, "\"" + id + ".1\"", null, new byte[ENTRY_BYTES - 64], null);
+  }
+}
@@ -0,0 +1,53 @@
+package pl.mkarebski.vertx.http;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import org.junit.Test;
+import pl.mkarebski.vertx.metrics.Counter;
+import pl.mkarebski.vertx.metrics.Metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+
+public class SingleFlightTest {
+
+  private final Counter coalesced = new Metrics().counter("wiki_test_coalesced_total", "Test counter");
+  private final SingleFlight<String, String> flights = new SingleFlight<>(coalesced);
+
+  @Test
+  public void shouldShareOneCallBetweenConcurrentCallersOfTheSameKey() {
+    List<Handler<AsyncResult<String>>> calls = new ArrayList<>();
+    List<String> results = new ArrayList<>();
+
+    flights.run("Home", calls::add, ar -> results.add("first " + ar.result()));
+    flights.run("Home", calls::add, ar -> results.add("second " + ar.result()));
+    flights.run("About", calls::add, ar -> results.add("third " + ar.result()));
+    assertThat(calls.size(), is(2));
+    assertThat(coalesced.count(), is(1L));
+
+    calls.get(0).handle(Future.succeededFuture("home"));
+    calls.get(1).handle(Future.succeededFuture("about"));
+    assertThat(results, contains("first home", "second home", "third about"));
+    assertThat(flights.size(), is(0));
+  }
+
+  @Test
+  public void shouldStartAnotherCallOnceTheFirstIsOver() {
+    List<Handler<AsyncResult<String>>> calls = new ArrayList<>();
+    List<Boolean> failed = new ArrayList<>();
+
+    flights.run("Home", calls::add, ar -> failed.add(ar.failed()));
+    calls.get(0).handle(Future.failedFuture("boom"));
+    flights.run("Home", calls::add, ar -> failed.add(ar.failed()));
+    calls.get(1).handle(Future.succeededFuture("home"));
+
+    assertThat(calls.size(), is(2));
+    assertThat(failed, contains(true, false));
+    assertThat(coalesced.count(), is(0L));
+  }
+}
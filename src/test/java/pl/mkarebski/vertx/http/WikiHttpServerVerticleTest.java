@@ -0,0 +1,278 @@
+package pl.mkarebski.vertx.http;
+
+import com.github.rjeschke.txtmark.Processor;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.MultiMap;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientRequest;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import pl.mkarebski.vertx.database.WikiDatabaseService;
+import pl.mkarebski.vertx.database.WikiDatabaseVerticle;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+/*
+ * The page routes over HTTP, with a database verticle that leaves pages longer than 64 characters out of page reads
+ * and an HTTP verticle that streams those 16 characters at a time.
+ */
+@RunWith(VertxUnitRunner.class)
+public class WikiHttpServerVerticleTest {
+
+  private static final int PORT = 18094;
+  private static final AtomicInteger TESTS = new AtomicInteger();
+
+  private Vertx vertx;
+  private HttpClient client;
+  private WikiDatabaseService dbService;
+
+  @Before
+  public void prepare(TestContext context) {
+    vertx = Vertx.vertx();
+    client = vertx.createHttpClient();
+    dbService = WikiDatabaseService.createProxy(vertx, WikiDatabaseVerticle.CONFIG_WIKIDB_QUEUE);
+
+    JsonObject conf = new JsonObject()
+      .put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_URL, "jdbc:hsqldb:mem:http" + TESTS.incrementAndGet() + ";shutdown=true")
+      .put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_MAX_POOL_SIZE, 4)
+      .put(WikiDatabaseVerticle.CONFIG_WIKIDB_PAGE_INLINE_MAX_CHARS, 64)
+      .put(WikiHttpServerVerticle.CONFIG_HTTP_SERVER_PORT, PORT)
+      .put(WikiHttpServerVerticle.CONFIG_HTTP_PAGE_STREAM_CHUNK_CHARS, 16);
+
+    Async deployed = context.async();
+    vertx.deployVerticle(WikiDatabaseVerticle.class.getName(), new DeploymentOptions().setConfig(conf), context.asyncAssertSuccess(db ->
+      vertx.deployVerticle(WikiHttpServerVerticle.class.getName(), new DeploymentOptions().setConfig(conf),
+        context.asyncAssertSuccess(http -> deployed.complete()))));
+    deployed.awaitSuccess(10000);
+  }
+
+  @After
+  public void finish(TestContext context) {
+    vertx.close(context.asyncAssertSuccess());
+  }
+
+  @Test
+  public void shouldStreamALargePageAsItWouldHaveBeenRendered() throws Exception {
+    StringBuilder markdown = new StringBuilder("# Za\u017c\u00f3\u0142\u0107 g\u0119\u015bl\u0105 ja\u017a\u0144\n");
+    for (int i = 0; i < 20; i++) {
+      markdown.append("\nParagraph ").append(i).append(" is *long* enough to be read in more than one chunk.\n");
+    }
+    save("Large", markdown.toString());
+    save("Small", "Short");
+
+    Response streamed = get("/wiki/Large", MultiMap.caseInsensitiveMultiMap());
+    assertThat(streamed.status, is(200));
+    assertThat(streamed.headers.get("Transfer-Encoding"), is("chunked"));
+    assertThat(streamed.headers.get("Content-Length"), is(nullValue()));
+    assertThat(streamed.body.toString("UTF-8"), is(rendered("Large", streamed.headers.get("Last-Modified"))));
+
+    Response inline = get("/wiki/Small", MultiMap.caseInsensitiveMultiMap());
+    assertThat(inline.status, is(200));
+    assertThat(inline.headers.get("Content-Length"), is(String.valueOf(inline.body.length())));
+    assertThat(inline.body.toString("UTF-8"), is(rendered("Small", inline.headers.get("Last-Modified"))));
+  }
+
+  @Test
+  public void shouldAnswerAConditionalGetOfAnUncachedPageWithoutRenderingIt() throws Exception {
+    save("Known", "Already *seen*");
+    JsonObject page = fetch("Known");
+    String etag = "\"" + page.getInteger("id") + "." + page.getInteger("revision") + "\"";
+
+    Response notModified = get("/wiki/Known", MultiMap.caseInsensitiveMultiMap().add("If-None-Match", etag));
+    assertThat(notModified.status, is(304));
+    assertThat(notModified.headers.get("ETag"), is("W/" + etag));
+    assertThat(cacheStats().getInteger("entries"), is(0));
+
+    Response rendered = get("/wiki/Known", MultiMap.caseInsensitiveMultiMap());
+    assertThat(rendered.status, is(200));
+    assertThat(rendered.headers.get("ETag"), is("W/" + etag));
+  }
+
+  @Test
+  public void shouldAnswerEitherValidatorWithAnEmptyNotModified() throws Exception {
+    save("Validated", "Checked *twice*");
+    Response first = get("/wiki/Validated", MultiMap.caseInsensitiveMultiMap());
+    String etag = first.headers.get("ETag");
+    String lastModified = first.headers.get("Last-Modified");
+    awaitCachedPages(1);
+
+    for (String validator : new String[]{"If-None-Match", "If-Modified-Since"}) {
+      Response notModified = get("/wiki/Validated", MultiMap.caseInsensitiveMultiMap()
+        .add(validator, validator.equals("If-None-Match") ? etag : lastModified));
+      assertThat(validator, notModified.status, is(304));
+      assertThat(validator, notModified.body.length(), is(0));
+      assertThat(validator, notModified.headers.get("ETag"), is(etag));
+      assertThat(validator, notModified.headers.get("Last-Modified"), is(lastModified));
+      assertThat(validator, notModified.headers.get("Cache-Control"), is("no-cache"));
+    }
+
+    Response stale = get("/wiki/Validated", MultiMap.caseInsensitiveMultiMap().add("If-None-Match", "\"0.0\""));
+    assertThat(stale.status, is(200));
+    assertThat(stale.body, is(first.body));
+    Response older = get("/wiki/Validated", MultiMap.caseInsensitiveMultiMap()
+      .add("If-Modified-Since", "Thu, 01 Jan 1970 00:00:00 GMT"));
+    assertThat(older.status, is(200));
+
+    // once the page has changed, the same validators no longer match, and a 304 from the page's new revision is
+    // answered before it is rendered and cached again
+    int id = fetch("Validated").getInteger("id");
+    edit("Validated", id, "Checked *again*");
+    Response changed = get("/wiki/Validated", MultiMap.caseInsensitiveMultiMap().add("If-None-Match", etag));
+    assertThat(changed.status, is(200));
+    awaitCachedPages(1);
+    edit("Validated", id, "Checked *a third time*");
+    Response uncached = get("/wiki/Validated", MultiMap.caseInsensitiveMultiMap().add("If-None-Match", "\"" + id + ".3\""));
+    assertThat(uncached.status, is(304));
+    assertThat(uncached.body.length(), is(0));
+    assertThat(cacheStats().getInteger("entries"), is(0));
+  }
+
+  @Test
+  public void shouldServeTheCachedGzipCopyUnderItsOwnEtag() throws Exception {
+    save("Compressed", "Stored *gzipped* once");
+    JsonObject page = fetch("Compressed");
+    String etag = "\"" + page.getInteger("id") + "." + page.getInteger("revision") + "\"";
+    String gzipEtag = "\"" + page.getInteger("id") + "." + page.getInteger("revision") + "-gz\"";
+
+    Response identity = get("/wiki/Compressed", MultiMap.caseInsensitiveMultiMap());
+    awaitCachedPages(1);
+    MultiMap acceptGzip = MultiMap.caseInsensitiveMultiMap().add("Accept-Encoding", "gzip");
+
+    Response gzip = get("/wiki/Compressed", acceptGzip);
+    assertThat(gzip.status, is(200));
+    assertThat(gzip.headers.get("Content-Encoding"), is("gzip"));
+    assertThat(gzip.headers.get("ETag"), is(gzipEtag));
+    assertThat(gzip.headers.get("Vary"), is("Accept-Encoding"));
+    assertThat(gunzip(gzip.body), is(identity.body.getBytes()));
+
+    Response cachedIdentity = get("/wiki/Compressed", MultiMap.caseInsensitiveMultiMap());
+    assertThat(cachedIdentity.headers.get("Content-Encoding"), is(nullValue()));
+    assertThat(cachedIdentity.headers.get("ETag"), is("W/" + etag));
+
+    Response notModified = get("/wiki/Compressed", MultiMap.caseInsensitiveMultiMap().addAll(acceptGzip).add("If-None-Match", gzipEtag));
+    assertThat(notModified.status, is(304));
+    assertThat(notModified.headers.get("ETag"), is(gzipEtag));
+    assertThat(notModified.headers.get("Vary"), is("Accept-Encoding"));
+    assertThat(notModified.body.length(), is(0));
+  }
+
+  private void awaitCachedPages(int entries) throws Exception {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (cacheStats().getInteger("entries") < entries) {
+      assertThat("page cached in time", System.currentTimeMillis() < deadline, is(true));
+      Thread.sleep(20);
+    }
+  }
+
+  private static byte[] gunzip(Buffer body) throws IOException {
+    ByteArrayOutputStream inflated = new ByteArrayOutputStream();
+    try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(body.getBytes()))) {
+      byte[] buffer = new byte[4096];
+      for (int n; (n = in.read(buffer)) > 0; ) {
+        inflated.write(buffer, 0, n);
+      }
+    }
+    return inflated.toByteArray();
+  }
+
+  private JsonObject cacheStats() throws Exception {
+    return get("/cache/stats", MultiMap.caseInsensitiveMultiMap()).body.toJsonObject();
+  }
+
+  private JsonObject fetch(String name) throws Exception {
+    CompletableFuture<JsonObject> fetched = new CompletableFuture<>();
+    dbService.fetchPage(name, reply -> {
+      if (reply.succeeded()) {
+        fetched.complete(reply.result());
+      } else {
+        fetched.completeExceptionally(reply.cause());
+      }
+    });
+    return fetched.get(5, TimeUnit.SECONDS);
+  }
+
+  /*
+   * What page.ftl makes of the page as the database has it now.
+   */
+  private String rendered(String name, String lastModified) throws Exception {
+    JsonObject page = fetch(name);
+
+    Map<String, Object> data = new HashMap<>();
+    data.put("title", name);
+    data.put("id", page.getInteger("id"));
+    data.put("newPage", "no");
+    data.put("rawContent", page.getString("rawContent"));
+    data.put("content", Processor.process(page.getString("rawContent")));
+    data.put("timestamp", lastModified);
+    return Templates.compile(Templates.NAMES).render("templates/page.ftl", data).toString("UTF-8");
+  }
+
+  private void save(String title, String markdown) throws Exception {
+    post(title, "newPage=yes", markdown);
+  }
+
+  private void edit(String title, int id, String markdown) throws Exception {
+    post(title, "newPage=no&id=" + id, markdown);
+  }
+
+  private void post(String title, String page, String markdown) throws Exception {
+    String form = "title=" + URLEncoder.encode(title, "UTF-8") + "&" + page + "&markdown=" + URLEncoder.encode(markdown, "UTF-8");
+    MultiMap headers = MultiMap.caseInsensitiveMultiMap().add("Content-Type", "application/x-www-form-urlencoded");
+    assertThat(request(HttpMethod.POST, "/save", headers, Buffer.buffer(form, StandardCharsets.UTF_8.name())).status, is(303));
+  }
+
+  private Response get(String path, MultiMap headers) throws Exception {
+    return request(HttpMethod.GET, path, headers, null);
+  }
+
+  private Response request(HttpMethod method, String path, MultiMap headers, Buffer body) throws Exception {
+    CompletableFuture<Response> response = new CompletableFuture<>();
+    HttpClientRequest request = client.request(method, PORT, "localhost", path, received ->
+      received.bodyHandler(content -> response.complete(new Response(received.statusCode(), received.headers(), content))));
+    request.exceptionHandler(response::completeExceptionally);
+    request.headers().addAll(headers);
+    if (body != null) {
+      request.end(body);
+    } else {
+      request.end();
+    }
+    return response.get(5, TimeUnit.SECONDS);
+  }
+
+  private static final class Response {
+
+    final int status;
+    final MultiMap headers;
+    final Buffer body;
+
+    Response(int status, MultiMap headers, Buffer body) {
+      this.status = status;
+      this.headers = headers;
+      this.body = body;
+    }
+  }
+}
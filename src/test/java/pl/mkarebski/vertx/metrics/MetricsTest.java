@@ -0,0 +1,49 @@
+package pl.mkarebski.vertx.metrics;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+
+public class MetricsTest {
+
+  @Test
+  public void shouldRenderTimersAsCumulativePrometheusHistograms() {
+    Metrics metrics = new Metrics();
+    Timer timer = metrics.timer("wiki_test_seconds", "Test timer", "route", "/wiki/:page");
+
+    timer.record(TimeUnit.MICROSECONDS.toNanos(50));
+    timer.record(TimeUnit.MILLISECONDS.toNanos(3));
+    timer.record(TimeUnit.SECONDS.toNanos(30));
+
+    String text = metrics.scrape();
+    assertThat(text, containsString("# TYPE wiki_test_seconds histogram\n"));
+    assertThat(text, containsString("wiki_test_seconds_bucket{route=\"/wiki/:page\",le=\"0.0001\"} 1\n"));
+    assertThat(text, containsString("wiki_test_seconds_bucket{route=\"/wiki/:page\",le=\"0.0025\"} 1\n"));
+    assertThat(text, containsString("wiki_test_seconds_bucket{route=\"/wiki/:page\",le=\"0.005\"} 2\n"));
+    assertThat(text, containsString("wiki_test_seconds_bucket{route=\"/wiki/:page\",le=\"10\"} 2\n"));
+    assertThat(text, containsString("wiki_test_seconds_bucket{route=\"/wiki/:page\",le=\"+Inf\"} 3\n"));
+    assertThat(text, containsString("wiki_test_seconds_count{route=\"/wiki/:page\"} 3\n"));
+  }
+
+  @Test
+  public void shouldReturnTheSameMetricForTheSameLabels() {
+    Metrics metrics = new Metrics();
+    Counter errors = metrics.counter("wiki_test_errors_total", "Test counter", "code", "DB_ERROR");
+    errors.increment();
+
+    assertThat(metrics.counter("wiki_test_errors_total", "Test counter", "code", "DB_ERROR"), is(sameInstance(errors)));
+    assertThat(metrics.scrape(), containsString("wiki_test_errors_total{code=\"DB_ERROR\"} 1\n"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldRejectANameRegisteredWithAnotherType() {
+    Metrics metrics = new Metrics();
+    metrics.counter("wiki_test_total", "Test counter");
+    metrics.gauge("wiki_test_total", "Test gauge");
+  }
+}
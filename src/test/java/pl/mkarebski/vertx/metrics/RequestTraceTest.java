@@ -0,0 +1,73 @@
+package pl.mkarebski.vertx.metrics;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+public class RequestTraceTest {
+
+  @Test
+  public void shouldBringBackTheStagesRecordedOnTheOtherSide() {
+    RequestTrace trace = RequestTrace.start("/wiki/:page");
+    RequestTrace remote = RequestTrace.remote(trace.id());
+    remote.add("db.connection", 2_000_000);
+    remote.add("db.query", 500_000);
+
+    long remoteNanos = trace.addEncoded(remote.encodeStages() + ",malformed,db.rows=x");
+    trace.add("eventbus", 3_000_000 - remoteNanos);
+    trace.add("template", 1_250_000);
+
+    assertThat(remoteNanos, is(2_500_000L));
+    assertThat(trace.stages().stream().map(stage -> stage.name).collect(Collectors.toList()),
+      contains("db.connection", "db.query", "eventbus", "template"));
+    assertThat(trace.describe(200, 4_250_000), is("trace " + trace.id() + " /wiki/:page 200 in 4.3 ms: "
+      + "db.connection=2.0 ms, db.query=0.5 ms, eventbus=0.5 ms, template=1.3 ms"));
+  }
+
+  @Test
+  public void shouldRecordNothingWithoutAnId() {
+    RequestTrace remote = RequestTrace.remote(null);
+    remote.stage("db.query", System.nanoTime());
+    remote.add("db.connection", 1);
+
+    assertThat(remote.enabled(), is(false));
+    assertThat(remote.id(), is(nullValue()));
+    assertThat(remote.stages().isEmpty(), is(true));
+    assertThat(remote.encodeStages(), is(""));
+  }
+
+  @Test
+  public void shouldCommitFlightRecorderEventsForTheRequestAndItsStages() throws Exception {
+    Path file = Files.createTempFile("trace", ".jfr");
+    try (Recording recording = new Recording()) {
+      recording.enable("pl.mkarebski.vertx.Request");
+      recording.enable("pl.mkarebski.vertx.RequestStage");
+      recording.start();
+
+      RequestTrace trace = RequestTrace.start("/");
+      trace.add("db.call", 7_000);
+      trace.add("template", 3_000);
+      trace.finish(200, 12_000);
+
+      recording.stop();
+      recording.dump(file);
+    }
+
+    List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+    Files.delete(file);
+    assertThat(events.stream().map(event -> event.getEventType().getName() + " " + event.getLong("elapsed"))
+        .collect(Collectors.toList()),
+      contains("pl.mkarebski.vertx.Request 12000", "pl.mkarebski.vertx.RequestStage 7000", "pl.mkarebski.vertx.RequestStage 3000"));
+  }
+}